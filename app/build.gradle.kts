@@ -43,6 +43,11 @@ android {
     buildFeatures {
         compose = true
     }
+
+    // Let JVM unit tests of the ASR code run through android.util.Log calls
+    testOptions {
+        unitTests.isReturnDefaultValues = true
+    }
 }
 
 dependencies {
@@ -0,0 +1,269 @@
+package com.thingsapart.langtutor.asr
+
+import android.content.ComponentCallbacks2
+import android.content.Context
+import android.content.res.Configuration
+import android.util.Log
+import com.whispertflite.asr.Recorder
+import com.whispertflite.asr.Whisper
+import kotlinx.coroutines.*
+import kotlinx.coroutines.sync.Mutex
+import kotlinx.coroutines.sync.withLock
+import java.io.Closeable
+import java.io.File
+import java.io.IOException
+import java.util.concurrent.atomic.AtomicBoolean
+
+/**
+ * Whisper engines shared by the whole process, one per model path. Every screen that
+ * needs speech input acquires a lease instead of creating its own Whisper and Recorder,
+ * so the model is mapped, the vocab parsed and the worker threads started only once.
+ *
+ * An engine without leases stays loaded and warm for [idleTimeoutMs], so navigating
+ * between chats does not pay the load again. After that, or as soon as the system
+ * reports memory pressure, it is unloaded and its threads end.
+ *
+ * Use [getInstance]; the constructor is only visible for tests.
+ */
+class AsrEngineRegistry internal constructor(private val context: Context) : ComponentCallbacks2 {
+
+    companion object {
+        private const val TAG = "AsrEngineRegistry"
+        const val DEFAULT_IDLE_TIMEOUT_MS = 60_000L
+
+        @Volatile
+        private var INSTANCE: AsrEngineRegistry? = null
+
+        fun getInstance(context: Context): AsrEngineRegistry {
+            return INSTANCE ?: synchronized(this) {
+                INSTANCE ?: AsrEngineRegistry(context.applicationContext).also { registry ->
+                    context.applicationContext.registerComponentCallbacks(registry)
+                    INSTANCE = registry
+                }
+            }
+        }
+    }
+
+    // How long an engine without leases stays loaded; applies from the next release
+    @Volatile
+    var idleTimeoutMs: Long = DEFAULT_IDLE_TIMEOUT_MS
+
+    // Run a silent transcription while loading, so the learner's first sentence is not the slow one
+    @Volatile
+    var warmUp: Boolean = true
+
+    // Measure the fastest thread counts on this device the first time a model is loaded
+    @Volatile
+    var autoTuneThreads: Boolean = true
+
+    // One loaded model with the Recorder that feeds it; refCount and evictionJob are guarded by the registry lock
+    class SharedEngine internal constructor(val modelPath: String, val whisper: Whisper, val recorder: Recorder) {
+        internal var refCount = 0
+        internal var evictionJob: Job? = null
+        internal val loadMutex = Mutex()
+        @Volatile
+        internal var loaded = false
+        // The lease whose callbacks the Whisper and Recorder currently call, guarded by ownerLock
+        internal val ownerLock = Any()
+        internal var owner: AsrEngineLease? = null
+    }
+
+    private val scope = CoroutineScope(Dispatchers.IO + SupervisorJob())
+    private val lock = Any()
+    private val engines = HashMap<String, SharedEngine>()
+
+    /**
+     * Returns a lease on the engine for modelPath, loading the model on first use. Callers
+     * for the same model wait for a single load. Throws IOException if the model could
+     * not be loaded; the next acquire() tries again.
+     */
+    suspend fun acquire(modelPath: String, vocabPath: String, isMultilingual: Boolean): AsrEngineLease {
+        val engine = synchronized(lock) {
+            val engine = engines.getOrPut(modelPath) { createEngine(modelPath) }
+            engine.refCount++
+            engine.evictionJob?.cancel()
+            engine.evictionJob = null
+            engine
+        }
+        try {
+            engine.loadMutex.withLock {
+                if (!engine.loaded) {
+                    withContext(Dispatchers.IO) {
+                        val start = System.nanoTime()
+                        engine.whisper.setWarmUp(warmUp)
+                        engine.whisper.setAutoTuneThreads(autoTuneThreads)
+                        engine.whisper.loadModel(File(modelPath), File(vocabPath), isMultilingual)
+                        engine.loaded = engine.whisper.isModelLoaded
+                        Log.d(TAG, "Loaded $modelPath in ${(System.nanoTime() - start) / 1_000_000} ms: ${engine.whisper.timings}")
+                    }
+                    if (!engine.loaded) {
+                        throw IOException("Failed to load ASR model $modelPath")
+                    }
+                } else {
+                    Log.d(TAG, "Reusing loaded $modelPath")
+                }
+            }
+        } catch (e: Throwable) {
+            release(engine)
+            throw e
+        }
+        return AsrEngineLease(this, engine)
+    }
+
+    // Unloads every engine that has no leases right now
+    fun evictIdle() {
+        val idle = synchronized(lock) {
+            engines.values.filter { it.refCount == 0 }.onEach { removeLocked(it) }
+        }
+        idle.forEach { shutdown(it) }
+    }
+
+    internal fun release(engine: SharedEngine) {
+        val evictNow = synchronized(lock) {
+            check(engine.refCount > 0) { "Engine released more often than acquired" }
+            if (--engine.refCount > 0) {
+                return
+            }
+            if (engine.loaded && idleTimeoutMs > 0) {
+                val timeoutMs = idleTimeoutMs
+                engine.evictionJob = scope.launch {
+                    delay(timeoutMs)
+                    evictIfIdle(engine)
+                }
+                false
+            } else {
+                removeLocked(engine)
+                true
+            }
+        }
+        if (evictNow) {
+            shutdown(engine)
+        }
+    }
+
+    private fun evictIfIdle(engine: SharedEngine) {
+        val evict = synchronized(lock) {
+            if (engine.refCount == 0 && engines[engine.modelPath] === engine) {
+                removeLocked(engine)
+                true
+            } else {
+                false
+            }
+        }
+        if (evict) {
+            Log.d(TAG, "Idle for $idleTimeoutMs ms, unloading ${engine.modelPath}")
+            shutdown(engine)
+        }
+    }
+
+    private fun createEngine(modelPath: String): SharedEngine {
+        Log.d(TAG, "Creating engine for $modelPath")
+        val whisper = Whisper(context)
+        val recorder = Recorder(context)
+        recorder.setStreamingMel(whisper.streamingMel) // mel is computed while the user speaks
+        recorder.setRecordBuffer(whisper.recordBuffer) // audio goes straight to this Whisper instance
+        return SharedEngine(modelPath, whisper, recorder)
+    }
+
+    private fun removeLocked(engine: SharedEngine) {
+        engine.evictionJob?.cancel()
+        engine.evictionJob = null
+        if (engines[engine.modelPath] === engine) {
+            engines.remove(engine.modelPath)
+        }
+    }
+
+    // Unloads off the caller's thread, since it waits for a transcription to stop
+    private fun shutdown(engine: SharedEngine) {
+        scope.launch {
+            try {
+                if (engine.recorder.isInProgress) {
+                    engine.recorder.stop()
+                }
+                engine.recorder.release()
+                engine.whisper.release()
+                Log.d(TAG, "Unloaded ${engine.modelPath}")
+            } catch (e: Exception) {
+                Log.e(TAG, "Error unloading ${engine.modelPath}: ${e.message}", e)
+            }
+        }
+    }
+
+    override fun onTrimMemory(level: Int) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            Log.d(TAG, "Memory pressure (level $level), unloading idle engines")
+            evictIdle()
+        }
+    }
+
+    override fun onLowMemory() {
+        evictIdle()
+    }
+
+    override fun onConfigurationChanged(newConfig: Configuration) {
+    }
+}
+
+/**
+ * A screen's hold on a shared engine. Close it when the screen goes away; the engine
+ * stays loaded for the next lease until the registry evicts it. Closing twice is a no-op.
+ *
+ * Leases on the same model share one Whisper and one Recorder, which call a single set of
+ * listeners. The lease that attached them last with [attach] owns the engine. A screen
+ * that is going away stops the engine's work and removes its listeners through
+ * [detachIfOwner], so it never stops or detaches a newer screen that already took over.
+ */
+class AsrEngineLease internal constructor(
+    private val registry: AsrEngineRegistry,
+    private val engine: AsrEngineRegistry.SharedEngine
+) : Closeable {
+    private val closed = AtomicBoolean(false)
+
+    val whisper: Whisper
+        get() = engine.whisper
+
+    val recorder: Recorder
+        get() = engine.recorder
+
+    // True while this lease's listeners are the ones attached to the engine
+    val isOwner: Boolean
+        get() = synchronized(engine.ownerLock) { engine.owner === this }
+
+    // Makes this lease the owner and runs attachListeners, which points the engine's callbacks at the caller
+    fun attach(attachListeners: () -> Unit) {
+        synchronized(engine.ownerLock) {
+            engine.owner = this
+            attachListeners()
+        }
+    }
+
+    /**
+     * Runs detach, which stops the caller's work on the engine and removes its listeners,
+     * only if this lease still owns the engine. Another lease cannot take over while it
+     * runs. Returns false, without running it, if another lease attached in the meantime.
+     */
+    fun detachIfOwner(detach: () -> Unit): Boolean {
+        synchronized(engine.ownerLock) {
+            if (engine.owner !== this) {
+                return false
+            }
+            try {
+                detach()
+            } finally {
+                engine.owner = null
+            }
+            return true
+        }
+    }
+
+    override fun close() {
+        if (closed.compareAndSet(false, true)) {
+            synchronized(engine.ownerLock) {
+                if (engine.owner === this) {
+                    engine.owner = null
+                }
+            }
+            registry.release(engine)
+        }
+    }
+}
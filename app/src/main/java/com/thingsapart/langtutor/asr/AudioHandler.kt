@@ -2,11 +2,14 @@ package com.thingsapart.langtutor.asr
 
 import android.content.Context
 import android.util.Log
+import com.whispertflite.asr.PcmRingBuffer
 import com.whispertflite.asr.Recorder
+import com.whispertflite.asr.VadStats
 import com.whispertflite.asr.Whisper
 import com.whispertflite.asr.WhisperResult
+import com.whispertflite.asr.WhisperSegment
+import com.whispertflite.engine.BatchItem
 import kotlinx.coroutines.*
-import java.io.File
 import java.io.IOException
 
 class AudioHandler(
@@ -14,6 +17,11 @@ class AudioHandler(
     private val modelPath: String,
     private val vocabPath: String,
     private val isMultilingual: Boolean,
+    // Record past pauses and the 30 s model window, transcribing segments while recording;
+    // otherwise one recording of up to 30 s is transcribed after it ends
+    private val longFormDictation: Boolean = true,
+    // Interim transcripts in the input field while the learner talks, every this many ms; 0 for none
+    private val partialIntervalMs: Int = 1000,
     private val onTranscriptionUpdate: (String) -> Unit,
     private val onRecordingStopped: () -> Unit,
     private val onError: (String) -> Unit,
@@ -28,8 +36,11 @@ class AudioHandler(
         private const val SILENCE_THRESHOLD_MS = 5000L
     }
 
+    // Shared with every other screen using this model, see AsrEngineRegistry
+    private val registry = AsrEngineRegistry.getInstance(context)
+    private var lease: AsrEngineLease? = null
     private lateinit var whisper: Whisper
-    private var recorder: Recorder = Recorder(context)
+    private lateinit var recorder: Recorder
 
     private val scope = CoroutineScope(Dispatchers.IO + SupervisorJob())
     // private var transcriptionJob: Job? = null // Removed as it's obsolete
@@ -46,21 +57,17 @@ class AudioHandler(
     private var isEngineInitialized = false
     private var isHandlerReady = false
 
+    private val initJob: Job
+
     init {
         Log.d(TAG, "Initializing AudioHandler...")
-        recorder.setListener(InternalRecorderListener())
-        whisper = Whisper(context)
-        whisper.setListener(InternalWhisperListener())
-        // val outputDir = context.cacheDir // Removed
-        // val outputFile = File(outputDir, "recorder_temp_audio.wav") // Removed
-        // recorder.setFilePath(outputFile.absolutePath) // Removed
-        // Log.d(TAG, "Recorder WAV output path set to: ${outputFile.absolutePath}") // Removed
-
-        scope.launch {
+        initJob = scope.launch {
             try {
-                Log.d(TAG, "Initializing Whisper with model: $modelPath, vocab: $vocabPath")
-                whisper.loadModel(File(modelPath), File(vocabPath), isMultilingual)
-                isEngineInitialized = true // Assume success if no exception
+                Log.d(TAG, "Acquiring Whisper with model: $modelPath, vocab: $vocabPath")
+                val acquired = registry.acquire(modelPath, vocabPath, isMultilingual)
+                lease = acquired
+                attach(acquired)
+                isEngineInitialized = true
                 Log.d(TAG, "Whisper initialized successfully.")
 
                 if (isMultilingual) {
@@ -78,6 +85,8 @@ class AudioHandler(
                     Log.d(TAG, "English-only model, lang token set to default: $currentLanguageToken")
                 }
                 isHandlerReady = true
+            } catch (e: CancellationException) {
+                throw e // released before the engine was ready
             } catch (e: IOException) {
                 Log.e(TAG, "IOException during Whisper initialization: ${e.message}", e)
                 onError("ASR Engine initialization error: ${e.message}")
@@ -92,6 +101,33 @@ class AudioHandler(
         }
     }
 
+    // Points the shared engine's callbacks at this handler, taking them over from any earlier screen
+    private fun attach(lease: AsrEngineLease) = lease.attach {
+        whisper = lease.whisper
+        recorder = lease.recorder
+        recorder.setListener(InternalRecorderListener())
+        whisper.setListener(InternalWhisperListener())
+        whisper.setPartialListener({ committed, tentative ->
+            val text = listOf(committed, tentative).filter { it.isNotBlank() }.joinToString(" ")
+            scope.launch(Dispatchers.Main) { onTranscriptionUpdate(text) }
+        }, partialIntervalMs)
+        if (longFormDictation) {
+            recorder.setSegmentListener(object : Recorder.SegmentListener {
+                override fun onSegment(segment: PcmRingBuffer.Recording) = whisper.transcribeSegment(segment)
+                override fun onCaptureEnd() = whisper.endSegments()
+            })
+        } else {
+            recorder.setSegmentListener(null)
+        }
+    }
+
+    private fun detach() {
+        recorder.setListener(null)
+        recorder.setSegmentListener(null)
+        whisper.setListener(null)
+        whisper.setPartialListener(null, 0)
+    }
+
     private fun startWhisperProcessing() {
         if (!isEngineInitialized) {
             Log.e(TAG, "Whisper not initialized, cannot start processing.")
@@ -99,18 +135,14 @@ class AudioHandler(
             onTranscriptionProcessStateChange(false) // Ensure state is reset on error
             return
         }
-        if (whisper.isInProgress) {
-            Log.d(TAG, "Whisper processing is already in progress.")
-            // Consider if state should be set to true here if it can get stuck, or if this is fine
-            return
-        }
+        // A recording that ends while the previous one is still transcribed is queued behind it
         scope.launch {
             Log.d(TAG, "Starting Whisper processing. Action: $currentAction, Language Token: $currentLanguageToken")
             onTranscriptionProcessStateChange(true) // Transcription started
             try {
                 whisper.setLanguage(currentLanguageToken) // Set language
                 whisper.setAction(currentAction)         // Set action (transcribe/translate)
-                whisper.start()                          // Start processing
+                whisper.start()                          // Queue the recording
             } catch (e: Exception) {
                 Log.e(TAG, "Exception during whisper.start(): ${e.message}", e)
                 onError("ASR processing start error: ${e.message}")
@@ -133,6 +165,11 @@ class AudioHandler(
             try {
                 currentTranscription = ""
                 onTranscriptionUpdate("") // Clear previous transcription
+                if (longFormDictation) {
+                    // Segments are transcribed while recording, so set these up front
+                    whisper.setLanguage(currentLanguageToken)
+                    whisper.setAction(currentAction)
+                }
                 recorder.initVad() // Initialize VAD
                 recorder.start() // This is asynchronous as per Recorder.java
                 Log.d(TAG, "Recorder start requested.")
@@ -168,6 +205,11 @@ class AudioHandler(
             isManuallyStopping = true // Set flag
             try {
                 silenceJob?.cancel() // Stop silence detection
+                if (!::recorder.isInitialized) {
+                    Log.d(TAG, "Engine not acquired yet, nothing to stop.")
+                    return@launch
+                }
+                whisper.cancelPartial() // an interim transcript in the engine would only delay the final one
                 if (recorder.isInProgress) {
                     recorder.stop() // This is synchronous and waits for file to be saved
                     Log.d(TAG, "Recorder stop requested and completed.")
@@ -211,12 +253,26 @@ class AudioHandler(
                         onSpeechActive(false)
                     }
                     Recorder.MSG_RECORDING_DONE -> {
-                        Log.d(TAG, "Recording done, starting Whisper processing.")
-                        startWhisperProcessing() // Method in AudioHandler
+                        if (longFormDictation) {
+                            // Segments are already being transcribed, the stitched result follows
+                            Log.d(TAG, "Recording done, Whisper is finishing the last segment.")
+                            if (whisper.isInProgress) onTranscriptionProcessStateChange(true)
+                        } else {
+                            Log.d(TAG, "Recording done, starting Whisper processing.")
+                            startWhisperProcessing() // Method in AudioHandler
+                        }
                         onSpeechActive(false) // Speech ended leading to recording done
                         // Automatic restart logic removed. ChatScreen will control restarts.
                         Log.d(TAG, "MSG_RECORDING_DONE: Automatic recorder restart logic is now removed. ChatScreen controls restarts.")
                     }
+                    Recorder.MSG_NO_SPEECH -> {
+                        // Stopped or timed out before the learner said anything: not an error
+                        Log.d(TAG, "Recorder heard no speech.")
+                        onSpeechActive(false)
+                        scope.launch(Dispatchers.Main) {
+                            onRecordingStopped()
+                        }
+                    }
                     Recorder.MSG_RECORDING_ERROR -> {
                         Log.e(TAG, "Recorder reported an error.")
                         onError("Recording failed.") // Method/callback in AudioHandler
@@ -250,9 +306,14 @@ class AudioHandler(
             // }
         }
 
+        override fun onSegmentReceived(segment: WhisperSegment) {
+            Log.d(TAG, "Whisper segment: $segment")
+        }
+
         override fun onResultReceived(whisperResult: WhisperResult) {
             val transcribedText = whisperResult.result?.trim() ?: ""
             Log.d(TAG, "Whisper Result: '$transcribedText'") // TAG from AudioHandler
+            Log.d(TAG, "Engine timings: ${whisper.timings}, job timings: ${whisperResult.timings}")
 
             if (transcribedText.isNotBlank()) {
                 currentTranscription = transcribedText // currentTranscription in AudioHandler
@@ -268,6 +329,26 @@ class AudioHandler(
         }
     }
 
+    /**
+     * Transcribes a stored clip or imported file through the shared job queue, with the
+     * current action and language. A recording's transcription preempts a BACKGROUND job.
+     */
+    suspend fun transcribeClip(
+        audio: BatchItem,
+        priority: Whisper.Priority = Whisper.Priority.BACKGROUND
+    ): WhisperResult {
+        if (!isHandlerReady) {
+            throw IllegalStateException("Audio system not ready or engine failed to initialize.")
+        }
+        val result = whisper.transcribe(audio, currentAction, currentLanguageToken, priority)
+        Log.d(TAG, "Clip '${audio.name}' transcribed: ${result.timings}")
+        return result
+    }
+
+    // Voice detection work so far, to check what the energy gate saves in hands-free sessions
+    val vadStats: VadStats
+        get() = if (::recorder.isInitialized) recorder.vadStats else VadStats()
+
     fun setAction(action: Whisper.Action) {
         Log.d(TAG, "Setting action to: ${action.name}")
         this.currentAction = action
@@ -301,23 +382,31 @@ class AudioHandler(
         Log.d(TAG, "Releasing AudioHandler resources...")
         scope.launch {
             silenceJob?.cancel()
-            // transcriptionJob?.cancel() // Removed
-            if (recorder.isInProgress) {
-                recorder.stop()
-            }
-            // No explicit recorder.release() method in Recorder.java.
-            // Whisper deinitialization
-            if (isEngineInitialized) {
-                try {
-                    whisper.stop() // Stop any ongoing Whisper processing
-                    whisper.unloadModel() // Unload the Whisper model
-                    isEngineInitialized = false
-                    Log.d(TAG, "Whisper model unloaded and processing stopped.")
-                } catch (e: Exception) {
-                    Log.e(TAG, "Error during Whisper deinitialization: ${e.message}", e)
+            initJob.cancelAndJoin() // a lease acquired after this point would never be closed
+            val acquired = lease ?: return@launch
+            try {
+                // The engine stays loaded for the next screen; only this handler's work and callbacks go.
+                // If the next screen has attached already, the recording, jobs and callbacks are its own.
+                val detached = acquired.detachIfOwner {
+                    if (recorder.isInProgress) {
+                        recorder.stop()
+                    }
+                    whisper.stop()
+                    detach()
+                }
+                if (detached) {
+                    Log.d(TAG, "Whisper processing stopped, lease returned.")
+                } else {
+                    Log.d(TAG, "Engine taken over by another screen, lease returned.")
                 }
+            } catch (e: Exception) {
+                Log.e(TAG, "Error while releasing the engine: ${e.message}", e)
+            } finally {
+                acquired.close()
+                lease = null
+                isEngineInitialized = false
+                isHandlerReady = false
             }
-            isHandlerReady = false
         }.invokeOnCompletion {
             scope.cancel() // Cancel the scope itself after all cleanup jobs complete
             Log.d(TAG, "AudioHandler scope cancelled.")
@@ -0,0 +1,18 @@
+package com.thingsapart.langtutor.asr
+
+import com.whispertflite.asr.Whisper
+import com.whispertflite.asr.WhisperResult
+import com.whispertflite.engine.BatchItem
+import kotlinx.coroutines.future.await
+
+/**
+ * Coroutine form of [Whisper.submit]: suspends until the job is transcribed without
+ * blocking a thread. Cancelling the coroutine cancels the job, dropping it from the queue
+ * or stopping it in the engine.
+ */
+suspend fun Whisper.transcribe(
+    audio: BatchItem,
+    action: Whisper.Action,
+    langToken: Int,
+    priority: Whisper.Priority = Whisper.Priority.INTERACTIVE
+): WhisperResult = submit(audio, action, langToken, priority).await()
@@ -0,0 +1,26 @@
+package com.whispertflite.asr;
+
+import java.io.IOException;
+
+/**
+ * Where the Recorder gets its audio: 16 kHz mono 16-bit PCM in native byte order.
+ *
+ * The microphone is the default, see MicAudioSource. FileAudioSource replays a WAV or raw
+ * PCM file, so the capture, VAD, mel and inference pipeline can run without a device.
+ */
+public interface AudioSource {
+    int SAMPLE_RATE = 16000;
+
+    // Called on the recording thread before the first read
+    void start() throws IOException;
+
+    /**
+     * Reads up to length bytes into buffer at offset, blocking like AudioRecord.read().
+     * Returns the number of bytes read, or a value <= 0 at the end of the audio or on error,
+     * which ends the recording.
+     */
+    int read(byte[] buffer, int offset, int length);
+
+    // Called on the recording thread once the recording ends; releases the source
+    void stop();
+}
@@ -0,0 +1,106 @@
+package com.whispertflite.asr;
+
+import java.nio.ByteOrder;
+
+/**
+ * First stage of voice detection: decides from RMS energy and zero-crossing rate whether
+ * a 16-bit PCM frame could contain speech, so the WebRTC VAD only runs when it might.
+ *
+ * The gate opens when a frame is well above an adaptive noise floor, or for quieter
+ * frames with a high zero-crossing rate (fricatives such as "s" and "f"). It stays open
+ * for HANGOVER_FRAMES after the last such frame, so the VAD also sees word endings. The
+ * noise floor follows quieter frames immediately and rises slowly, so steady background
+ * noise is absorbed after a few seconds.
+ */
+final class EnergyGate {
+    static final float MIN_RMS = 0.003f; // about -50 dBFS, quieter frames never open the gate
+    static final float OPEN_RATIO = 3.0f; // ~10 dB above the noise floor
+    static final float FRICATIVE_RATIO = 1.5f;
+    static final float FRICATIVE_ZCR = 0.3f; // crossings per sample
+    static final int HANGOVER_FRAMES = 10;
+
+    // Per-frame noise floor adaptation towards louder frames
+    private static final float FLOOR_RISE = 0.02f;
+    private static final float FLOOR_RISE_ACTIVE = 0.005f;
+
+    private final boolean littleEndian = ByteOrder.nativeOrder() == ByteOrder.LITTLE_ENDIAN;
+    private float noiseFloor = -1.0f;
+    private int hangover = 0;
+    private float lastRms = 0.0f;
+    private float lastZcr = 0.0f;
+    private boolean lastActive = false;
+
+    void reset() {
+        noiseFloor = -1.0f;
+        hangover = 0;
+        lastActive = false;
+    }
+
+    // True if the VAD should look at this frame of 16-bit PCM in native byte order
+    boolean isOpen(byte[] pcm, int offset, int length) {
+        int n = length / 2;
+        if (n == 0) {
+            lastActive = false;
+            return hangover > 0;
+        }
+
+        long sumSquares = 0;
+        int crossings = 0;
+        int previous = 0;
+        int end = offset + n * 2;
+        for (int i = offset; i < end; i += 2) {
+            int value = littleEndian
+                    ? (short) ((pcm[i] & 0xff) | (pcm[i + 1] << 8))
+                    : (short) ((pcm[i + 1] & 0xff) | (pcm[i] << 8));
+            sumSquares += (long) value * value;
+            if ((value ^ previous) < 0) {
+                crossings++;
+            }
+            previous = value;
+        }
+        float rms = (float) (Math.sqrt((double) sumSquares / n) / 32768.0);
+        float zcr = (float) crossings / n;
+        lastRms = rms;
+        lastZcr = zcr;
+
+        if (noiseFloor < 0.0f) {
+            noiseFloor = rms;
+        }
+        boolean active = rms > Math.max(noiseFloor * OPEN_RATIO, MIN_RMS)
+                || (zcr > FRICATIVE_ZCR && rms > Math.max(noiseFloor * FRICATIVE_RATIO, MIN_RMS));
+
+        if (rms < noiseFloor) {
+            noiseFloor = rms;
+        } else {
+            noiseFloor += (rms - noiseFloor) * (active ? FLOOR_RISE_ACTIVE : FLOOR_RISE);
+        }
+
+        lastActive = active;
+        if (active) {
+            hangover = HANGOVER_FRAMES;
+            return true;
+        }
+        if (hangover > 0) {
+            hangover--;
+            return true;
+        }
+        return false;
+    }
+
+    // True if the last frame itself had speech-like energy, not just the hangover keeping the gate open
+    boolean wasActive() {
+        return lastActive;
+    }
+
+    float getNoiseFloor() {
+        return noiseFloor;
+    }
+
+    float getLastRms() {
+        return lastRms;
+    }
+
+    float getLastZcr() {
+        return lastZcr;
+    }
+}
@@ -0,0 +1,152 @@
+package com.whispertflite.asr;
+
+import com.whispertflite.utils.Resampler;
+import com.whispertflite.utils.WaveUtil;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+/**
+ * Replays recorded audio in place of the microphone, for tests and benchmarks without a
+ * device. In real time mode read() blocks until the audio it returns would have been
+ * captured, like AudioRecord; otherwise the audio is returned as fast as it is read.
+ * The end of the audio ends the recording.
+ *
+ * Audio at other rates or with more channels is converted to 16 kHz mono chunk by chunk
+ * as it is read, for WAV files as well as raw PCM.
+ */
+public class FileAudioSource implements AudioSource {
+    private final byte[] pcm;
+    private final boolean realTime;
+    private final int inputBytesPerSecond;
+    private final Resampler resampler; // null for 16 kHz mono input
+    private float[] converted = null;
+    private int position = 0;
+    private long startNanos = 0;
+
+    // pcm is 16 kHz mono 16-bit PCM in native byte order
+    public FileAudioSource(byte[] pcm, boolean realTime) {
+        this(pcm, SAMPLE_RATE, 1, realTime);
+    }
+
+    // pcm is interleaved 16-bit PCM in native byte order
+    public FileAudioSource(byte[] pcm, int sampleRate, int channels, boolean realTime) {
+        this.pcm = pcm;
+        this.realTime = realTime;
+        this.inputBytesPerSecond = sampleRate * channels * 2;
+        this.resampler = sampleRate == SAMPLE_RATE && channels == 1
+                ? null : new Resampler(sampleRate, SAMPLE_RATE, channels);
+    }
+
+    // WAV file, 16-bit or float, at any rate; converted while it is read like fromPcmFile
+    public static FileAudioSource fromWaveFile(String filePath, boolean realTime) throws IOException {
+        int sampleRate = WaveUtil.getSampleRate(filePath);
+        int channels = WaveUtil.getNumChannels(filePath);
+        byte[] pcm = sampleRate > 0 && channels > 0 ? WaveUtil.getPcm16(filePath) : null;
+        if (pcm == null) {
+            throw new IOException("Not a valid WAV file: " + filePath);
+        }
+        return new FileAudioSource(pcm, sampleRate, channels, realTime);
+    }
+
+    // Headerless 16 kHz mono 16-bit little-endian PCM file
+    public static FileAudioSource fromPcmFile(String filePath, boolean realTime) throws IOException {
+        return fromPcmFile(filePath, SAMPLE_RATE, 1, realTime);
+    }
+
+    // Headerless interleaved 16-bit little-endian PCM file, converted while it is read
+    public static FileAudioSource fromPcmFile(String filePath, int sampleRate, int channels, boolean realTime) throws IOException {
+        byte[] pcm = Files.readAllBytes(Paths.get(filePath));
+        if (ByteOrder.nativeOrder() != ByteOrder.LITTLE_ENDIAN) {
+            for (int i = 0; i + 1 < pcm.length; i += 2) {
+                byte low = pcm[i];
+                pcm[i] = pcm[i + 1];
+                pcm[i + 1] = low;
+            }
+        }
+        return new FileAudioSource(pcm, sampleRate, channels, realTime);
+    }
+
+    @Override
+    public void start() {
+        position = 0;
+        startNanos = System.nanoTime();
+        if (resampler != null) {
+            resampler.reset();
+        }
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) {
+        if (resampler != null) {
+            return readConverted(buffer, offset, length);
+        }
+
+        int count = Math.min(length & ~1, pcm.length - position);
+        if (count <= 0 || !waitUntilCaptured(position + count)) {
+            return -1;
+        }
+        System.arraycopy(pcm, position, buffer, offset, count);
+        position += count;
+        return count;
+    }
+
+    // Converts as much input as fits in length bytes of output
+    private int readConverted(byte[] buffer, int offset, int length) {
+        int maxSamples = length / 2;
+        if (converted == null || converted.length < maxSamples) {
+            converted = new float[maxSamples];
+        }
+        int frameBytes = resampler.getChannels() * 2;
+        int frames = Math.max(1, resampler.maxInput(maxSamples));
+
+        // A few input frames may not complete an output sample, read on until one is
+        int samples = 0;
+        while (samples == 0) {
+            int count = Math.min(frames * frameBytes, (pcm.length - position) / frameBytes * frameBytes);
+            if (count <= 0 || !waitUntilCaptured(position + count)) {
+                return -1;
+            }
+            samples = resampler.processPcm16(pcm, position, count, converted, 0);
+            position += count;
+        }
+
+        boolean littleEndian = ByteOrder.nativeOrder() == ByteOrder.LITTLE_ENDIAN;
+        for (int i = 0; i < samples; i++) {
+            int value = Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, Math.round(converted[i] * 32768.0f)));
+            int at = offset + 2 * i;
+            buffer[at] = (byte) (littleEndian ? value : value >> 8);
+            buffer[at + 1] = (byte) (littleEndian ? value >> 8 : value);
+        }
+        return samples * 2;
+    }
+
+    // In real time mode, sleeps until the input up to inputEnd would have been captured
+    private boolean waitUntilCaptured(int inputEnd) {
+        if (!realTime) {
+            return true;
+        }
+        long dueNanos = startNanos + inputEnd * 1_000_000_000L / inputBytesPerSecond;
+        long waitNanos = dueNanos - System.nanoTime();
+        if (waitNanos > 0) {
+            try {
+                Thread.sleep(waitNanos / 1_000_000, (int) (waitNanos % 1_000_000));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public void stop() {
+    }
+
+    // Bytes of input not read yet
+    public int remaining() {
+        return pcm.length - position;
+    }
+}
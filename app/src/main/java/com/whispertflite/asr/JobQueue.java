@@ -0,0 +1,126 @@
+package com.whispertflite.asr;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Jobs waiting for Whisper's worker thread. Interactive jobs are taken before background
+ * ones, each priority in submission order, so the segments of a capture stay in order.
+ *
+ * At most capacity audio jobs wait at a time. When the queue is full an interactive audio
+ * job takes the place of the newest background one; otherwise the new job is rejected.
+ * Capture jobs do not count against the capacity.
+ *
+ * Not thread-safe; Whisper guards it with its task lock.
+ */
+final class JobQueue {
+    private final ArrayDeque<WhisperJob> interactive = new ArrayDeque<>();
+    private final ArrayDeque<WhisperJob> background = new ArrayDeque<>();
+    private final int capacity;
+    private int audioJobs = 0;
+
+    JobQueue(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+        }
+        this.capacity = capacity;
+    }
+
+    /**
+     * Queues job. Returns null if it was added without displacing anything, the background
+     * job that was dropped to make room for it, or job itself if there was no room.
+     */
+    WhisperJob offer(WhisperJob job) {
+        WhisperJob dropped = null;
+        if (job.kind == WhisperJob.Kind.AUDIO && audioJobs >= capacity) {
+            if (job.priority == Whisper.Priority.BACKGROUND) {
+                return job;
+            }
+            dropped = removeNewestBackgroundAudio();
+            if (dropped == null) {
+                return job;
+            }
+        }
+        add(job, false);
+        return dropped;
+    }
+
+    // A preempted job goes back ahead of the others of its priority, even if the queue is full
+    void requeue(WhisperJob job) {
+        add(job, true);
+    }
+
+    // Next job to run, or null if there is none
+    WhisperJob poll() {
+        WhisperJob job = interactive.poll();
+        if (job == null) {
+            job = background.poll();
+        }
+        if (job != null && job.kind == WhisperJob.Kind.AUDIO) {
+            audioJobs--;
+        }
+        return job;
+    }
+
+    boolean remove(WhisperJob job) {
+        boolean removed = (job.priority == Whisper.Priority.INTERACTIVE ? interactive : background).remove(job);
+        if (removed && job.kind == WhisperJob.Kind.AUDIO) {
+            audioJobs--;
+        }
+        return removed;
+    }
+
+    // Removes and returns every waiting job, interactive ones first
+    List<WhisperJob> drain() {
+        List<WhisperJob> jobs = new ArrayList<>(interactive);
+        jobs.addAll(background);
+        interactive.clear();
+        background.clear();
+        audioJobs = 0;
+        return jobs;
+    }
+
+    boolean isEmpty() {
+        return interactive.isEmpty() && background.isEmpty();
+    }
+
+    int size() {
+        return interactive.size() + background.size();
+    }
+
+    boolean hasCaptureJob() {
+        for (WhisperJob job : interactive) {
+            if (job.isCapture()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void add(WhisperJob job, boolean first) {
+        ArrayDeque<WhisperJob> queue = job.priority == Whisper.Priority.INTERACTIVE ? interactive : background;
+        if (first) {
+            queue.addFirst(job);
+        } else {
+            queue.addLast(job);
+        }
+        if (job.kind == WhisperJob.Kind.AUDIO) {
+            audioJobs++;
+        }
+    }
+
+    private WhisperJob removeNewestBackgroundAudio() {
+        Iterator<WhisperJob> it = background.descendingIterator();
+        while (it.hasNext()) {
+            WhisperJob job = it.next();
+            if (job.kind == WhisperJob.Kind.AUDIO) {
+                it.remove();
+                audioJobs--;
+                return job;
+            }
+        }
+        return null;
+    }
+}
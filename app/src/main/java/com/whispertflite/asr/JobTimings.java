@@ -0,0 +1,67 @@
+package com.whispertflite.asr;
+
+/**
+ * Where the time of one transcription went, in milliseconds: waiting in Whisper's job
+ * queue, computing the mel spectrogram, running the interpreter and decoding the output
+ * tokens. A stage that was not measured is -1, e.g. the queue time of a result that came
+ * straight from the engine, or the mel time when the mel was streamed during recording.
+ */
+public final class JobTimings {
+    public static final JobTimings NONE = new JobTimings(-1, -1, -1, -1);
+
+    private final long queueMs;
+    private final long melMs;
+    private final long inferenceMs;
+    private final long decodeMs;
+
+    public JobTimings(long queueMs, long melMs, long inferenceMs, long decodeMs) {
+        this.queueMs = queueMs;
+        this.melMs = melMs;
+        this.inferenceMs = inferenceMs;
+        this.decodeMs = decodeMs;
+    }
+
+    // From submission until the worker took the job, including waits after being preempted
+    public long getQueueMs() {
+        return queueMs;
+    }
+
+    public long getMelMs() {
+        return melMs;
+    }
+
+    public long getInferenceMs() {
+        return inferenceMs;
+    }
+
+    // Output tokens to text and timed segments
+    public long getDecodeMs() {
+        return decodeMs;
+    }
+
+    public JobTimings withQueueMs(long queueMs) {
+        return new JobTimings(queueMs, melMs, inferenceMs, decodeMs);
+    }
+
+    public JobTimings withMelMs(long melMs) {
+        return new JobTimings(queueMs, melMs, inferenceMs, decodeMs);
+    }
+
+    // Stage by stage sum, for results made of several runs; -1 only where neither was measured
+    public JobTimings plus(JobTimings other) {
+        return new JobTimings(sum(queueMs, other.queueMs), sum(melMs, other.melMs),
+                sum(inferenceMs, other.inferenceMs), sum(decodeMs, other.decodeMs));
+    }
+
+    private static long sum(long a, long b) {
+        if (a < 0) {
+            return b;
+        }
+        return b < 0 ? a : a + b;
+    }
+
+    @Override
+    public String toString() {
+        return "queue=" + queueMs + " ms, mel=" + melMs + " ms, inference=" + inferenceMs + " ms, decode=" + decodeMs + " ms";
+    }
+}
@@ -0,0 +1,50 @@
+package com.whispertflite.asr;
+
+import android.annotation.SuppressLint;
+import android.media.AudioFormat;
+import android.media.AudioRecord;
+import android.media.MediaRecorder;
+
+import java.io.IOException;
+
+// The device microphone through AudioRecord; the caller checks the RECORD_AUDIO permission
+class MicAudioSource implements AudioSource {
+    private final int minBufferBytes;
+    private AudioRecord audioRecord = null;
+
+    MicAudioSource(int minBufferBytes) {
+        this.minBufferBytes = minBufferBytes;
+    }
+
+    @SuppressLint("MissingPermission")
+    @Override
+    public void start() throws IOException {
+        int channelConfig = AudioFormat.CHANNEL_IN_MONO;
+        int audioFormat = AudioFormat.ENCODING_PCM_16BIT;
+        int audioSource = MediaRecorder.AudioSource.VOICE_RECOGNITION;
+
+        int bufferSize = AudioRecord.getMinBufferSize(SAMPLE_RATE, channelConfig, audioFormat);
+        if (bufferSize < minBufferBytes) bufferSize = minBufferBytes;
+        audioRecord = new AudioRecord(audioSource, SAMPLE_RATE, channelConfig, audioFormat, bufferSize);
+        if (audioRecord.getState() != AudioRecord.STATE_INITIALIZED) {
+            audioRecord.release();
+            audioRecord = null;
+            throw new IOException("AudioRecord could not be initialized");
+        }
+        audioRecord.startRecording();
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) {
+        return audioRecord.read(buffer, offset, length);
+    }
+
+    @Override
+    public void stop() {
+        if (audioRecord != null) {
+            audioRecord.stop();
+            audioRecord.release();
+            audioRecord = null;
+        }
+    }
+}
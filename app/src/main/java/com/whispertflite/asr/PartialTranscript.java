@@ -0,0 +1,61 @@
+package com.whispertflite.asr;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Interim transcript of a recording that is still growing.
+ *
+ * The whole recording is re-decoded periodically, and each hypothesis may revise the
+ * words at its end. A word is committed once two consecutive hypotheses agree on it and
+ * on everything before it; committed words are never taken back, the rest is tentative.
+ */
+public class PartialTranscript {
+    private final List<String> committed = new ArrayList<>();
+    private String[] previous = new String[0]; // normalized words of the last hypothesis
+    private String tentative = "";
+
+    public void reset() {
+        committed.clear();
+        previous = new String[0];
+        tentative = "";
+    }
+
+    public void update(String hypothesis) {
+        String trimmed = hypothesis.trim();
+        String[] words = trimmed.isEmpty() ? new String[0] : trimmed.split("\\s+");
+        String[] normalized = new String[words.length];
+        for (int i = 0; i < words.length; i++) {
+            normalized[i] = TranscriptStitcher.normalize(words[i]);
+        }
+
+        // Longest common prefix with the previous hypothesis
+        int agreed = 0;
+        while (agreed < words.length && agreed < previous.length && normalized[agreed].equals(previous[agreed])) {
+            agreed++;
+        }
+        for (int i = committed.size(); i < agreed; i++) {
+            committed.add(words[i]);
+        }
+        previous = normalized;
+
+        StringBuilder rest = new StringBuilder();
+        for (int i = committed.size(); i < words.length; i++) {
+            if (rest.length() > 0) {
+                rest.append(' ');
+            }
+            rest.append(words[i]);
+        }
+        tentative = rest.toString();
+    }
+
+    // Words that will not change any more
+    public String getCommitted() {
+        return String.join(" ", committed);
+    }
+
+    // The latest hypothesis after the committed words
+    public String getTentative() {
+        return tentative;
+    }
+}
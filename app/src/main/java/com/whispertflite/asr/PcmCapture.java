@@ -0,0 +1,94 @@
+package com.whispertflite.asr;
+
+/**
+ * Frame assembly for the capture loop.
+ *
+ * Audio is read straight into a fixed-size frame buffer. Every read is forwarded to the
+ * record buffer as it arrives, and once the frame is complete it is handed to the VAD as
+ * is. Work per frame is one frame-sized conversion into the ring regardless of how much
+ * has been recorded, and nothing is allocated while recording.
+ */
+final class PcmCapture {
+    private final byte[] frame;
+    private final int capacityBytes;
+    private PcmRingBuffer sink = null;
+    private int size = 0;
+    private int frameFill = 0;
+
+    PcmCapture(int capacityBytes, int frameBytes) {
+        this.capacityBytes = capacityBytes;
+        this.frame = new byte[frameBytes];
+    }
+
+    // Start a new recording in sink
+    void reset(PcmRingBuffer sink) {
+        reset(sink, 0);
+    }
+
+    // Start a new recording in sink that begins with the last overlapBytes bytes already written
+    void reset(PcmRingBuffer sink, int overlapBytes) {
+        this.sink = sink;
+        size = sink.begin(overlapBytes / 2).length() * 2;
+        frameFill = 0;
+    }
+
+    // Close the recording, making its length final for readers
+    void finish() {
+        sink.end();
+    }
+
+    // Close the recording, keeping at most its first keepBytes bytes
+    void finish(int keepBytes) {
+        sink.end(keepBytes / 2);
+        size = Math.min(size, keepBytes & ~1);
+    }
+
+    // Drop recorded audio from the start, keeping the last keepBytes bytes
+    void keepLast(int keepBytes) {
+        int dropBytes = (size - keepBytes) & ~1;
+        if (dropBytes > 0) {
+            sink.trimHead(dropBytes / 2);
+            size -= dropBytes;
+        }
+    }
+
+    // Read target: fill frame()[frameFill() .. frameFill() + frameRemaining())
+    byte[] frame() {
+        return frame;
+    }
+
+    int frameFill() {
+        return frameFill;
+    }
+
+    int frameRemaining() {
+        return frame.length - frameFill;
+    }
+
+    /**
+     * Commits bytesRead bytes just read into frame() at frameFill(). They are written to
+     * the record buffer, dropping whatever is past the capacity. Returns true when the
+     * frame is complete; it then stays readable through frame() until the next read.
+     */
+    boolean commit(int bytesRead) {
+        int stored = Math.min(bytesRead, capacityBytes - size);
+        sink.write(frame, frameFill, stored);
+        size += stored;
+
+        frameFill += bytesRead;
+        if (frameFill < frame.length) {
+            return false;
+        }
+        frameFill = 0;
+        return true;
+    }
+
+    // Bytes recorded so far
+    int size() {
+        return size;
+    }
+
+    boolean isFull() {
+        return size == capacityBytes;
+    }
+}
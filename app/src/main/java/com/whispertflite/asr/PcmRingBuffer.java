@@ -0,0 +1,247 @@
+package com.whispertflite.asr;
+
+import java.nio.ByteOrder;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Single-producer/single-consumer ring of 16-bit PCM between a Recorder and a WhisperEngine.
+ *
+ * The recording thread is the only writer: it calls {@link #begin}, {@link #write} for
+ * every chunk read from AudioRecord and {@link #end}. Samples become visible to the
+ * reader when write() returns, so a recording can be read while it is still being
+ * captured. Nothing is locked; the write position is the only shared counter.
+ *
+ * Samples are stored as shorts and converted to float only for the window a reader
+ * asks for, straight into the reader's array. The peak is tracked while writing, so
+ * peak-normalized samples take a single pass.
+ *
+ * The default capacity holds two 30 s recordings, so a finished recording stays intact
+ * while the next one is captured.
+ *
+ * The producer can trim a recording: {@link #trimHead} drops audio from its start, which
+ * the Recorder uses to keep only a pre-roll window before speech, and {@link #end(int)}
+ * drops audio from its end when closing it.
+ */
+public class PcmRingBuffer {
+    public static final int DEFAULT_CAPACITY = 1 << 20; // samples, ~65 s at 16 kHz
+
+    private final short[] data;
+    private final int mask;
+    private final boolean littleEndian = ByteOrder.nativeOrder() == ByteOrder.LITTLE_ENDIAN;
+
+    // Total number of samples ever written; publishes data[] to the reader
+    private final AtomicLong writePosition = new AtomicLong();
+    private volatile Recording current = null;
+
+    public PcmRingBuffer() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    // capacity is in samples and must be a power of two
+    public PcmRingBuffer(int capacity) {
+        if (capacity <= 0 || Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("Capacity must be a power of two: " + capacity);
+        }
+        data = new short[capacity];
+        mask = capacity - 1;
+    }
+
+    public int capacity() {
+        return data.length;
+    }
+
+    // Producer: start a new recording at the current write position
+    public Recording begin() {
+        return begin(0);
+    }
+
+    /**
+     * Producer: start a new recording that also covers the last overlapSamples samples
+     * already written, e.g. the end of the previous segment of a long capture.
+     */
+    public Recording begin(int overlapSamples) {
+        long position = writePosition.get();
+        Recording recording = current;
+        if (recording != null && !recording.isComplete()) {
+            recording.end = position;
+        }
+        int overlap = (int) Math.min(Math.max(overlapSamples, 0), Math.min(position, data.length / 2));
+        recording = new Recording(position - overlap, overlap);
+        recording.peak = peakOf(position - overlap, position);
+        current = recording;
+        return recording;
+    }
+
+    // Producer: append 16-bit PCM in native byte order, as read from AudioRecord
+    public void write(byte[] pcm, int offset, int length) {
+        Recording recording = current;
+        if (recording == null || recording.isComplete()) {
+            throw new IllegalStateException("No recording in progress");
+        }
+
+        long position = writePosition.get();
+        int peak = recording.peak;
+        int end = offset + length - 1;
+        for (int i = offset; i < end; i += 2) {
+            short value = littleEndian
+                    ? (short) ((pcm[i] & 0xff) | (pcm[i + 1] << 8))
+                    : (short) ((pcm[i + 1] & 0xff) | (pcm[i] << 8));
+            data[(int) position & mask] = value;
+            position++;
+            int abs = Math.abs(value);
+            if (abs > peak) {
+                peak = abs;
+            }
+        }
+        recording.peak = peak;
+        writePosition.set(position);
+    }
+
+    // Producer: close the current recording
+    public void end() {
+        end(Integer.MAX_VALUE);
+    }
+
+    // Producer: close the current recording, keeping at most its first keepSamples samples
+    public void end(int keepSamples) {
+        Recording recording = current;
+        if (recording == null || recording.isComplete()) {
+            return;
+        }
+        long stop = writePosition.get();
+        if (stop - recording.start > keepSamples) {
+            stop = recording.start + Math.max(keepSamples, 0);
+            recording.peak = peakOf(recording.start, stop);
+        }
+        recording.end = stop;
+    }
+
+    // Producer: drop the first samples of the recording in progress
+    public void trimHead(int samples) {
+        Recording recording = current;
+        if (recording == null || recording.isComplete()) {
+            throw new IllegalStateException("No recording in progress");
+        }
+        long stop = writePosition.get();
+        long start = Math.min(recording.start + Math.max(samples, 0), stop);
+        recording.peak = peakOf(start, stop);
+        recording.start = start;
+    }
+
+    // Producer: the recording in progress contains speech, so it is worth transcribing before it ends
+    public void markSpeech() {
+        Recording recording = current;
+        if (recording != null) {
+            recording.speech = true;
+        }
+    }
+
+    private int peakOf(long start, long stop) {
+        int peak = 0;
+        for (long position = start; position < stop; position++) {
+            peak = Math.max(peak, Math.abs(data[(int) position & mask]));
+        }
+        return peak;
+    }
+
+    // Consumer: the latest recording, complete or in progress, or null if nothing was recorded
+    public Recording getCurrentRecording() {
+        return current;
+    }
+
+    /**
+     * A contiguous run of samples in the ring. Lengths and offsets are in samples,
+     * relative to the start of the recording. The start only moves when the producer
+     * trims the head.
+     */
+    public final class Recording {
+        private volatile long start;
+        private volatile long end = -1;
+        private volatile int peak = 0;
+        private volatile boolean speech = false;
+        private final int overlap;
+
+        private Recording(long start, int overlap) {
+            this.start = start;
+            this.overlap = overlap;
+        }
+
+        // Set by the producer once the recording contains speech, see markSpeech()
+        public boolean hasSpeech() {
+            return speech;
+        }
+
+        // Samples at the start shared with the previous recording
+        public int overlapSamples() {
+            return overlap;
+        }
+
+        public boolean isComplete() {
+            return end >= 0;
+        }
+
+        // Samples committed so far; final once the recording is complete
+        public int length() {
+            long stop = end;
+            return (int) ((stop >= 0 ? stop : writePosition.get()) - start);
+        }
+
+        // Largest absolute sample value, as a fraction of full scale
+        public float peak() {
+            return (float) (peak / 32768.0);
+        }
+
+        // False once later audio has wrapped around over the start of this recording
+        public boolean isIntact() {
+            return isIntact(start);
+        }
+
+        /**
+         * Converts samples [offset, offset + count) to float, multiplied by scale, into
+         * dst starting at dstOffset. With scale 1 the values are in [-1, 1). Throws
+         * RecordingOverwrittenException if later audio wrapped over the window before it
+         * was read.
+         */
+        public void read(int offset, float[] dst, int dstOffset, int count, float scale) {
+            if (offset < 0 || count < 0 || offset + count > length()) {
+                throw new IndexOutOfBoundsException("Window " + offset + "+" + count + " outside " + length() + " samples");
+            }
+            long position = start + offset;
+            for (int i = 0; i < count; i++) {
+                float sample = (float) (data[(int) (position + i) & mask] / 32768.0);
+                dst[dstOffset + i] = sample * scale;
+            }
+            checkIntact(position);
+        }
+
+        /**
+         * Writes up to maxSamples samples, peak-normalized to [-1, 1], into dst and returns
+         * how many were written. Same values as converting the whole recording to float
+         * and dividing by its peak. Throws RecordingOverwrittenException if later audio
+         * wrapped over the recording before it was read; dst then holds no usable audio.
+         */
+        public int readNormalized(float[] dst, int maxSamples) {
+            int count = Math.min(length(), maxSamples);
+            float maxAbsValue = peak();
+            long position = start;
+            for (int i = 0; i < count; i++) {
+                float sample = (float) (data[(int) (position + i) & mask] / 32768.0);
+                dst[i] = maxAbsValue > 0.0f ? sample / maxAbsValue : sample;
+            }
+            checkIntact(position);
+            return count;
+        }
+
+        private boolean isIntact(long from) {
+            return writePosition.get() - from <= data.length;
+        }
+
+        // After a read: the writer only moves forward, so if from is still intact everything read was valid
+        private void checkIntact(long from) {
+            if (!isIntact(from)) {
+                throw new RecordingOverwrittenException("Recording was overwritten before it was read, "
+                        + (writePosition.get() - from - data.length) + " samples lost");
+            }
+        }
+    }
+}
@@ -1,48 +0,0 @@
-package com.whispertflite.asr;
-
-import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
-
-public class RecordBuffer {
-    // Static variable to store the byte array
-    private static byte[] outputBuffer;
-
-    // Synchronized method to set the byte array
-    public static synchronized void setOutputBuffer(byte[] buffer) {
-        outputBuffer = buffer;
-    }
-
-    // Synchronized method to get the byte array
-    public static synchronized byte[] getOutputBuffer() {
-        return outputBuffer;
-    }
-
-    public static float[] getSamples() {
-
-        int numSamples = RecordBuffer.getOutputBuffer().length / 2;
-        ByteBuffer byteBuffer = ByteBuffer.wrap(RecordBuffer.getOutputBuffer());
-        byteBuffer.order(ByteOrder.nativeOrder());
-
-        // Convert audio data to PCM_FLOAT format
-        float[] samples = new float[numSamples];
-        float maxAbsValue = 0.0f;
-
-        for (int i = 0; i < numSamples; i++) {
-            samples[i] = (float) (byteBuffer.getShort() / 32768.0);
-            // Track the maximum absolute value
-            if (Math.abs(samples[i]) > maxAbsValue) {
-                maxAbsValue = Math.abs(samples[i]);
-            }
-        }
-
-        // Normalize the samples
-        if (maxAbsValue > 0.0f) {
-            for (int i = 0; i < numSamples; i++) {
-                samples[i] /= maxAbsValue;
-            }
-        }
-
-        return samples;
-
-    }
-}
\ No newline at end of file
@@ -3,9 +3,6 @@ package com.whispertflite.asr;
 import android.Manifest;
 import android.content.Context;
 import android.content.pm.PackageManager;
-import android.media.AudioFormat;
-import android.media.AudioRecord;
-import android.media.MediaRecorder;
 import android.util.Log;
 
 import androidx.core.app.ActivityCompat;
@@ -16,9 +13,9 @@ import com.konovalov.vad.webrtc.config.FrameSize;
 import com.konovalov.vad.webrtc.config.Mode;
 import com.konovalov.vad.webrtc.config.SampleRate;
 import com.thingsapart.langtutor.R;
+import com.whispertflite.utils.StreamingMel;
 
-import java.io.ByteArrayOutputStream;
-
+import java.io.IOException;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.Lock;
@@ -30,12 +27,29 @@ public class Recorder {
         void onUpdateReceived(String message);
     }
 
+    // Second stage of voice detection after the EnergyGate, on frames of VAD_FRAME_SIZE samples.
+    // Closed when the recording ends.
+    interface SpeechDetector {
+        boolean isSpeech(byte[] frame);
+        void close();
+    }
+
+    // Receives a long-form capture segment by segment, on the recording thread
+    public interface SegmentListener {
+        // A closed segment; the next one may overlap its end, see Recording.overlapSamples()
+        void onSegment(PcmRingBuffer.Recording segment);
+        // The capture ended, no more segments follow
+        void onCaptureEnd();
+    }
+
     private static final String TAG = "Recorder";
     public static final String ACTION_STOP = "Stop";
     public static final String ACTION_RECORD = "Record";
     public static final String MSG_RECORDING = "Recording...";
     public static final String MSG_RECORDING_DONE = "Recording done...!";
     public static final String MSG_RECORDING_ERROR = "Recording error...";
+    // The VAD heard no speech before the capture was stopped or timed out; nothing was recorded
+    public static final String MSG_NO_SPEECH = "No speech detected";
 
     private final Context mContext;
     private final AtomicBoolean mInProgress = new AtomicBoolean(false);
@@ -44,11 +58,36 @@ public class Recorder {
     private final Lock lock = new ReentrantLock();
     private final Condition hasTask = lock.newCondition();
     private final Object fileSavedLock = new Object(); // Lock object for wait/notify
+    private boolean capturing = false; // from start() until the worker is done, guarded by fileSavedLock
 
     private volatile boolean shouldStartRecording = false;
     private boolean useVAD = false;
-    private VadWebRTC vad = null;
-    private static final int VAD_FRAME_SIZE = 480;
+    private SpeechDetector vad = null;
+    private final EnergyGate energyGate = new EnergyGate(); // only touched by the worker thread
+    private final VadStats vadStats = new VadStats();
+    private volatile StreamingMel streamingMel = null;
+    private volatile PcmRingBuffer recordBuffer = null;
+    private volatile AudioSource audioSource = null;
+    static final int VAD_FRAME_SIZE = 480;
+    private static final int BYTES_FOR_THIRTY_SECONDS = 16000 * 2 * 30; // 16 kHz, 16 bit, mono
+    private PcmCapture capture = null; // only touched by the worker thread
+    private float[] preRollSamples = null;
+
+    // With VAD, audio before speech is only kept for the pre-roll window, and the tail is
+    // cut to trailingSilenceMs after the last speech frame
+    private static final int MAX_PRE_ROLL_MS = 5000;
+    private volatile int preRollMs = 500;
+    private volatile int trailingSilenceMs = 300;
+
+    // Long-form capture, see setSegmentListener
+    private static final int MIN_SEGMENT_MS = 10000; // pauses before this stay inside the segment
+    private static final int SEGMENT_OVERLAP_MS = 1000; // for segments cut at the 30 s limit
+    private volatile SegmentListener segmentListener = null;
+    private volatile int endOfSpeechMs = 700;
+
+    // With VAD the capture ends after this much audio without speech, so an unattended
+    // microphone is not left open; the same 30 s the capture was limited to before pre-roll
+    private volatile int noSpeechTimeoutMs = 30000;
 
     private final Thread workerThread;
 
@@ -64,12 +103,69 @@ public class Recorder {
         this.mListener = listener;
     }
 
+    // Feed captured audio to a mel frontend while recording, so the STFT is done by the time it stops
+    public void setStreamingMel(StreamingMel streamingMel) {
+        this.streamingMel = streamingMel;
+    }
+
+
+    // Ring the recorded audio is written to, normally the one of the Whisper instance that
+    // transcribes it. The Recorder creates its own if none is set.
+    public void setRecordBuffer(PcmRingBuffer recordBuffer) {
+        this.recordBuffer = recordBuffer;
+    }
+
+    public PcmRingBuffer getRecordBuffer() {
+        return recordBuffer;
+    }
+
+    // Audio to record instead of the microphone, e.g. a FileAudioSource; null for the microphone
+    public void setAudioSource(AudioSource audioSource) {
+        this.audioSource = audioSource;
+    }
+
+    // Audio kept from before the VAD detects speech, so the first syllable is not clipped
+    public void setPreRollMs(int preRollMs) {
+        this.preRollMs = Math.max(0, Math.min(preRollMs, MAX_PRE_ROLL_MS));
+    }
+
+    // Non-speech audio kept after the last speech frame, one the VAD classified as speech and
+    // the energy gate found above the noise floor
+    public void setTrailingSilenceMs(int trailingSilenceMs) {
+        this.trailingSilenceMs = Math.max(0, trailingSilenceMs);
+    }
+
+    /**
+     * Long-form capture: instead of stopping at the first pause or at 30 s, the capture is
+     * cut into segments that are handed to the listener as soon as they close. With VAD a
+     * segment of at least MIN_SEGMENT_MS is closed at the next pause, otherwise it is cut
+     * at 30 s and the next segment repeats the last SEGMENT_OVERLAP_MS. The capture ends
+     * on stop(), or with VAD after endOfSpeechMs of non-speech following speech or after
+     * noSpeechTimeoutMs without any. The streaming mel frontend only covers captures that
+     * stay a single segment. Set to null for single recordings.
+     */
+    public void setSegmentListener(SegmentListener segmentListener) {
+        this.segmentListener = segmentListener;
+    }
+
+    // Long-form capture: non-speech that ends the capture, on top of the VAD's own silence duration
+    public void setEndOfSpeechMs(int endOfSpeechMs) {
+        this.endOfSpeechMs = Math.max(0, endOfSpeechMs);
+    }
+
+    // With VAD, audio read since the last speech (or since the start) after which the capture ends
+    public void setNoSpeechTimeoutMs(int noSpeechTimeoutMs) {
+        this.noSpeechTimeoutMs = Math.max(0, noSpeechTimeoutMs);
+    }
 
     public void start() {
         if (!mInProgress.compareAndSet(false, true)) {
             Log.d(TAG, "Recording is already in progress...");
             return;
         }
+        synchronized (fileSavedLock) {
+            capturing = true;
+        }
         lock.lock();
         try {
             Log.d(TAG, "Recording starts now");
@@ -81,13 +177,29 @@ public class Recorder {
     }
 
     public void initVad(){
-        vad = Vad.builder()
+        VadWebRTC webRtcVad = Vad.builder()
                 .setSampleRate(SampleRate.SAMPLE_RATE_16K)
                 .setFrameSize(FrameSize.FRAME_SIZE_480)
                 .setMode(Mode.VERY_AGGRESSIVE)
                 .setSilenceDurationMs(800)
                 .setSpeechDurationMs(200)
                 .build();
+        initVad(new SpeechDetector() {
+            @Override
+            public boolean isSpeech(byte[] frame) {
+                return webRtcVad.isSpeech(frame);
+            }
+
+            @Override
+            public void close() {
+                webRtcVad.close();
+            }
+        });
+    }
+
+    // VAD for the next recording with another detector, e.g. a scripted one in JVM tests
+    void initVad(SpeechDetector detector) {
+        vad = detector;
         useVAD = true;
         Log.d(TAG, "VAD initialized");
     }
@@ -97,16 +209,29 @@ public class Recorder {
         Log.d(TAG, "Recording stopped");
         mInProgress.set(false);
 
-        // Wait for the recording thread to finish
+        // Wait for the recording thread to finish. The capture may also have ended by itself
+        // just before, so wait on the flag rather than for a notification that already happened.
         synchronized (fileSavedLock) {
             try {
-                fileSavedLock.wait(); // Wait until notified by the recording thread
+                while (capturing) {
+                    fileSavedLock.wait();
+                }
             } catch (InterruptedException e) {
                 Thread.currentThread().interrupt(); // Restore interrupted status
             }
         }
     }
 
+    // Ends the worker thread; stop() a recording in progress first. The instance cannot be used afterwards.
+    public void release() {
+        workerThread.interrupt();
+    }
+
+    // Frames and time spent in the energy gate and the WebRTC VAD since this Recorder was created
+    public VadStats getVadStats() {
+        return vadStats;
+    }
+
     public boolean isInProgress() {
         return mInProgress.get();
     }
@@ -140,67 +265,169 @@ public class Recorder {
                 sendUpdate(e.getMessage());
             } finally {
                 mInProgress.set(false);
+                // Notify the waiting thread that recording is complete, also after an error
+                synchronized (fileSavedLock) {
+                    capturing = false;
+                    fileSavedLock.notifyAll();
+                }
             }
         }
     }
 
-    private void recordAudio() {
-        if (ActivityCompat.checkSelfPermission(mContext, Manifest.permission.RECORD_AUDIO) != PackageManager.PERMISSION_GRANTED) {
-            Log.d(TAG, "AudioRecord permission is not granted");
-            sendUpdate(mContext.getString(R.string.need_record_audio_permission));
-            return;
+    private void recordAudio() throws IOException {
+        AudioSource source = audioSource;
+        if (source == null) {
+            if (ActivityCompat.checkSelfPermission(mContext, Manifest.permission.RECORD_AUDIO) != PackageManager.PERMISSION_GRANTED) {
+                Log.d(TAG, "AudioRecord permission is not granted");
+                sendUpdate(mContext.getString(R.string.need_record_audio_permission));
+                return;
+            }
+            source = new MicAudioSource(VAD_FRAME_SIZE * 2);
+        }
+
+        String outcome;
+        try {
+            source.start();
+            outcome = capture(source);
+        } finally {
+            // Also when the capture loop throws, so the AudioRecord or file is not left open
+            closeVad();
+            source.stop();
         }
 
+        sendUpdate(outcome);
+    }
+
+    // The capture loop: reads source until stop(), the end of speech or the end of the audio.
+    // Returns MSG_RECORDING_DONE if anything was recorded, MSG_NO_SPEECH if the VAD heard
+    // nothing, or MSG_RECORDING_ERROR if the recording was too short.
+    private String capture(AudioSource source) {
         int channels = 1;
         int bytesPerSample = 2;
-        int sampleRateInHz = 16000;
-        int channelConfig = AudioFormat.CHANNEL_IN_MONO;
-        int audioFormat = AudioFormat.ENCODING_PCM_16BIT;
-        int audioSource = MediaRecorder.AudioSource.VOICE_RECOGNITION;
+        int sampleRateInHz = AudioSource.SAMPLE_RATE;
 
-        int bufferSize = AudioRecord.getMinBufferSize(sampleRateInHz, channelConfig, audioFormat);
-        if (bufferSize < VAD_FRAME_SIZE * 2) bufferSize = VAD_FRAME_SIZE * 2;
-        AudioRecord audioRecord = new AudioRecord(audioSource, sampleRateInHz, channelConfig, audioFormat, bufferSize);
-        audioRecord.startRecording();
+        SegmentListener segments = segmentListener;
+        StreamingMel mel = streamingMel;
+        if (mel != null) mel.reset();
 
-        // Calculate maximum byte counts for 30 seconds (for saving)
-        int bytesForThirtySeconds = sampleRateInHz * bytesPerSample * channels * 30;
-
-        ByteArrayOutputStream outputBuffer = new ByteArrayOutputStream(); // Buffer for saving data RecordBuffer
+        PcmRingBuffer ring = recordBuffer;
+        if (ring == null) {
+            ring = new PcmRingBuffer();
+            recordBuffer = ring;
+        }
 
-        byte[] audioData = new byte[bufferSize];
-        int totalBytesRead = 0;
+        // Audio goes to the record buffer as it is read (up to 30 seconds).
+        // VAD needs 16 bit frames of VAD_FRAME_SIZE samples, which are read in place.
+        if (capture == null) {
+            capture = new PcmCapture(BYTES_FOR_THIRTY_SECONDS, VAD_FRAME_SIZE * bytesPerSample * channels);
+        }
+        capture.reset(ring);
+        if (!useVAD) ring.markSpeech(); // without VAD everything counts as speech
+
+        int bytesPerMs = sampleRateInHz * bytesPerSample * channels / 1000;
+        int preRollBytes = preRollMs * bytesPerMs;
+        int trailingBytes = trailingSilenceMs * bytesPerMs;
+        boolean speechDetected = false;
+        int speechEndBytes = 0;
+
+        int overlapBytes = SEGMENT_OVERLAP_MS * bytesPerMs;
+        int minSegmentBytes = MIN_SEGMENT_MS * bytesPerMs;
+        int endOfSpeechBytes = endOfSpeechMs * bytesPerMs;
+        int segmentCount = 0;
+        int silenceBytes = 0;
+        long noSpeechTimeoutBytes = (long) noSpeechTimeoutMs * bytesPerMs;
+        long noSpeechBytes = 0;
 
         boolean isSpeech;
         boolean isRecording = false;
-        byte[] vadAudioBuffer = new byte[VAD_FRAME_SIZE * 2];  //VAD needs 16 bit
+        energyGate.reset();
+
+        while (mInProgress.get()) {
+            if (capture.isFull()) {
+                if (segments == null) break;
+
+                // 30 s limit in the middle of speech: cut here and repeat the end in the next segment
+                mel = dropStreamingMel(mel);
+                capture.finish();
+                segments.onSegment(ring.getCurrentRecording());
+                segmentCount++;
+                capture.reset(ring, overlapBytes);
+                ring.markSpeech();
+                speechEndBytes = capture.size();
+            }
 
-        while (mInProgress.get() && totalBytesRead < bytesForThirtySeconds) {
-            int bytesRead = audioRecord.read(audioData, 0, VAD_FRAME_SIZE * 2);
-            if (bytesRead > 0) {
-                outputBuffer.write(audioData, 0, bytesRead);  // Save all bytes read up to 30 seconds
-                totalBytesRead += bytesRead;
-            } else {
-                Log.d(TAG, "AudioRecord error, bytes read: " + bytesRead);
+            int frameFill = capture.frameFill();
+            int bytesRead = source.read(capture.frame(), frameFill, capture.frameRemaining());
+            if (bytesRead <= 0) {
+                Log.d(TAG, "End of audio or read error, bytes read: " + bytesRead);
                 break;
             }
+            // With VAD the mel frontend starts at speech onset, see startSpeech
+            if (mel != null && (!useVAD || speechDetected)) mel.append(capture.frame(), frameFill, bytesRead);
+            if (!capture.commit(bytesRead)) {
+                continue; // short read, wait for the rest of the frame
+            }
 
             if (useVAD){
-                byte[] outputBufferByteArray = outputBuffer.toByteArray();
-                if (outputBufferByteArray.length >= VAD_FRAME_SIZE * 2) {
-                    // Always use the last VAD_FRAME_SIZE * 2 bytes (16 bit) from outputBuffer for VAD
-                    System.arraycopy(outputBufferByteArray, outputBufferByteArray.length - VAD_FRAME_SIZE * 2, vadAudioBuffer, 0, VAD_FRAME_SIZE * 2);
-
-                    isSpeech = vad.isSpeech(vadAudioBuffer);
-                    if (isSpeech) {
-                        if (!isRecording) {
-                            Log.d(TAG, "VAD Speech detected: recording starts");
-                            sendUpdate(MSG_RECORDING);
+                // Two stages: the energy gate sees every frame, the VAD only frames the gate
+                // lets through and all frames while it is tracking speech
+                long gateStart = System.nanoTime();
+                boolean gateOpen = energyGate.isOpen(capture.frame(), 0, capture.frame().length);
+                long vadStart = System.nanoTime();
+                vadStats.addGate(vadStart - gateStart);
+                if (gateOpen || isRecording) {
+                    isSpeech = vad.isSpeech(capture.frame());
+                    vadStats.addVad(System.nanoTime() - vadStart);
+                } else {
+                    isSpeech = false;
+                }
+                if (isSpeech) {
+                    if (!isRecording) {
+                        Log.d(TAG, "VAD Speech detected: recording starts");
+                        sendUpdate(MSG_RECORDING);
+                    }
+                    if (!speechDetected) {
+                        speechDetected = true;
+                        startSpeech(ring, mel, preRollBytes);
+                        speechEndBytes = capture.size();
+                    }
+                    isRecording = true;
+                    // The VAD keeps reporting speech for its silence duration (800 ms) after the
+                    // speech ends, so the end is the last speech frame the gate found loud enough
+                    if (energyGate.wasActive()) {
+                        speechEndBytes = capture.size();
+                    }
+                    silenceBytes = 0;
+                    noSpeechBytes = 0;
+                } else {
+                    noSpeechBytes += capture.frame().length;
+                    if (noSpeechBytes >= noSpeechTimeoutBytes) {
+                        Log.d(TAG, "No speech for " + noSpeechTimeoutMs + " ms, capture ends");
+                        mInProgress.set(false);
+                    }
+
+                    if (isRecording) {
+                        isRecording = false;
+                        if (segments == null) {
+                            mInProgress.set(false);
+                        } else if (capture.size() >= minSegmentBytes) {
+                            // Pause in a long segment: close it, the next one starts with a fresh pre-roll
+                            mel = dropStreamingMel(mel);
+                            capture.finish(speechEndBytes + trailingBytes);
+                            segments.onSegment(ring.getCurrentRecording());
+                            segmentCount++;
+                            capture.reset(ring);
+                            speechDetected = false;
                         }
-                        isRecording = true;
-                    } else {
-                        if (isRecording) {
-                            isRecording = false;
+                    } else if (!speechDetected && capture.size() >= 2 * preRollBytes) {
+                        // Still waiting for speech, drop all but the pre-roll. Done in
+                        // pre-roll sized blocks to keep the per-frame cost constant.
+                        capture.keepLast(preRollBytes);
+                    }
+
+                    if (segments != null && (speechDetected || segmentCount > 0)) {
+                        silenceBytes += capture.frame().length;
+                        if (silenceBytes >= endOfSpeechBytes) {
                             mInProgress.set(false);
                         }
                     }
@@ -210,30 +437,64 @@ public class Recorder {
                 isRecording = true;
             }
         }
+        if (useVAD) {
+            // Cut non-speech at the end; without any speech nothing is kept
+            capture.finish(speechDetected ? speechEndBytes + trailingBytes : 0);
+        } else {
+            capture.finish();
+        }
+        int totalBytesRead = capture.size();
         Log.d(TAG, "Total bytes recorded: " + totalBytesRead);
 
+        boolean recorded = totalBytesRead > 6400; //min 0.2s
+        if (segments != null) {
+            if (recorded) {
+                segments.onSegment(ring.getCurrentRecording());
+                segmentCount++;
+            }
+            segments.onCaptureEnd();
+            Log.d(TAG, "Long-form capture ended after " + segmentCount + " segments");
+            recorded = segmentCount > 0;
+        }
+        if (recorded) {
+            return MSG_RECORDING_DONE;
+        }
+        return useVAD && !speechDetected && segmentCount == 0 ? MSG_NO_SPEECH : MSG_RECORDING_ERROR;
+    }
+
+    private void closeVad() {
         if (useVAD){
             useVAD = false;
             vad.close();
             vad = null;
-            Log.d(TAG, "Closing VAD");
+            Log.d(TAG, "Closing VAD, " + vadStats);
         }
-        audioRecord.stop();
-        audioRecord.release();
+    }
 
-        // Save recorded audio data to BufferStore (up to 30 seconds)
-        RecordBuffer.setOutputBuffer(outputBuffer.toByteArray());
-        if (totalBytesRead > 6400){  //min 0.2s
-            sendUpdate(MSG_RECORDING_DONE);
-        } else {
-            sendUpdate(MSG_RECORDING_ERROR);
-        }
+    // Segments after the first use the batch mel path. Resetting leaves the frontend with
+    // no samples, so it is not mistaken for a capture of the final segment.
+    private static StreamingMel dropStreamingMel(StreamingMel mel) {
+        if (mel != null) mel.reset();
+        return null;
+    }
 
-        // Notify the waiting thread that recording is complete
-        synchronized (fileSavedLock) {
-            fileSavedLock.notify(); // Notify that recording is finished
+    // Speech onset: keep only the pre-roll before it, and start the mel frontend there
+    private void startSpeech(PcmRingBuffer ring, StreamingMel mel, int preRollBytes) {
+        // The frame the VAD fired on is kept even with a shorter or no pre-roll
+        capture.keepLast(Math.max(preRollBytes, capture.frame().length));
+        ring.markSpeech();
+        if (mel == null) {
+            return;
         }
 
+        PcmRingBuffer.Recording recording = ring.getCurrentRecording();
+        int samples = recording.length();
+        if (preRollSamples == null || preRollSamples.length < samples) {
+            preRollSamples = new float[samples];
+        }
+        recording.read(0, preRollSamples, 0, samples, 1.0f);
+        mel.reset();
+        mel.append(preRollSamples, 0, samples);
     }
 
 }
\ No newline at end of file
@@ -0,0 +1,8 @@
+package com.whispertflite.asr;
+
+// Audio of a recording was overwritten in the PcmRingBuffer before it was read, so it no longer exists
+public class RecordingOverwrittenException extends IllegalStateException {
+    public RecordingOverwrittenException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,78 @@
+package com.whispertflite.asr;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Joins the transcripts of consecutive segments of one long recording.
+ *
+ * A segment cut at the 30 s limit starts with a short overlap of audio the previous
+ * segment already covered, so its text usually repeats the last few words of the
+ * previous one. Those are dropped: the longest run of words at the end of the text so
+ * far that also starts the new segment, compared without case and punctuation.
+ */
+public class TranscriptStitcher {
+    // About two seconds of speech; longer runs are not caused by the overlap
+    static final int MAX_OVERLAP_WORDS = 6;
+
+    private final StringBuilder text = new StringBuilder();
+    private final List<String> tailWords = new ArrayList<>(); // normalized, last MAX_OVERLAP_WORDS
+
+    public void reset() {
+        text.setLength(0);
+        tailWords.clear();
+    }
+
+    // Appends a segment's text; overlapsPrevious is set for segments that start inside the previous one
+    public void append(String segmentText, boolean overlapsPrevious) {
+        String[] words = segmentText.trim().split("\\s+");
+        if (words.length == 1 && words[0].isEmpty()) {
+            return;
+        }
+
+        int skip = overlapsPrevious ? overlapLength(words) : 0;
+        for (int i = skip; i < words.length; i++) {
+            if (text.length() > 0) {
+                text.append(' ');
+            }
+            text.append(words[i]);
+
+            tailWords.add(normalize(words[i]));
+            if (tailWords.size() > MAX_OVERLAP_WORDS) {
+                tailWords.remove(0);
+            }
+        }
+    }
+
+    public String getText() {
+        return text.toString();
+    }
+
+    // Number of leading words that repeat the end of the text so far
+    private int overlapLength(String[] words) {
+        int max = Math.min(tailWords.size(), words.length);
+        for (int n = max; n > 0; n--) {
+            boolean match = true;
+            for (int i = 0; i < n && match; i++) {
+                String word = normalize(words[i]);
+                match = !word.isEmpty() && word.equals(tailWords.get(tailWords.size() - n + i));
+            }
+            if (match) {
+                return n;
+            }
+        }
+        return 0;
+    }
+
+    static String normalize(String word) {
+        StringBuilder normalized = new StringBuilder(word.length());
+        for (int i = 0; i < word.length(); i++) {
+            char c = word.charAt(i);
+            if (Character.isLetterOrDigit(c)) {
+                normalized.append(c);
+            }
+        }
+        return normalized.toString().toLowerCase(Locale.ROOT);
+    }
+}
@@ -0,0 +1,53 @@
+package com.whispertflite.asr;
+
+/**
+ * Counters for the two-stage voice detection in Recorder: how many frames the energy
+ * gate saw, how many it passed on to the WebRTC VAD, and the time spent in each stage.
+ * Written by the recording thread only; readable from any thread.
+ */
+public final class VadStats {
+    private volatile long frames = 0;
+    private volatile long vadFrames = 0;
+    private volatile long gateNanos = 0;
+    private volatile long vadNanos = 0;
+
+    void addGate(long nanos) {
+        frames++;
+        gateNanos += nanos;
+    }
+
+    void addVad(long nanos) {
+        vadFrames++;
+        vadNanos += nanos;
+    }
+
+    // Frames seen by the energy gate
+    public long getFrames() {
+        return frames;
+    }
+
+    // Frames that were also run through the WebRTC VAD
+    public long getVadFrames() {
+        return vadFrames;
+    }
+
+    public long getGateNanos() {
+        return gateNanos;
+    }
+
+    public long getVadNanos() {
+        return vadNanos;
+    }
+
+    // Share of frames the gate kept away from the VAD
+    public double getGatedFraction() {
+        long total = frames;
+        return total == 0 ? 0.0 : 1.0 - (double) vadFrames / total;
+    }
+
+    @Override
+    public String toString() {
+        return "frames=" + frames + ", vadFrames=" + vadFrames
+                + ", gateMs=" + gateNanos / 1_000_000 + ", vadMs=" + vadNanos / 1_000_000;
+    }
+}
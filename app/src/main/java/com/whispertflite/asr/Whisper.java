@@ -3,12 +3,24 @@ package com.whispertflite.asr;
 import android.content.Context;
 import android.util.Log;
 
+import com.whispertflite.engine.BatchItem;
+import com.whispertflite.engine.BatchResult;
+import com.whispertflite.engine.EngineTimings;
+import com.whispertflite.engine.TokenListener;
 import com.whispertflite.engine.WhisperEngine;
 import com.whispertflite.engine.WhisperEngineJava;
+import com.whispertflite.utils.CancellationToken;
+import com.whispertflite.utils.StreamingMel;
+import com.whispertflite.utils.WhisperUtil;
 
 import java.io.File;
 import java.io.IOException;
-import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
@@ -18,6 +30,22 @@ public class Whisper {
     public interface WhisperListener {
         void onUpdateReceived(String message);
         void onResultReceived(WhisperResult result);
+
+        // Each timed segment as soon as it is transcribed, before the result it belongs to.
+        // In a long-form capture this starts while later parts are still being recorded.
+        default void onSegmentReceived(WhisperSegment segment) {
+        }
+
+        // Text each token adds to the recording or segment being transcribed. Only engines that
+        // decode token by token call it, while decoding; see WhisperEngine.setTokenListener.
+        default void onTokenReceived(String text) {
+        }
+    }
+
+    // Interim transcripts while recording, see setPartialListener
+    public interface PartialListener {
+        // committed no longer changes; tentative is the latest guess for the words after it
+        void onPartialResult(String committed, String tentative);
     }
 
     private static final String TAG = "Whisper";
@@ -32,23 +60,76 @@ public class Whisper {
         TRANSLATE, TRANSCRIBE
     }
 
-    private final AtomicBoolean mInProgress = new AtomicBoolean(false);
+    // Interactive jobs run first and preempt a running background job, see submit()
+    public enum Priority {
+        INTERACTIVE, BACKGROUND
+    }
+
+    // Submitted clips and files that may wait at once; recordings and segments are never rejected
+    public static final int DEFAULT_QUEUE_CAPACITY = 8;
 
     private final WhisperEngine mWhisperEngine;
     private Action mAction;
     private int mLangToken = -1;
     private WhisperListener mUpdateListener;
+    // Installed on the engine only while a recording or segment is transcribed for a listener,
+    // so partials, clips and batches do not build a string per token
+    private final TokenListener mTokenForwarder = (token, text) -> {
+        WhisperListener listener = mUpdateListener;
+        if (listener != null) {
+            listener.onTokenReceived(text);
+        }
+    };
 
     private final Lock taskLock = new ReentrantLock();
     private final Condition hasTask = taskLock.newCondition();
-    private volatile boolean taskAvailable = false;
+
+    // Jobs are queued by any thread and run one at a time on the worker thread. Long-form
+    // segments are transcribed in order while the capture continues. Guarded by taskLock.
+    private final JobQueue jobs;
+    private WhisperJob runningJob = null;
+    private boolean captureOpen = false; // segments were queued and the capture has not ended
+    private boolean captureDiscarded = false; // set by stop(): drop the capture's state without a result
+    // Only touched by the worker thread
+    private final TranscriptStitcher stitcher = new TranscriptStitcher();
+    private int segmentsTranscribed = 0;
+    private String segmentLanguage = "";
+    private Action segmentTask = null;
+    private final List<WhisperSegment> captureSegments = new ArrayList<>();
+    private long captureSamples = 0; // samples of the capture before the next segment, without overlaps
+    private JobTimings captureTimings = JobTimings.NONE;
+
+    // Live partials: the recording in progress is re-transcribed every partialIntervalMs
+    private static final int MIN_PARTIAL_SAMPLES = 8000; // 0.5 s
+    private static final int MIN_NEW_PARTIAL_SAMPLES = 3200; // 0.2 s
+    private volatile PartialListener mPartialListener;
+    private volatile int partialIntervalMs = 0;
+    // Only touched by the worker thread
+    private final PartialTranscript partial = new PartialTranscript();
+    private PcmRingBuffer.Recording partialRecording = null;
+    private int partialLength = 0;
+    private long lastPartialEnd = 0;
+    // Runs in the engine, so it can be cancelled from other threads
+    private volatile CancellationToken partialToken = null;
+
+    private final Thread workerThread;
 
     public Whisper(Context context) {
-        this.mWhisperEngine = new WhisperEngineJava(context);
+        this(context, DEFAULT_QUEUE_CAPACITY);
+    }
+
+    public Whisper(Context context, int queueCapacity) {
+        this(new WhisperEngineJava(context), queueCapacity);
+    }
 
-        // Start thread for RecordBuffer transcription
-        Thread threadProcessRecordBuffer = new Thread(this::processRecordBufferLoop);
-        threadProcessRecordBuffer.start();
+    // Runs on the given engine, e.g. a WhisperEngineSplit for separate encoder and decoder models
+    public Whisper(WhisperEngine engine, int queueCapacity) {
+        this.mWhisperEngine = engine;
+        this.jobs = new JobQueue(queueCapacity);
+
+        // Start thread for record buffer transcription
+        workerThread = new Thread(this::processRecordBufferLoop, "WhisperWorker");
+        workerThread.start();
 
     }
 
@@ -56,6 +137,39 @@ public class Whisper {
         this.mUpdateListener = listener;
     }
 
+    /**
+     * Streaming mode: while a recording with speech is in progress, it is transcribed
+     * again every intervalMs (counted from the end of the previous run) and the listener
+     * gets the words two consecutive runs agree on plus the latest guess for the rest.
+     * Queued transcriptions take precedence and cancel a partial run in progress.
+     * 0 turns it off.
+     */
+    public void setPartialListener(PartialListener listener, int intervalMs) {
+        mPartialListener = listener;
+        partialIntervalMs = listener != null ? Math.max(0, intervalMs) : 0;
+        taskLock.lock();
+        try {
+            hasTask.signal(); // start or stop polling for recordings
+        } finally {
+            taskLock.unlock();
+        }
+    }
+
+    // Warm the engine up with a silent transcription while loading the model, see WhisperEngine.setWarmUp
+    public void setWarmUp(boolean warmUp) {
+        mWhisperEngine.setWarmUp(warmUp);
+    }
+
+    // Pick interpreter and mel thread counts by measurement, once per model file, see WhisperEngine.setAutoTuneThreads
+    public void setAutoTuneThreads(boolean autoTune) {
+        mWhisperEngine.setAutoTuneThreads(autoTune);
+    }
+
+    // Load, warm-up and first inference times of the current model
+    public EngineTimings getTimings() {
+        return mWhisperEngine.getTimings();
+    }
+
     public void loadModel(File modelPath, File vocabPath, boolean isMultilingual) {
         loadModel(modelPath.getAbsolutePath(), vocabPath.getAbsolutePath(), isMultilingual);
         currentModelPath = modelPath.getAbsolutePath();
@@ -74,11 +188,58 @@ public class Whisper {
         return currentModelPath;
     }
 
+    // The last loadModel() succeeded and the model was not unloaded since
+    public boolean isModelLoaded() {
+        return mWhisperEngine.isInitialized();
+    }
+
+    // Call stop() first, so a transcription in progress ends quickly instead of holding up the unload
     public void unloadModel() {
-        mWhisperEngine.deinitialize();
+        synchronized (mWhisperEngine) {
+            mWhisperEngine.deinitialize();
+        }
         currentModelPath = "";
     }
 
+    /**
+     * Cancels all work, unloads the model and ends the worker thread. The instance cannot
+     * be used afterwards.
+     */
+    public void release() {
+        stop();
+        unloadModel();
+        workerThread.interrupt();
+    }
+
+    // Mel frontend to attach to a Recorder so features are computed during capture
+    public StreamingMel getStreamingMel() {
+        return mWhisperEngine.getStreamingMel();
+    }
+
+    // Audio to transcribe; attach it to the Recorder that captures for this instance
+    public PcmRingBuffer getRecordBuffer() {
+        return mWhisperEngine.getRecordBuffer();
+    }
+
+    /**
+     * Transcribes stored clips or imported files with the current action and language,
+     * one result per item in the same order. Blocks until the whole batch is done and
+     * waits for any transcription in progress, so call it from a background thread.
+     */
+    public List<BatchResult> transcribeBatch(List<BatchItem> items) {
+        return transcribeBatch(items, CancellationToken.NONE);
+    }
+
+    // Same as above; after cancel.cancel() the items not done yet get a "Cancelled" error result
+    public List<BatchResult> transcribeBatch(List<BatchItem> items, CancellationToken cancel) {
+        if (!mWhisperEngine.isInitialized()) {
+            throw new IllegalStateException("Engine not initialized");
+        }
+        synchronized (mWhisperEngine) {
+            return mWhisperEngine.processBatch(items, mAction, mLangToken, cancel);
+        }
+    }
+
     public void setAction(Action action) {
         this.mAction = action;
     }
@@ -87,77 +248,468 @@ public class Whisper {
         this.mLangToken = language;
     }
 
-    public void start() {
-        if (!mInProgress.compareAndSet(false, true)) {
-            Log.d(TAG, "Execution is already in progress...");
-            return;
+    /**
+     * Queues the transcription of the current recording as an interactive job. The result
+     * goes to the listener and to the returned future. A start() while another
+     * transcription is running is queued behind it, not dropped.
+     */
+    public CompletableFuture<WhisperResult> start() {
+        PcmRingBuffer.Recording recording = mWhisperEngine.getRecordBuffer().getCurrentRecording();
+        return enqueue(WhisperJob.recording(recording, mAction, mLangToken));
+    }
+
+    /**
+     * Queues a clip or file for transcription with its own action and language, as an
+     * interactive job. The result only goes to the returned future; it fails with a
+     * RejectedExecutionException if the queue is full, and cancelling it drops the job or
+     * stops it in the engine.
+     */
+    public CompletableFuture<WhisperResult> submit(BatchItem audio, Action action, int langToken) {
+        return submit(audio, action, langToken, Priority.INTERACTIVE);
+    }
+
+    /**
+     * Same as above with a priority. Interactive jobs run before background jobs, and a
+     * running background job is cancelled when an interactive one is queued and run again
+     * from the start afterwards. Its queue time includes the wait after being preempted.
+     */
+    public CompletableFuture<WhisperResult> submit(BatchItem audio, Action action, int langToken, Priority priority) {
+        return enqueue(WhisperJob.audio(audio, action, langToken, priority));
+    }
+
+    /**
+     * Queues a segment of a long-form capture, see Recorder.SegmentListener. Segments are
+     * transcribed in order while later ones are still being recorded, and one stitched
+     * result is sent once {@link #endSegments} was called and the queue is drained.
+     * Does not block, so it can be called from the recording thread.
+     */
+    public void transcribeSegment(PcmRingBuffer.Recording segment) {
+        taskLock.lock();
+        try {
+            captureOpen = true;
+        } finally {
+            taskLock.unlock();
         }
+        enqueue(WhisperJob.segment(segment, mAction, mLangToken));
+    }
+
+    // No more segments follow for the current long-form capture
+    public void endSegments() {
+        enqueue(WhisperJob.endSegments());
+    }
+
+    private CompletableFuture<WhisperResult> enqueue(WhisperJob job) {
+        cancelPartial(); // a partial run in the engine would only delay the job
+        WhisperJob rejected;
         taskLock.lock();
         try {
-            taskAvailable = true;
-            hasTask.signal();
+            rejected = jobs.offer(job);
+            if (rejected != job) {
+                preemptBackground(job);
+                hasTask.signal();
+            }
         } finally {
             taskLock.unlock();
         }
+        if (rejected != null) {
+            Log.w(TAG, "Job queue is full, rejected a " + rejected.priority + " job");
+            rejected.future.completeExceptionally(new RejectedExecutionException("Whisper job queue is full"));
+        }
+        job.future.whenComplete((result, error) -> {
+            if (job.future.isCancelled()) {
+                cancelJob(job);
+            }
+        });
+        return job.future;
     }
 
+    // Guarded by taskLock: a queued interactive job cancels a running background job, which is queued again
+    private void preemptBackground(WhisperJob job) {
+        WhisperJob running = runningJob;
+        if (job.priority == Priority.INTERACTIVE && running != null
+                && running.priority == Priority.BACKGROUND && !running.preempted) {
+            running.preempted = true;
+            running.token.cancel();
+        }
+    }
+
+    // The caller cancelled the job's future
+    private void cancelJob(WhisperJob job) {
+        taskLock.lock();
+        try {
+            if (!jobs.remove(job) && runningJob == job) {
+                job.token.cancel();
+            }
+        } finally {
+            taskLock.unlock();
+        }
+    }
+
+    /**
+     * Drops queued work, including submitted jobs, and cancels the transcription in
+     * progress, which then ends within one mel chunk or interpreter cancellation check,
+     * without sending a result. Their futures are cancelled. The engine is ready for the
+     * next start() right away.
+     */
     public void stop() {
-        mInProgress.set(false);
+        List<WhisperJob> dropped;
+        WhisperJob running;
+        taskLock.lock();
+        try {
+            captureDiscarded = true;
+            captureOpen = false;
+            dropped = jobs.drain();
+            running = runningJob;
+            if (running != null) {
+                running.token.cancel();
+            }
+            hasTask.signal();
+        } finally {
+            taskLock.unlock();
+        }
+        for (WhisperJob job : dropped) {
+            job.future.cancel(false);
+        }
+        if (running != null) {
+            running.future.cancel(false);
+        }
+        cancelPartial();
     }
 
+    // A recording or long-form capture is queued or being transcribed
     public boolean isInProgress() {
-        return mInProgress.get();
+        taskLock.lock();
+        try {
+            return captureOpen || jobs.hasCaptureJob() || (runningJob != null && runningJob.isCapture());
+        } finally {
+            taskLock.unlock();
+        }
     }
 
     private void processRecordBufferLoop() {
         while (!Thread.currentThread().isInterrupted()) {
+            // Take one job under the lock and run it outside, so queueing never waits for inference
+            WhisperJob job = null;
+            PcmRingBuffer.Recording partialTarget = null;
+            boolean discardSegments = false;
             taskLock.lock();
             try {
-                while (!taskAvailable) {
-                    hasTask.await();
+                while (jobs.isEmpty() && !captureDiscarded) {
+                    long delayMs = nextPartialDelayMs();
+                    if (delayMs == 0) {
+                        partialTarget = mWhisperEngine.getRecordBuffer().getCurrentRecording();
+                        break;
+                    } else if (delayMs < 0) {
+                        hasTask.await();
+                    } else {
+                        hasTask.await(delayMs, TimeUnit.MILLISECONDS);
+                    }
+                }
+                if (captureDiscarded) {
+                    captureDiscarded = false;
+                    discardSegments = true;
+                    partialTarget = null;
+                } else if (partialTarget == null) {
+                    job = jobs.poll();
+                    job.started();
+                    runningJob = job;
                 }
-                processRecordBuffer();
-                taskAvailable = false;
             } catch (InterruptedException e) {
                 Thread.currentThread().interrupt();
+                return;
             } finally {
                 taskLock.unlock();
             }
+
+            if (discardSegments) {
+                resetSegments();
+            } else if (partialTarget != null) {
+                processPartial(partialTarget);
+            } else {
+                runJob(job);
+            }
         }
     }
 
-    private void processRecordBuffer() {
+    private void runJob(WhisperJob job) {
+        WhisperResult result = null;
+        Exception error = null;
         try {
-            if (mWhisperEngine.isInitialized() && RecordBuffer.getOutputBuffer() != null) {
-                long startTime = System.currentTimeMillis();
-                sendUpdate(MSG_PROCESSING);
+            switch (job.kind) {
+                case RECORDING:
+                    result = processRecording(job);
+                    break;
+                case SEGMENT:
+                    result = processSegment(job);
+                    break;
+                case END_SEGMENTS:
+                    result = finishSegments(job);
+                    break;
+                case AUDIO:
+                    result = processAudio(job);
+                    break;
+            }
+        } catch (Exception e) {
+            Log.e(TAG, "Error during " + job.kind + " transcription", e);
+            if (job.isCapture()) {
+                sendUpdate("Transcription failed: " + e.getMessage());
+            }
+            error = e;
+        }
 
-                WhisperResult whisperResult = null;
-                synchronized (mWhisperEngine) {
-                    whisperResult = mWhisperEngine.processRecordBuffer(mAction, mLangToken);
-                }
-                sendResult(whisperResult);
+        taskLock.lock();
+        try {
+            runningJob = null;
+            if (job.preempted && job.token.isCancelled() && !job.future.isDone()) {
+                Log.d(TAG, "Background job preempted, queued again");
+                job.requeued();
+                jobs.requeue(job);
+                return;
+            }
+        } finally {
+            taskLock.unlock();
+        }
 
-                long timeTaken = System.currentTimeMillis() - startTime;
-                Log.d(TAG, "Time Taken for transcription: " + timeTaken + "ms");
-                sendUpdate(MSG_PROCESSING_DONE);
-            } else {
-                sendUpdate("Engine not initialized or file path not set");
+        if (error != null) {
+            job.future.completeExceptionally(error);
+        } else if (job.token.isCancelled()) {
+            job.future.cancel(false);
+        } else {
+            job.future.complete(result);
+        }
+    }
+
+    // 0 if a partial run is due now, -1 if partials are off, else how long to wait before checking again
+    private long nextPartialDelayMs() {
+        int interval = partialIntervalMs;
+        if (interval <= 0 || mPartialListener == null) {
+            return -1;
+        }
+        long remaining = lastPartialEnd + interval - System.currentTimeMillis();
+        if (remaining > 0) {
+            return remaining;
+        }
+
+        PcmRingBuffer.Recording recording = mWhisperEngine.getRecordBuffer().getCurrentRecording();
+        if (recording == null || recording.isComplete() || !recording.hasSpeech() || !mWhisperEngine.isInitialized()) {
+            return interval;
+        }
+        int length = recording.length();
+        boolean grown = recording != partialRecording || length - partialLength >= MIN_NEW_PARTIAL_SAMPLES;
+        if (length < MIN_PARTIAL_SAMPLES || !grown) {
+            return Math.max(interval / 4, 1);
+        }
+        return 0;
+    }
+
+    private void processPartial(PcmRingBuffer.Recording recording) {
+        int length = recording.length();
+        WhisperResult whisperResult = null;
+        CancellationToken cancel = new CancellationToken();
+        partialToken = cancel;
+        try {
+            synchronized (mWhisperEngine) {
+                whisperResult = mWhisperEngine.processPartial(recording, mAction, mLangToken, cancel);
             }
         } catch (Exception e) {
-            Log.e(TAG, "Error during transcription", e);
-            sendUpdate("Transcription failed: " + e.getMessage());
+            Log.e(TAG, "Error during partial transcription", e);
         } finally {
-            mInProgress.set(false);
+            partialToken = null;
+            lastPartialEnd = System.currentTimeMillis();
+        }
+
+        // A cancelled run ends early with an empty result
+        PartialListener listener = mPartialListener;
+        if (cancel.isCancelled() || whisperResult == null || listener == null) {
+            return;
+        }
+        if (recording != partialRecording) {
+            partial.reset();
+            partialRecording = recording;
+        }
+        partialLength = length;
+        partial.update(whisperResult.getResult());
+
+        // In a long-form capture the finished segments come first
+        String committed = partial.getCommitted();
+        if (segmentsTranscribed > 0) {
+            committed = committed.isEmpty() ? stitcher.getText() : stitcher.getText() + " " + committed;
+        }
+        listener.onPartialResult(committed, partial.getTentative());
+    }
+
+    /**
+     * Cancels a live partial run in progress. Called when a transcription is queued, since
+     * a partial run in the engine only delays it, and when the recording is stopped.
+     */
+    public void cancelPartial() {
+        CancellationToken cancel = partialToken;
+        if (cancel != null) {
+            cancel.cancel();
         }
     }
 
+    // Null if cancelled. A segment overwritten before it was read fails; the capture goes on without it.
+    private WhisperResult processSegment(WhisperJob job) {
+        if (!mWhisperEngine.isInitialized()) {
+            sendUpdate("Engine not initialized or file path not set");
+            throw new IllegalStateException("Engine not initialized");
+        }
+        PcmRingBuffer.Recording segment = job.recording;
+        long startTime = System.currentTimeMillis();
+        sendUpdate(MSG_PROCESSING);
+
+        // Times count from the start of the capture. Text that ends inside the overlap
+        // was already sent with the previous segment. The capture position also moves on
+        // for a segment that fails, e.g. because it was overwritten, so later ones keep their times.
+        long overlapMs = samplesToMs(segment.overlapSamples());
+        long offsetMs = samplesToMs(captureSamples) - overlapMs;
+        captureSamples += segment.length() - segment.overlapSamples();
+
+        WhisperResult whisperResult;
+        synchronized (mWhisperEngine) {
+            mWhisperEngine.setTokenListener(streamingListener());
+            try {
+                whisperResult = mWhisperEngine.processRecording(segment, job.action, job.langToken, job.token);
+            } finally {
+                mWhisperEngine.setTokenListener(null);
+            }
+        }
+        if (job.token.isCancelled()) {
+            return null; // stopped, the capture is discarded next
+        }
+        whisperResult = withQueueTime(whisperResult, job);
+        stitcher.append(whisperResult.getResult(), segment.overlapSamples() > 0);
+        captureTimings = captureTimings.plus(whisperResult.getTimings());
+        for (WhisperSegment timed : whisperResult.getSegments()) {
+            if (segment.overlapSamples() > 0 && timed.getEndMs() <= overlapMs) {
+                continue;
+            }
+            WhisperSegment shifted = timed.shifted(offsetMs);
+            captureSegments.add(shifted);
+            sendSegment(shifted);
+        }
+        if (segmentsTranscribed++ == 0) {
+            segmentLanguage = whisperResult.getLanguage();
+            segmentTask = whisperResult.getTask();
+        }
+
+        long timeTaken = System.currentTimeMillis() - startTime;
+        Log.d(TAG, "Time Taken for segment " + segmentsTranscribed + ": " + timeTaken + "ms ("
+                + whisperResult.getTimings() + ")");
+        return whisperResult;
+    }
+
+    // The stitched result of the capture, with the stage times of all its segments summed
+    private WhisperResult finishSegments(WhisperJob job) {
+        try {
+            JobTimings timings = captureTimings.plus(new JobTimings(job.queueMs(), -1, -1, -1));
+            WhisperResult whisperResult = new WhisperResult(stitcher.getText(), segmentLanguage, segmentTask,
+                    new ArrayList<>(captureSegments), timings);
+            if (segmentsTranscribed > 0) {
+                sendResult(whisperResult);
+                sendUpdate(MSG_PROCESSING_DONE);
+            }
+            return whisperResult;
+        } finally {
+            resetSegments();
+            taskLock.lock();
+            try {
+                captureOpen = false;
+            } finally {
+                taskLock.unlock();
+            }
+        }
+    }
+
+    private void resetSegments() {
+        stitcher.reset();
+        segmentsTranscribed = 0;
+        segmentLanguage = "";
+        segmentTask = null;
+        captureSegments.clear();
+        captureSamples = 0;
+        captureTimings = JobTimings.NONE;
+    }
+
+    // Null if cancelled
+    private WhisperResult processRecording(WhisperJob job) {
+        if (!mWhisperEngine.isInitialized() || job.recording == null) {
+            sendUpdate("Engine not initialized or file path not set");
+            throw new IllegalStateException("Engine not initialized or nothing recorded");
+        }
+        long startTime = System.currentTimeMillis();
+        sendUpdate(MSG_PROCESSING);
+
+        WhisperResult whisperResult;
+        synchronized (mWhisperEngine) {
+            mWhisperEngine.setTokenListener(streamingListener());
+            try {
+                whisperResult = mWhisperEngine.processRecording(job.recording, job.action, job.langToken, job.token);
+            } finally {
+                mWhisperEngine.setTokenListener(null);
+            }
+        }
+        if (job.token.isCancelled()) {
+            Log.d(TAG, "Transcription cancelled, engine timings: " + mWhisperEngine.getTimings());
+            return null;
+        }
+        whisperResult = withQueueTime(whisperResult, job);
+        for (WhisperSegment segment : whisperResult.getSegments()) {
+            sendSegment(segment);
+        }
+        sendResult(whisperResult);
+
+        long timeTaken = System.currentTimeMillis() - startTime;
+        Log.d(TAG, "Time Taken for transcription: " + timeTaken + "ms (" + whisperResult.getTimings() + ")");
+        sendUpdate(MSG_PROCESSING_DONE);
+        return whisperResult;
+    }
+
+    // Submitted clip or file; null if cancelled or preempted
+    private WhisperResult processAudio(WhisperJob job) throws IOException {
+        if (!mWhisperEngine.isInitialized()) {
+            throw new IllegalStateException("Engine not initialized");
+        }
+        List<BatchResult> results;
+        synchronized (mWhisperEngine) {
+            results = mWhisperEngine.processBatch(Collections.singletonList(job.audio), job.action, job.langToken,
+                    job.token);
+        }
+        if (job.token.isCancelled()) {
+            return null;
+        }
+        BatchResult result = results.get(0);
+        if (result.getError() != null) {
+            throw new IOException(job.audio.getName() + ": " + result.getError());
+        }
+        return withQueueTime(result.getResult(), job);
+    }
+
+    private static WhisperResult withQueueTime(WhisperResult result, WhisperJob job) {
+        return result.withTimings(result.getTimings().withQueueMs(job.queueMs()));
+    }
+
     private void sendUpdate(String message) {
         if (mUpdateListener != null) {
             mUpdateListener.onUpdateReceived(message);
         }
     }
 
+    private TokenListener streamingListener() {
+        return mUpdateListener != null ? mTokenForwarder : null;
+    }
+
+    private void sendSegment(WhisperSegment segment) {
+        if (mUpdateListener != null) {
+            mUpdateListener.onSegmentReceived(segment);
+        }
+    }
+
+    private static long samplesToMs(long samples) {
+        return samples * 1000 / WhisperUtil.WHISPER_SAMPLE_RATE;
+    }
+
     private void sendResult(WhisperResult whisperResult) {
         if (mUpdateListener != null) {
             mUpdateListener.onResultReceived(whisperResult);
@@ -0,0 +1,81 @@
+package com.whispertflite.asr;
+
+import com.whispertflite.engine.BatchItem;
+import com.whispertflite.utils.CancellationToken;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * One unit of work for Whisper's worker thread, with the future its result goes to.
+ *
+ * Capture jobs come from the microphone: a finished recording, a segment of a long-form
+ * capture, and the end of that capture. They are interactive and never rejected, since
+ * the audio is already being recorded. Audio jobs are submitted clips and files.
+ */
+final class WhisperJob {
+    enum Kind {
+        RECORDING, SEGMENT, END_SEGMENTS, AUDIO
+    }
+
+    final Kind kind;
+    final Whisper.Priority priority;
+    final PcmRingBuffer.Recording recording; // RECORDING and SEGMENT
+    final BatchItem audio;                   // AUDIO
+    final Whisper.Action action;
+    final int langToken;
+    final CompletableFuture<WhisperResult> future = new CompletableFuture<>();
+
+    // Guarded by the queue's lock
+    private long queuedAtNanos;
+    private long queuedNanos = 0;
+    CancellationToken token = null; // while running
+    boolean preempted = false;
+
+    private WhisperJob(Kind kind, Whisper.Priority priority, PcmRingBuffer.Recording recording, BatchItem audio,
+                       Whisper.Action action, int langToken) {
+        this.kind = kind;
+        this.priority = priority;
+        this.recording = recording;
+        this.audio = audio;
+        this.action = action;
+        this.langToken = langToken;
+        queuedAtNanos = System.nanoTime();
+    }
+
+    static WhisperJob recording(PcmRingBuffer.Recording recording, Whisper.Action action, int langToken) {
+        return new WhisperJob(Kind.RECORDING, Whisper.Priority.INTERACTIVE, recording, null, action, langToken);
+    }
+
+    static WhisperJob segment(PcmRingBuffer.Recording segment, Whisper.Action action, int langToken) {
+        return new WhisperJob(Kind.SEGMENT, Whisper.Priority.INTERACTIVE, segment, null, action, langToken);
+    }
+
+    static WhisperJob endSegments() {
+        return new WhisperJob(Kind.END_SEGMENTS, Whisper.Priority.INTERACTIVE, null, null, null, -1);
+    }
+
+    static WhisperJob audio(BatchItem audio, Whisper.Action action, int langToken, Whisper.Priority priority) {
+        return new WhisperJob(Kind.AUDIO, priority, null, audio, action, langToken);
+    }
+
+    boolean isCapture() {
+        return kind != Kind.AUDIO;
+    }
+
+    // The worker took the job off the queue
+    void started() {
+        queuedNanos += System.nanoTime() - queuedAtNanos;
+        token = new CancellationToken();
+        preempted = false;
+    }
+
+    // Back in the queue after being preempted; the wait counts towards the queue time again
+    void requeued() {
+        queuedAtNanos = System.nanoTime();
+        token = null;
+    }
+
+    long queueMs() {
+        return queuedNanos / 1_000_000;
+    }
+}
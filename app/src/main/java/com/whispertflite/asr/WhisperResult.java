@@ -1,14 +1,30 @@
 package com.whispertflite.asr;
 
+import java.util.Collections;
+import java.util.List;
+
 public class WhisperResult {
     private final String result;
     private final String language;
     private final Whisper.Action task;
+    private final List<WhisperSegment> segments;
+    private final JobTimings timings;
 
     public WhisperResult(String result, String language, Whisper.Action task){
+        this(result, language, task, Collections.emptyList());
+    }
+
+    public WhisperResult(String result, String language, Whisper.Action task, List<WhisperSegment> segments){
+        this(result, language, task, segments, JobTimings.NONE);
+    }
+
+    public WhisperResult(String result, String language, Whisper.Action task, List<WhisperSegment> segments,
+                         JobTimings timings){
         this.result = result;
         this.language = language;
         this.task = task;
+        this.segments = Collections.unmodifiableList(segments);
+        this.timings = timings;
     }
 
     public String getResult() {
@@ -22,4 +38,18 @@ public class WhisperResult {
     public Whisper.Action getTask() {
         return task;
     }
-}
\ No newline at end of file
+
+    // Timed parts of the result in order, see WhisperSegment
+    public List<WhisperSegment> getSegments() {
+        return segments;
+    }
+
+    // Time spent in each stage to produce this result
+    public JobTimings getTimings() {
+        return timings;
+    }
+
+    public WhisperResult withTimings(JobTimings timings) {
+        return new WhisperResult(result, language, task, segments, timings);
+    }
+}
@@ -0,0 +1,40 @@
+package com.whispertflite.asr;
+
+/**
+ * A piece of a transcript and the stretch of audio it was spoken in, from Whisper's
+ * timestamp tokens. Times are milliseconds from the start of the recording, or of the
+ * whole capture in long-form transcription, so they can be used to seek into stored audio.
+ */
+public class WhisperSegment {
+    private final String text;
+    private final long startMs;
+    private final long endMs;
+
+    public WhisperSegment(String text, long startMs, long endMs) {
+        this.text = text;
+        this.startMs = startMs;
+        this.endMs = endMs;
+    }
+
+    public String getText() {
+        return text;
+    }
+
+    public long getStartMs() {
+        return startMs;
+    }
+
+    public long getEndMs() {
+        return endMs;
+    }
+
+    // Same segment with both times moved by offsetMs, for audio that starts later in a capture
+    public WhisperSegment shifted(long offsetMs) {
+        return offsetMs == 0 ? this : new WhisperSegment(text, startMs + offsetMs, endMs + offsetMs);
+    }
+
+    @Override
+    public String toString() {
+        return "[" + startMs + " - " + endMs + " ms] " + text;
+    }
+}
@@ -0,0 +1,66 @@
+package com.whispertflite.engine;
+
+import com.whispertflite.utils.Resampler;
+import com.whispertflite.utils.WaveUtil;
+import com.whispertflite.utils.WhisperUtil;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * One input of {@link WhisperEngine#processBatch}: a stored clip or an imported file.
+ * The audio is only decoded when the batch gets to it, on the engine's mel thread, so a
+ * long batch does not hold every clip in memory at once.
+ */
+public abstract class BatchItem {
+    private final String name;
+
+    private BatchItem(String name) {
+        this.name = name;
+    }
+
+    // Label for logs and results, e.g. the file name
+    public String getName() {
+        return name;
+    }
+
+    // 16 kHz mono samples in [-1, 1]
+    abstract float[] load() throws IOException;
+
+    // WAV file at any rate and channel count
+    public static BatchItem fromWaveFile(String filePath) {
+        return new BatchItem(filePath) {
+            @Override
+            float[] load() throws IOException {
+                if (WaveUtil.getSampleRate(filePath) <= 0) {
+                    throw new IOException("Not a valid WAV file: " + filePath);
+                }
+                return WaveUtil.getSamples(filePath);
+            }
+        };
+    }
+
+    // Interleaved 16-bit PCM in native byte order
+    public static BatchItem fromPcm16(String name, byte[] pcm, int sampleRate, int channels) {
+        return new BatchItem(name) {
+            @Override
+            float[] load() {
+                Resampler resampler = new Resampler(sampleRate, WhisperUtil.WHISPER_SAMPLE_RATE, channels);
+                int frames = pcm.length / (2 * channels);
+                float[] samples = new float[resampler.maxOutput(frames)];
+                int count = resampler.processPcm16(pcm, 0, frames * 2 * channels, samples, 0);
+                return count == samples.length ? samples : Arrays.copyOf(samples, count);
+            }
+        };
+    }
+
+    // 16 kHz mono samples in [-1, 1]
+    public static BatchItem fromSamples(String name, float[] samples) {
+        return new BatchItem(name) {
+            @Override
+            float[] load() {
+                return samples;
+            }
+        };
+    }
+}
@@ -0,0 +1,214 @@
+package com.whispertflite.engine;
+
+import com.whispertflite.asr.JobTimings;
+import com.whispertflite.asr.TranscriptStitcher;
+import com.whispertflite.asr.Whisper;
+import com.whispertflite.asr.WhisperResult;
+import com.whispertflite.asr.WhisperSegment;
+import com.whispertflite.utils.CancellationToken;
+import com.whispertflite.utils.WhisperUtil;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Runs a batch through two stages with two input slots: while the interpreter works on
+ * the window in one slot, the mel thread loads the next item if needed and computes the
+ * next window's mel spectrogram into the other slot.
+ *
+ * Items are cut into 30 s windows, peak-normalized over the whole item. The windows of an
+ * item are transcribed in order and their text joined; segment times count from the
+ * start of the item.
+ */
+final class BatchPipeline {
+    static final int WINDOW_SAMPLES = WhisperUtil.WHISPER_SAMPLE_RATE * WhisperUtil.WHISPER_CHUNK_SIZE;
+
+    interface Stages {
+        // Mel thread: mel spectrogram of samples[offset, offset + count) divided by peak into slot 0 or 1
+        void computeMel(float[] samples, int offset, int count, float peak, int slot);
+        // Calling thread: transcribes the window in slot, which holds samples samples of audio
+        WhisperResult infer(int slot, int samples);
+    }
+
+    // A window ready for the interpreter, or an item that could not be loaded
+    private static final class Window {
+        int item;
+        int slot;
+        int start;   // first sample of the window in the item
+        int samples;
+        boolean lastOfItem;
+        boolean lastOfBatch;
+        String error;
+        long loadNanos;
+        long melNanos;
+    }
+
+    static final String CANCELLED = "Cancelled";
+
+    private final ExecutorService melExecutor;
+    private final Stages stages;
+    private final CancellationToken cancel;
+
+    // Position of the mel thread in the batch; only touched by tasks on melExecutor, which run one at a time
+    private List<BatchItem> items;
+    private int itemIndex;
+    private float[] samples;
+    private float peak;
+    private int offset;
+
+    BatchPipeline(ExecutorService melExecutor, Stages stages) {
+        this(melExecutor, stages, CancellationToken.NONE);
+    }
+
+    // Once cancel is cancelled no further window is started, and every item that was not
+    // finished gets a CANCELLED error result
+    BatchPipeline(ExecutorService melExecutor, Stages stages, CancellationToken cancel) {
+        this.melExecutor = melExecutor;
+        this.stages = stages;
+        this.cancel = cancel;
+    }
+
+    List<BatchResult> run(List<BatchItem> batch) {
+        List<BatchResult> results = new ArrayList<>(batch.size());
+        if (batch.isEmpty()) {
+            return results;
+        }
+        items = batch;
+        itemIndex = 0;
+        samples = null;
+        offset = 0;
+
+        TranscriptStitcher text = new TranscriptStitcher();
+        List<WhisperSegment> segments = new ArrayList<>();
+        String language = "";
+        Whisper.Action task = null;
+        int windows = 0;
+        long loadNanos = 0;
+        long melNanos = 0;
+        long inferenceNanos = 0;
+        JobTimings windowTimings = JobTimings.NONE; // interpreter and decode time reported by the infer stage
+
+        Future<Window> next = melExecutor.submit(() -> prepare(0));
+        while (next != null) {
+            Window window = await(next);
+            if (cancel.isCancelled()) {
+                addCancelled(results, batch, window.item);
+                break;
+            }
+            next = window.lastOfBatch ? null : melExecutor.submit(() -> prepare(1 - window.slot));
+
+            BatchItem item = batch.get(window.item);
+            if (window.error != null) {
+                results.add(new BatchResult(item, new WhisperResult("", "", null), window.error,
+                        0, window.loadNanos / 1_000_000, 0, 0));
+                continue;
+            }
+
+            long start = System.nanoTime();
+            WhisperResult result = stages.infer(window.slot, window.samples);
+            inferenceNanos += System.nanoTime() - start;
+            if (cancel.isCancelled()) {
+                if (next != null) {
+                    await(next); // the mel thread must be done with the slots before returning
+                }
+                addCancelled(results, batch, window.item);
+                break;
+            }
+            loadNanos += window.loadNanos;
+            melNanos += window.melNanos;
+            windowTimings = windowTimings.plus(result.getTimings());
+            if (windows++ == 0) {
+                language = result.getLanguage();
+                task = result.getTask();
+            }
+            text.append(result.getResult(), false);
+            long windowStartMs = window.start * 1000L / WhisperUtil.WHISPER_SAMPLE_RATE;
+            for (WhisperSegment segment : result.getSegments()) {
+                segments.add(segment.shifted(windowStartMs));
+            }
+
+            if (window.lastOfItem) {
+                JobTimings timings = windowTimings.withMelMs(melNanos / 1_000_000);
+                results.add(new BatchResult(item, new WhisperResult(text.getText(), language, task, segments, timings),
+                        null, windows, loadNanos / 1_000_000, melNanos / 1_000_000, inferenceNanos / 1_000_000));
+                text.reset();
+                windowTimings = JobTimings.NONE;
+                segments = new ArrayList<>();
+                windows = 0;
+                loadNanos = 0;
+                melNanos = 0;
+                inferenceNanos = 0;
+            }
+        }
+        return results;
+    }
+
+    private static void addCancelled(List<BatchResult> results, List<BatchItem> batch, int firstItem) {
+        for (int i = firstItem; i < batch.size(); i++) {
+            results.add(new BatchResult(batch.get(i), new WhisperResult("", "", null), CANCELLED, 0, 0, 0, 0));
+        }
+    }
+
+    private static Window await(Future<Window> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while preparing batch input", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Batch mel stage failed", e.getCause());
+        }
+    }
+
+    // Mel thread: the next window of the batch into slot
+    private Window prepare(int slot) {
+        Window window = new Window();
+        window.item = itemIndex;
+        window.slot = slot;
+
+        if (samples == null) {
+            long start = System.nanoTime();
+            try {
+                samples = items.get(itemIndex).load();
+                peak = peakOf(samples);
+                offset = 0;
+            } catch (Exception e) {
+                samples = null;
+                window.error = e.getMessage() != null ? e.getMessage() : e.toString();
+            }
+            window.loadNanos = System.nanoTime() - start;
+        }
+
+        if (window.error == null) {
+            int count = Math.min(WINDOW_SAMPLES, samples.length - offset);
+            long start = System.nanoTime();
+            stages.computeMel(samples, offset, count, peak, slot);
+            window.melNanos = System.nanoTime() - start;
+            window.start = offset;
+            window.samples = count;
+            offset += count;
+            window.lastOfItem = offset >= samples.length;
+        } else {
+            window.lastOfItem = true;
+        }
+
+        if (window.lastOfItem) {
+            samples = null;
+            itemIndex++;
+        }
+        window.lastOfBatch = itemIndex >= items.size();
+        return window;
+    }
+
+    private static float peakOf(float[] samples) {
+        float peak = 0.0f;
+        for (float sample : samples) {
+            peak = Math.max(peak, Math.abs(sample));
+        }
+        return peak;
+    }
+}
@@ -0,0 +1,65 @@
+package com.whispertflite.engine;
+
+import com.whispertflite.asr.WhisperResult;
+
+/**
+ * Result of one {@link BatchItem}, with the time spent in each stage. Items longer than
+ * the 30 s model window are transcribed window by window; the times are summed.
+ */
+public final class BatchResult {
+    private final BatchItem item;
+    private final WhisperResult result;
+    private final String error;
+    private final int windows;
+    private final long loadMs;
+    private final long melMs;
+    private final long inferenceMs;
+
+    BatchResult(BatchItem item, WhisperResult result, String error, int windows, long loadMs, long melMs, long inferenceMs) {
+        this.item = item;
+        this.result = result;
+        this.error = error;
+        this.windows = windows;
+        this.loadMs = loadMs;
+        this.melMs = melMs;
+        this.inferenceMs = inferenceMs;
+    }
+
+    public BatchItem getItem() {
+        return item;
+    }
+
+    // Empty text if the item could not be transcribed, see getError()
+    public WhisperResult getResult() {
+        return result;
+    }
+
+    // Why the item could not be loaded, or null
+    public String getError() {
+        return error;
+    }
+
+    public int getWindows() {
+        return windows;
+    }
+
+    // Decoding and resampling the audio
+    public long getLoadMs() {
+        return loadMs;
+    }
+
+    // Mel spectrogram, overlapped with the inference of the previous window
+    public long getMelMs() {
+        return melMs;
+    }
+
+    public long getInferenceMs() {
+        return inferenceMs;
+    }
+
+    @Override
+    public String toString() {
+        return item.getName() + ": windows=" + windows + ", load=" + loadMs + " ms, mel=" + melMs
+                + " ms, inference=" + inferenceMs + " ms" + (error != null ? ", error=" + error : "");
+    }
+}
@@ -0,0 +1,126 @@
+package com.whispertflite.engine;
+
+/**
+ * Start-up and inference timings of a WhisperEngine, in milliseconds, so the cost of the
+ * first transcription can be told apart from model loading, thread calibration and warm-up. Values are -1
+ * until measured. Written by the engine thread, readable from any thread.
+ */
+public final class EngineTimings {
+    private volatile long loadMs = -1;
+    private volatile long calibrationMs = -1;
+    private volatile long warmUpMs = -1;
+    private volatile long firstInferenceMs = -1;
+    private volatile long lastInferenceMs = -1;
+    private volatile int inferences = 0;
+    private volatile long lastPartialMs = -1;
+    private volatile int partials = 0;
+    private volatile long lastCancelMs = -1;
+    private volatile long maxCancelMs = -1;
+    private volatile int cancels = 0;
+
+    void reset() {
+        loadMs = -1;
+        calibrationMs = -1;
+        warmUpMs = -1;
+        firstInferenceMs = -1;
+        lastInferenceMs = -1;
+        inferences = 0;
+        lastPartialMs = -1;
+        partials = 0;
+        lastCancelMs = -1;
+        maxCancelMs = -1;
+        cancels = 0;
+    }
+
+    void setLoadMs(long loadMs) {
+        this.loadMs = loadMs;
+    }
+
+    void setCalibrationMs(long calibrationMs) {
+        this.calibrationMs = calibrationMs;
+    }
+
+    void setWarmUpMs(long warmUpMs) {
+        this.warmUpMs = warmUpMs;
+    }
+
+    // A transcription requested by the user: a capture, segment or batch window, not a
+    // warm-up or partial run
+    void addInference(long inferenceMs) {
+        if (inferences == 0) {
+            firstInferenceMs = inferenceMs;
+        }
+        lastInferenceMs = inferenceMs;
+        inferences++;
+    }
+
+    // An interim transcription of the recording in progress
+    void addPartial(long inferenceMs) {
+        lastPartialMs = inferenceMs;
+        partials++;
+    }
+
+    // A run that was cancelled, stopMs after cancel() was called
+    void addCancel(long stopMs) {
+        lastCancelMs = stopMs;
+        maxCancelMs = Math.max(maxCancelMs, stopMs);
+        cancels++;
+    }
+
+    // Model mapping, interpreter creation, signatures, filters and vocab
+    public long getLoadMs() {
+        return loadMs;
+    }
+
+    // Thread count calibration, which runs once per model file and is not part of getLoadMs();
+    // -1 if the stored thread counts were used
+    public long getCalibrationMs() {
+        return calibrationMs;
+    }
+
+    // All warm-up runs together; -1 if warm-up was off
+    public long getWarmUpMs() {
+        return warmUpMs;
+    }
+
+    public long getFirstInferenceMs() {
+        return firstInferenceMs;
+    }
+
+    public long getLastInferenceMs() {
+        return lastInferenceMs;
+    }
+
+    public int getInferences() {
+        return inferences;
+    }
+
+    public long getLastPartialMs() {
+        return lastPartialMs;
+    }
+
+    public int getPartials() {
+        return partials;
+    }
+
+    // Time from cancel() until the engine was idle again, for the latest and the slowest cancelled run
+    public long getLastCancelMs() {
+        return lastCancelMs;
+    }
+
+    public long getMaxCancelMs() {
+        return maxCancelMs;
+    }
+
+    public int getCancels() {
+        return cancels;
+    }
+
+    @Override
+    public String toString() {
+        return "load=" + loadMs + " ms, calibration=" + calibrationMs + " ms, warmUp=" + warmUpMs + " ms, firstInference=" + firstInferenceMs
+                + " ms, lastInference=" + lastInferenceMs + " ms, inferences=" + inferences
+                + ", partials=" + partials + ", lastPartial=" + lastPartialMs + " ms"
+                + ", cancels=" + cancels + ", lastCancel=" + lastCancelMs + " ms, maxCancel=" + maxCancelMs + " ms";
+    }
+}
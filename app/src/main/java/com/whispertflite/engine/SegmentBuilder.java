@@ -0,0 +1,54 @@
+package com.whispertflite.engine;
+
+import com.whispertflite.asr.WhisperSegment;
+import com.whispertflite.utils.Utf8Builder;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Splits decoded text into timed segments at Whisper's timestamp tokens.
+ *
+ * The decoder brackets each segment with timestamp tokens, one step per 20 ms counted
+ * from tokenBEG. The text itself is decoded into the caller's Utf8Builder; this only
+ * records where each segment starts in it. Text without a closing timestamp ends with
+ * the audio, so output without timestamps becomes a single segment.
+ */
+final class SegmentBuilder {
+    static final int MS_PER_TIMESTAMP = 20;
+
+    private final List<WhisperSegment> segments = new ArrayList<>();
+    private long startMs = 0;
+    private int textStart = 0;
+
+    void reset() {
+        segments.clear();
+        startMs = 0;
+        textStart = 0;
+    }
+
+    // Timestamp token index (token - tokenBEG) seen after the text decoded so far
+    void timestamp(int index, Utf8Builder text) {
+        long ms = (long) index * MS_PER_TIMESTAMP;
+        if (text.length() > textStart) {
+            close(text, ms);
+        }
+        startMs = ms; // the second of a pair of timestamps starts the next segment
+    }
+
+    // Closes the last segment at the end of the audio and returns all of them
+    List<WhisperSegment> finish(Utf8Builder text, long audioMs) {
+        if (text.length() > textStart) {
+            close(text, audioMs);
+        }
+        return new ArrayList<>(segments);
+    }
+
+    private void close(Utf8Builder text, long endMs) {
+        String segmentText = text.toString(textStart, text.length()).trim();
+        textStart = text.length();
+        if (!segmentText.isEmpty()) {
+            segments.add(new WhisperSegment(segmentText, startMs, Math.max(startMs, endMs)));
+        }
+    }
+}
@@ -0,0 +1,178 @@
+package com.whispertflite.engine;
+
+import android.util.Log;
+
+import com.whispertflite.utils.CancellationToken;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Thread counts for the interpreter and the mel stage, measured once per model file.
+ *
+ * Using every core is often slower than using a few on big.LITTLE phones, where the
+ * slowest core holds up every parallel step. WhisperEngineJava times each candidate
+ * count and stores the fastest per model in a properties file. An entry is keyed by the
+ * model path and only used while the file's size and modification time match, so
+ * replacing the model triggers a new calibration.
+ *
+ * Inference is timed once per count, most threads first, and a run is cancelled as soon
+ * as it can no longer win. Slow counts, usually the single-threaded one, then cost about
+ * as much as the fastest instead of a full transcription each.
+ */
+final class ThreadTuner {
+    private static final String TAG = "ThreadTuner";
+    // Fewer threads win unless more are at least this much faster
+    static final double MIN_GAIN = 0.05;
+
+    // A run that stops early when cancel is cancelled
+    interface CancellableRun {
+        void run(CancellationToken cancel);
+    }
+
+    static final class Config {
+        final int interpreterThreads;
+        final int melThreads;
+
+        Config(int interpreterThreads, int melThreads) {
+            this.interpreterThreads = interpreterThreads;
+            this.melThreads = melThreads;
+        }
+
+        @Override
+        public String toString() {
+            return "interpreter=" + interpreterThreads + ", mel=" + melThreads;
+        }
+    }
+
+    private final File storeFile;
+
+    ThreadTuner(File storeFile) {
+        this.storeFile = storeFile;
+    }
+
+    // Stored configuration for this model file, or null if it has to be calibrated
+    synchronized Config load(File model) {
+        String value = readStore().getProperty(model.getAbsolutePath());
+        if (value == null) {
+            return null;
+        }
+        String[] fields = value.split(",");
+        if (fields.length != 3 || !fields[0].equals(fingerprint(model))) {
+            return null;
+        }
+        try {
+            return new Config(Integer.parseInt(fields[1]), Integer.parseInt(fields[2]));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    synchronized void save(File model, Config config) {
+        Properties store = readStore();
+        store.setProperty(model.getAbsolutePath(),
+                fingerprint(model) + "," + config.interpreterThreads + "," + config.melThreads);
+        try (OutputStream out = new FileOutputStream(storeFile)) {
+            store.store(out, "Whisper thread counts per model");
+        } catch (IOException e) {
+            Log.e(TAG, "Could not save thread configuration", e);
+        }
+    }
+
+    private Properties readStore() {
+        Properties store = new Properties();
+        if (storeFile.exists()) {
+            try (InputStream in = new FileInputStream(storeFile)) {
+                store.load(in);
+            } catch (IOException e) {
+                Log.e(TAG, "Could not read thread configuration", e);
+            }
+        }
+        return store;
+    }
+
+    private static String fingerprint(File model) {
+        return model.length() + ":" + model.lastModified();
+    }
+
+    // 1, 2, 3, 4, 6, 8, ... up to and including cores
+    static int[] candidates(int cores) {
+        List<Integer> counts = new ArrayList<>();
+        for (int n = 1; n <= cores; n = n < 4 ? n + 1 : n + n / 2) {
+            counts.add(n);
+        }
+        if (counts.get(counts.size() - 1) != cores) {
+            counts.add(cores);
+        }
+        int[] result = new int[counts.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = counts.get(i);
+        }
+        return result;
+    }
+
+    // Candidate with the lowest time, preferring fewer threads unless more gain at least MIN_GAIN
+    static int fastest(int[] candidates, long[] nanos) {
+        int best = 0;
+        for (int i = 1; i < candidates.length; i++) {
+            if (nanos[i] < nanos[best] * (1.0 - MIN_GAIN)) {
+                best = i;
+            }
+        }
+        return candidates[best];
+    }
+
+    // Longest a run may take and still be chosen over one that took bestNanos with more threads
+    static long limitAfter(long bestNanos) {
+        if (bestNanos == Long.MAX_VALUE) {
+            return Long.MAX_VALUE;
+        }
+        return (long) (bestNanos / (1.0 - MIN_GAIN));
+    }
+
+    // Time of one run, or Long.MAX_VALUE if it was cancelled after limitNanos
+    static long timeWithin(long limitNanos, CancellableRun run) {
+        CancellationToken cancel = new CancellationToken();
+        ScheduledExecutorService timer = null;
+        if (limitNanos != Long.MAX_VALUE) {
+            timer = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "ThreadTunerTimer");
+                thread.setDaemon(true);
+                return thread;
+            });
+            timer.schedule(cancel::cancel, limitNanos, TimeUnit.NANOSECONDS);
+        }
+        try {
+            long start = System.nanoTime();
+            run.run(cancel);
+            long nanos = System.nanoTime() - start;
+            return cancel.isCancelled() ? Long.MAX_VALUE : nanos;
+        } finally {
+            if (timer != null) {
+                timer.shutdownNow();
+            }
+        }
+    }
+
+    // Shortest of rounds runs, after one untimed run
+    static long bestOf(int rounds, Runnable run) {
+        run.run();
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < rounds; i++) {
+            long start = System.nanoTime();
+            run.run();
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        return best;
+    }
+}
@@ -0,0 +1,8 @@
+package com.whispertflite.engine;
+
+// Text tokens of a transcription as the engine decodes them, see WhisperEngine.setTokenListener
+public interface TokenListener {
+    // text is what token adds to the transcript of the current window. Part of a character
+    // split across tokens comes with the token that completes it.
+    void onToken(int token, String text);
+}
@@ -1,13 +1,37 @@
 package com.whispertflite.engine;
 
+import com.whispertflite.asr.PcmRingBuffer;
 import com.whispertflite.asr.Whisper;
 import com.whispertflite.asr.WhisperResult;
+import com.whispertflite.utils.CancellationToken;
+import com.whispertflite.utils.StreamingMel;
 
 import java.io.IOException;
+import java.util.List;
 
 public interface WhisperEngine {
     boolean isInitialized();
+    // Run silence through every signature in initialize(), so the first transcription is not the slow one
+    void setWarmUp(boolean warmUp);
+    // Measure the fastest interpreter and mel thread counts once per model file and use them from then on
+    void setAutoTuneThreads(boolean autoTune);
+    // Called on the transcribing thread for each text token by engines that decode token by
+    // token, while decoding. Engines whose model returns all tokens at once never call it.
+    // Null turns it off; set it only while a consumer streams, it costs a string per token.
+    void setTokenListener(TokenListener listener);
     void initialize(String modelPath, String vocabPath, boolean multilingual) throws IOException;
     void deinitialize();
-    WhisperResult processRecordBuffer(Whisper.Action mAction, int mLangToken);
+    // A cancelled run stops in the mel stage or the interpreter and returns an empty result;
+    // the engine can be used again right away. Recordings whose audio was overwritten in the
+    // ring before it was read fail with RecordingOverwrittenException instead of being transcribed.
+    WhisperResult processRecordBuffer(Whisper.Action mAction, int mLangToken, CancellationToken cancel);
+    WhisperResult processRecording(PcmRingBuffer.Recording recording, Whisper.Action mAction, int mLangToken,
+                                   CancellationToken cancel);
+    WhisperResult processPartial(PcmRingBuffer.Recording recording, Whisper.Action mAction, int mLangToken,
+                                 CancellationToken cancel);
+    // Transcribes the items in order, computing the next item's mel while the current one is in the interpreter
+    List<BatchResult> processBatch(List<BatchItem> items, Whisper.Action mAction, int mLangToken, CancellationToken cancel);
+    StreamingMel getStreamingMel();
+    PcmRingBuffer getRecordBuffer();
+    EngineTimings getTimings();
 }
\ No newline at end of file
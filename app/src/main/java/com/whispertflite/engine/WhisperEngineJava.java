@@ -3,38 +3,76 @@ package com.whispertflite.engine;
 import android.content.Context;
 import android.util.Log;
 
-import com.whispertflite.asr.RecordBuffer;
+import com.whispertflite.asr.JobTimings;
+import com.whispertflite.asr.PcmRingBuffer;
 import com.whispertflite.asr.Whisper;
 import com.whispertflite.asr.WhisperResult;
-import com.whispertflite.utils.InputLang;
+import com.whispertflite.asr.WhisperSegment;
+import com.whispertflite.utils.CancellationToken;
+import com.whispertflite.utils.StreamingMel;
+import com.whispertflite.utils.Utf8Builder;
 import com.whispertflite.utils.WhisperUtil;
 
-import org.tensorflow.lite.DataType;
 import org.tensorflow.lite.Interpreter;
 import org.tensorflow.lite.Tensor;
-import org.tensorflow.lite.support.tensorbuffer.TensorBuffer;
 
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
 import java.nio.IntBuffer;
 import java.nio.channels.FileChannel;
-import java.nio.charset.StandardCharsets;
-import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 public class WhisperEngineJava implements WhisperEngine {
     private final String TAG = "WhisperEngineJava";
     private final WhisperUtil mWhisperUtil = new WhisperUtil();
+    private final StreamingMel mStreamingMel = new StreamingMel(mWhisperUtil);
+    private final PcmRingBuffer mRecordBuffer = new PcmRingBuffer();
 
     private final Context mContext;
     private boolean mIsInitialized = false;
+    private boolean mMultilingual = false;
+    private volatile TokenListener mTokenListener = null;
+    private boolean mWarmUp = false;
+    private boolean mAutoTuneThreads = false;
+    private int mInterpreterThreads = Runtime.getRuntime().availableProcessors();
+    private int mMelThreads = Runtime.getRuntime().availableProcessors();
+    private ByteBuffer mModelBuffer = null;
+    private final EngineTimings mTimings = new EngineTimings();
     private Interpreter mInterpreter = null;
 
+    // Model input, reused by every inference. The mel stage writes into the float view
+    // and the byte buffer is handed to the interpreter as is.
+    private ByteBuffer mInputBuffer = null;
+    private FloatBuffer mInputFloats = null;
+    private float[] mSamples = null; // batch mel input, peak-normalized
+
+    // Batch transcription: the mel of the next window goes into the other input buffer
+    private ByteBuffer mSecondInputBuffer = null;
+    private FloatBuffer mSecondInputFloats = null;
+    private float[] mBatchSamples = null; // only touched by the batch mel thread
+    private ExecutorService mBatchMelExecutor = null;
+
+    // Resolved once the model is loaded, see resolveSignatures()
+    protected static final int WARM_UP_LANG_TOKEN = 50259; // English
+    private static final String THREAD_CONFIG_FILE = "whisper_threads.properties";
+    private static final int MEL_CALIBRATION_ROUNDS = 3;
+    private Signature mDefaultSignature = null;
+    private Signature mTranslateSignature = null;
+    private Signature mTranscribeSignature = null;
+    private Signature mTranscribeLangSignature = null;
+    private final Utf8Builder mText = new Utf8Builder(); // UTF-8 of the decoded text
+    private final SegmentBuilder mSegments = new SegmentBuilder();
+
     public WhisperEngineJava(Context context) {
         mContext = context;
     }
@@ -44,10 +82,31 @@ public class WhisperEngineJava implements WhisperEngine {
         return mIsInitialized;
     }
 
+    @Override
+    public void setWarmUp(boolean warmUp) {
+        mWarmUp = warmUp;
+    }
+
+    @Override
+    public void setAutoTuneThreads(boolean autoTune) {
+        mAutoTuneThreads = autoTune;
+    }
+
+    // Only kept for subclasses that decode token by token: the signatures return all tokens
+    // at once, after the transcription is done, so there is nothing to stream here
+    @Override
+    public void setTokenListener(TokenListener listener) {
+        mTokenListener = listener;
+    }
+
     @Override
     public void initialize(String modelPath, String vocabPath, boolean multilingual) throws IOException {
+        mTimings.reset();
+        mMultilingual = multilingual;
+        long start = System.nanoTime();
+
         // Load model
-        loadModel(modelPath);
+        openModel(modelPath);
         Log.d(TAG, "Model is loaded..." + modelPath);
 
         // Load filters and vocab
@@ -60,162 +119,502 @@ public class WhisperEngineJava implements WhisperEngine {
             Log.d(TAG, "Failed to load Filters and Vocab...");
         }
 
+        // Thread counts measured for this model, calibrated on first use; calibration is
+        // timed on its own and not counted as loading
+        long calibrationNanos = 0;
+        if (ret && mAutoTuneThreads && mContext != null) {
+            calibrationNanos = tuneThreads(new File(modelPath));
+        }
+        createInterpreters(mInterpreterThreads);
+        mTimings.setLoadMs((System.nanoTime() - start - calibrationNanos) / 1_000_000);
+
+        if (mIsInitialized && mWarmUp) {
+            warmUp();
+        }
+        Log.d(TAG, "Engine timings: " + mTimings);
+
     }
 
     // Unload the model by closing the interpreter
     @Override
     public void deinitialize() {
-        if (mInterpreter != null) {
-            mInterpreter.setCancelled(true);
-            mInterpreter.close();
-            mInterpreter = null; // Optional: Set to null to avoid accidental reuse
+        mIsInitialized = false;
+        closeModel();
+        if (mBatchMelExecutor != null) {
+            mBatchMelExecutor.shutdown();
+            mBatchMelExecutor = null;
         }
+        mWhisperUtil.shutdown();
+    }
+
+    @Override
+    public WhisperResult processRecordBuffer(Whisper.Action mAction, int mLangToken, CancellationToken cancel) {
+        return processRecording(mRecordBuffer.getCurrentRecording(), mAction, mLangToken, cancel);
     }
 
     @Override
-    public WhisperResult processRecordBuffer(Whisper.Action mAction, int mLangToken) {
+    public WhisperResult processRecording(PcmRingBuffer.Recording recording, Whisper.Action mAction, int mLangToken,
+                                          CancellationToken cancel) {
         // Calculate Mel spectrogram
         Log.d(TAG, "Calculating Mel spectrogram...");
-        float[] melSpectrogram = getMelSpectrogram();
+        long melStart = System.nanoTime();
+        ByteBuffer melSpectrogram = getMelSpectrogram(recording, cancel);
+        if (melSpectrogram == null) {
+            return cancelledResult(cancel, mAction);
+        }
+        long melMs = (System.nanoTime() - melStart) / 1_000_000;
         Log.d(TAG, "Mel spectrogram is calculated...!");
 
         // Perform inference
-        WhisperResult whisperResult = runInference(melSpectrogram, mAction, mLangToken);
+        WhisperResult whisperResult = runInference(melSpectrogram, mAction, mLangToken, windowSamples(recording), false, cancel);
         Log.d(TAG, "Inference is executed...!");
 
-        return whisperResult;
+        return whisperResult.withTimings(whisperResult.getTimings().withMelMs(melMs));
+    }
+
+
+    @Override
+    public List<BatchResult> processBatch(List<BatchItem> items, Whisper.Action mAction, int mLangToken,
+                                          CancellationToken cancel) {
+        int fixedInputSize = WhisperUtil.WHISPER_SAMPLE_RATE * WhisperUtil.WHISPER_CHUNK_SIZE;
+        ByteBuffer[] inputBuffers = {prepareInputBuffer(), null};
+        if (mSecondInputBuffer == null) {
+            mSecondInputBuffer = ByteBuffer.allocateDirect(mInputBuffer.capacity()).order(ByteOrder.nativeOrder());
+            mSecondInputFloats = mSecondInputBuffer.asFloatBuffer();
+        }
+        inputBuffers[1] = mSecondInputBuffer;
+        FloatBuffer[] inputFloats = {mInputFloats, mSecondInputFloats};
+        if (mBatchSamples == null) {
+            mBatchSamples = new float[fixedInputSize];
+        }
+        if (mBatchMelExecutor == null) {
+            mBatchMelExecutor = Executors.newSingleThreadExecutor(r -> {
+                Thread thread = new Thread(r, "WhisperBatchMel");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+
+        BatchPipeline pipeline = new BatchPipeline(mBatchMelExecutor, new BatchPipeline.Stages() {
+            @Override
+            public void computeMel(float[] samples, int offset, int count, float peak, int slot) {
+                for (int i = 0; i < count; i++) {
+                    mBatchSamples[i] = peak > 0.0f ? samples[offset + i] / peak : samples[offset + i];
+                }
+                mWhisperUtil.getMelSpectrogram(mBatchSamples, fixedInputSize, count, mMelThreads, inputFloats[slot], cancel);
+            }
+
+            @Override
+            public WhisperResult infer(int slot, int samples) {
+                return runInference(inputBuffers[slot], mAction, mLangToken, samples, false, cancel);
+            }
+        }, cancel);
+
+        long start = System.nanoTime();
+        List<BatchResult> results = pipeline.run(items);
+        if (cancel.isCancelled()) {
+            recordCancel(cancel);
+        }
+        Log.d(TAG, "Batch of " + items.size() + " transcribed in " + (System.nanoTime() - start) / 1_000_000 + " ms");
+        return results;
+    }
+
+    // Transcribes what a recording holds so far, leaving the streaming mel capture open
+    @Override
+    public WhisperResult processPartial(PcmRingBuffer.Recording recording, Whisper.Action mAction, int mLangToken,
+                                        CancellationToken cancel) {
+        ByteBuffer melSpectrogram = prepareInputBuffer();
+        long melStart = System.nanoTime();
+        if (recording == mRecordBuffer.getCurrentRecording() && mStreamingMel.snapshot(mInputFloats)) {
+            Log.d(TAG, "Using streamed mel spectrogram snapshot");
+        } else if (!computeMelSpectrogram(recording, cancel)) {
+            return cancelledResult(cancel, mAction);
+        }
+        long melMs = (System.nanoTime() - melStart) / 1_000_000;
+        WhisperResult whisperResult = runInference(melSpectrogram, mAction, mLangToken, windowSamples(recording), true, cancel);
+        return whisperResult.withTimings(whisperResult.getTimings().withMelMs(melMs));
+    }
+
+    private WhisperResult cancelledResult(CancellationToken cancel, Whisper.Action mAction) {
+        recordCancel(cancel);
+        return new WhisperResult("", "", mAction);
+    }
+
+    // How long the engine took to stop after cancel()
+    private void recordCancel(CancellationToken cancel) {
+        long stopMs = (System.nanoTime() - cancel.getCancelledAtNanos()) / 1_000_000;
+        mTimings.addCancel(stopMs);
+        Log.d(TAG, "Cancelled, idle " + stopMs + " ms after cancel()");
+    }
+
+    @Override
+    public StreamingMel getStreamingMel() {
+        return mStreamingMel;
+    }
+
+    @Override
+    public PcmRingBuffer getRecordBuffer() {
+        return mRecordBuffer;
+    }
+
+    @Override
+    public EngineTimings getTimings() {
+        return mTimings;
+    }
+
+    /**
+     * Transcribes silence once with every signature the model has. The interpreter
+     * allocates its tensors and the mapped model is paged in on first use, and the mel
+     * workers are started, so that cost is paid here instead of on the first utterance.
+     */
+    private void warmUp() {
+        long start = System.nanoTime();
+        int fixedInputSize = WhisperUtil.WHISPER_SAMPLE_RATE * WhisperUtil.WHISPER_CHUNK_SIZE;
+        if (mSamples == null) {
+            mSamples = new float[fixedInputSize];
+        }
+        ByteBuffer input = prepareInputBuffer();
+        mWhisperUtil.getMelSpectrogram(mSamples, fixedInputSize, 0, mMelThreads, mInputFloats);
+        warmUpModel(input);
+        mTimings.setWarmUpMs((System.nanoTime() - start) / 1_000_000);
+    }
+
+    // The model specific part. Engines for a different model layout override these; the
+    // mel frontend, batching, thread tuning and decoding of the output tokens stay here.
+
+    // Maps the model file(s); called before the thread counts are tuned
+    protected void openModel(String modelPath) throws IOException {
+        mModelBuffer = mapModel(modelPath);
+    }
+
+    // Creates the interpreter(s) with numThreads threads and resolves their inputs and outputs
+    protected void createInterpreters(int numThreads) throws IOException {
+        mInterpreter = createInterpreter(mModelBuffer, numThreads);
+        resolveSignatures();
+    }
+
+    protected void closeModel() {
+        if (mInterpreter != null) {
+            mInterpreter.setCancelled(true);
+            mInterpreter.close();
+            mInterpreter = null; // Optional: Set to null to avoid accidental reuse
+        }
+        mModelBuffer = null;
+        mDefaultSignature = null;
+        mTranslateSignature = null;
+        mTranscribeSignature = null;
+        mTranscribeLangSignature = null;
+    }
+
+    // Runs every signature once on the silent mel in input
+    protected void warmUpModel(ByteBuffer input) {
+        Signature[] signatures = {mDefaultSignature, mTranslateSignature, mTranscribeSignature, mTranscribeLangSignature};
+        for (Signature signature : signatures) {
+            if (signature == null) {
+                continue;
+            }
+            long signatureStart = System.nanoTime();
+            runSignature(signature, input, WARM_UP_LANG_TOKEN, CancellationToken.NONE);
+            Log.d(TAG, "Warmed up " + signature.key + " in " + (System.nanoTime() - signatureStart) / 1_000_000 + " ms");
+        }
+    }
+
+    // Thread calibration: time of one transcription of the mel in input with numThreads interpreter
+    // threads, or Long.MAX_VALUE if it took longer than limitNanos and was cut off. The
+    // interpreter is created for the measurement and closed afterwards.
+    protected long timeInference(int numThreads, ByteBuffer input, long limitNanos) throws IOException {
+        mInterpreter = createInterpreter(mModelBuffer, numThreads);
+        try {
+            resolveSignatures();
+            Signature signature = mDefaultSignature;
+            return ThreadTuner.timeWithin(limitNanos, cancel ->
+                    runSignature(signature, input, WARM_UP_LANG_TOKEN, cancel));
+        } finally {
+            mInterpreter.close();
+            mInterpreter = null;
+        }
+    }
+
+    /**
+     * Runs the model on the mel in input and returns the output tokens up to the buffer's
+     * limit, or null if it was cancelled or failed. The buffer is only read until the next
+     * call. Tokens are decoded into text and segments by the caller.
+     */
+    protected IntBuffer generateTokens(ByteBuffer input, Whisper.Action mAction, int mLangToken, CancellationToken cancel) {
+        Signature signature = mDefaultSignature;
+        if (mAction == Whisper.Action.TRANSLATE) {
+            if (mTranslateSignature != null) signature = mTranslateSignature;
+        } else if (mAction == Whisper.ACTION_TRANSCRIBE) {
+            if (mTranscribeLangSignature != null && mLangToken != -1) signature = mTranscribeLangSignature;
+            else if (mTranscribeSignature != null) signature = mTranscribeSignature;
+        }
+        return runSignature(signature, input, mLangToken, cancel) ? signature.outputTokens : null;
+    }
+
+    protected final WhisperUtil getWhisperUtil() {
+        return mWhisperUtil;
     }
 
+    protected final boolean isMultilingual() {
+        return mMultilingual;
+    }
+
+    protected final TokenListener getTokenListener() {
+        return mTokenListener;
+    }
 
     // Load TFLite model
-    private void loadModel(String modelPath) throws IOException {
-        FileInputStream fileInputStream = new FileInputStream(modelPath);
-        FileChannel fileChannel = fileInputStream.getChannel();
-        long startOffset = 0;
-        long declaredLength = fileChannel.size();
-        ByteBuffer tfliteModel = fileChannel.map(FileChannel.MapMode.READ_ONLY, startOffset, declaredLength);
+    protected static ByteBuffer mapModel(String modelPath) throws IOException {
+        try (FileInputStream fileInputStream = new FileInputStream(modelPath);
+             FileChannel fileChannel = fileInputStream.getChannel()) {
+            return fileChannel.map(FileChannel.MapMode.READ_ONLY, 0, fileChannel.size());
+        }
+    }
 
+    protected static Interpreter createInterpreter(ByteBuffer model, int numThreads) {
         // Set the number of threads for inference
         Interpreter.Options options = new Interpreter.Options();
         options.setUseXNNPACK(false);  //cannot be used due to dynamic tensors
-        options.setNumThreads(Runtime.getRuntime().availableProcessors());
+        options.setNumThreads(numThreads);
         options.setCancellable(true);
 
-        mInterpreter = new Interpreter(tfliteModel, options);
+        return new Interpreter(model, options);
     }
 
-    private float[] getMelSpectrogram() {
-        // Get samples in PCM_FLOAT format
-        float[] samples = RecordBuffer.getSamples();
+    // Uses the thread counts stored for this model file, or measures them and stores the
+    // result. Returns the time spent calibrating in ns, 0 if the stored counts were used.
+    private long tuneThreads(File model) throws IOException {
+        ThreadTuner tuner = new ThreadTuner(new File(mContext.getFilesDir(), THREAD_CONFIG_FILE));
+        ThreadTuner.Config config = tuner.load(model);
+        long calibrationNanos = 0;
+        if (config == null) {
+            long start = System.nanoTime();
+            config = calibrateThreads();
+            calibrationNanos = System.nanoTime() - start;
+            tuner.save(model, config);
+            mTimings.setCalibrationMs(calibrationNanos / 1_000_000);
+            Log.d(TAG, "Calibrated threads in " + calibrationNanos / 1_000_000 + " ms: " + config);
+        } else {
+            Log.d(TAG, "Stored thread configuration: " + config);
+        }
+        mInterpreterThreads = config.interpreterThreads;
+        mMelThreads = config.melThreads;
+        return calibrationNanos;
+    }
 
+    // Times both stages on a synthetic 30 s window with every candidate thread count. The mel
+    // is timed on noise; inference on silence, which the model ends after a few tokens, so
+    // it measures the encoder and not however much text noise happens to decode to.
+    private ThreadTuner.Config calibrateThreads() throws IOException {
+        int[] candidates = ThreadTuner.candidates(Runtime.getRuntime().availableProcessors());
         int fixedInputSize = WhisperUtil.WHISPER_SAMPLE_RATE * WhisperUtil.WHISPER_CHUNK_SIZE;
-        float[] inputSamples = new float[fixedInputSize];
-        int copyLength = Math.min(samples.length, fixedInputSize);
-        System.arraycopy(samples, 0, inputSamples, 0, copyLength);
+        if (mSamples == null) {
+            mSamples = new float[fixedInputSize];
+        }
+        Random random = new Random(0);
+        for (int i = 0; i < fixedInputSize; i++) {
+            mSamples[i] = (float) (random.nextGaussian() * 0.1);
+        }
+        ByteBuffer input = prepareInputBuffer();
 
-        int cores = Runtime.getRuntime().availableProcessors();
-        return mWhisperUtil.getMelSpectrogram(inputSamples, inputSamples.length, copyLength, cores);
-    }
+        long[] melNanos = new long[candidates.length];
+        for (int i = 0; i < candidates.length; i++) {
+            int threads = candidates[i];
+            melNanos[i] = ThreadTuner.bestOf(MEL_CALIBRATION_ROUNDS, () ->
+                    mWhisperUtil.getMelSpectrogram(mSamples, fixedInputSize, fixedInputSize, threads, mInputFloats));
+        }
+
+        Arrays.fill(mSamples, 0.0f);
+        mWhisperUtil.getMelSpectrogram(mSamples, fixedInputSize, 0, mMelThreads, mInputFloats);
 
-    private WhisperResult runInference(float[] inputData, Whisper.Action mAction, int mLangToken) {
-        Log.d("Whisper","Signatures "+ Arrays.toString(mInterpreter.getSignatureKeys()));
+        // Most threads first: the fast counts set the limit and slower ones are cut off at it
+        long[] inferenceNanos = new long[candidates.length];
+        long best = Long.MAX_VALUE;
+        for (int i = candidates.length - 1; i >= 0; i--) {
+            inferenceNanos[i] = timeInference(candidates[i], input, ThreadTuner.limitAfter(best));
+            best = Math.min(best, inferenceNanos[i]);
+        }
 
-        // Create input tensor
-        Tensor inputTensor = mInterpreter.getInputTensor(0);
+        for (int i = 0; i < candidates.length; i++) {
+            Log.d(TAG, candidates[i] + " threads: mel " + melNanos[i] / 1_000_000 + " ms, inference "
+                    + (inferenceNanos[i] == Long.MAX_VALUE ? "cut off" : inferenceNanos[i] / 1_000_000 + " ms"));
+        }
+        return new ThreadTuner.Config(ThreadTuner.fastest(candidates, inferenceNanos),
+                ThreadTuner.fastest(candidates, melNanos));
+    }
 
-        // Create output tensor
-        Tensor outputTensor = mInterpreter.getOutputTensor(0);
-        TensorBuffer outputBuffer = TensorBuffer.createFixedSize(outputTensor.shape(), DataType.FLOAT32);
+    // Computes the mel spectrogram of a recording straight into the model input buffer; null if cancelled
+    private ByteBuffer getMelSpectrogram(PcmRingBuffer.Recording recording, CancellationToken cancel) {
+        prepareInputBuffer();
 
-        // Load input data
-        int inputSize = inputTensor.shape()[0] * inputTensor.shape()[1] * inputTensor.shape()[2] * Float.BYTES;
-        ByteBuffer inputBuffer = ByteBuffer.allocateDirect(inputSize);
-        inputBuffer.order(ByteOrder.nativeOrder());
-        for (float input : inputData) {
-            inputBuffer.putFloat(input);
+        // Use the log-mel computed while recording if it covers the whole capture.
+        // It was only fed for the latest recording.
+        if (recording == mRecordBuffer.getCurrentRecording()
+                && mStreamingMel.finish(recording.length(), mInputFloats)) {
+            Log.d(TAG, "Using streamed mel spectrogram");
+            return mInputBuffer;
         }
 
-        String signature_key = "serving_default";
-        if (mAction == Whisper.Action.TRANSLATE) {
-            if (Arrays.asList(mInterpreter.getSignatureKeys()).contains("serving_translate")) signature_key = "serving_translate";
-        } else if (mAction == Whisper.ACTION_TRANSCRIBE) {
-            if (Arrays.asList(mInterpreter.getSignatureKeys()).contains("serving_transcribe_lang") && mLangToken != -1) signature_key = "serving_transcribe_lang";
-            else if (Arrays.asList(mInterpreter.getSignatureKeys()).contains("serving_transcribe")) signature_key = "serving_transcribe";
+        return computeMelSpectrogram(recording, cancel) ? mInputBuffer : null;
+    }
+
+    private ByteBuffer prepareInputBuffer() {
+        if (mInputBuffer == null) {
+            int fixedInputSize = WhisperUtil.WHISPER_SAMPLE_RATE * WhisperUtil.WHISPER_CHUNK_SIZE;
+            int melSize = WhisperUtil.WHISPER_N_MEL * (fixedInputSize / WhisperUtil.WHISPER_HOP_LENGTH);
+            mInputBuffer = ByteBuffer.allocateDirect(melSize * Float.BYTES).order(ByteOrder.nativeOrder());
+            mInputFloats = mInputBuffer.asFloatBuffer();
         }
+        mInputBuffer.rewind();
+        return mInputBuffer;
+    }
+
+    // Batch path: mel spectrogram from the recorded samples
+    private boolean computeMelSpectrogram(PcmRingBuffer.Recording recording, CancellationToken cancel) {
+        int fixedInputSize = WhisperUtil.WHISPER_SAMPLE_RATE * WhisperUtil.WHISPER_CHUNK_SIZE;
 
-        Map<String, Object> inputsMap = new HashMap<>();
-        String[] inputs = mInterpreter.getSignatureInputs(signature_key);
-        inputsMap.put(inputs[0], inputBuffer);
-        if (signature_key.equals("serving_transcribe_lang")) {
-            Log.d(TAG,"Serving_transcribe_lang " + mLangToken);
-            IntBuffer langTokenBuffer = IntBuffer.allocate(1);
-            langTokenBuffer.put(mLangToken);
-            langTokenBuffer.rewind();
-            inputsMap.put(inputs[1], langTokenBuffer);
+        // Get samples in PCM_FLOAT format. Only the recorded part is read, the rest of
+        // the 30 s window is treated as silence.
+        if (mSamples == null) {
+            mSamples = new float[fixedInputSize];
         }
+        // Throws if transcription fell more than a ring behind the capture; that audio is gone
+        int meaningfulSamples = recording.readNormalized(mSamples, fixedInputSize);
 
-        Map<String, Object> outputsMap = new HashMap<>();
-        String[] outputs = mInterpreter.getSignatureOutputs(signature_key);
-        outputsMap.put(outputs[0], outputBuffer.getBuffer());
+        return mWhisperUtil.getMelSpectrogram(mSamples, fixedInputSize, meaningfulSamples, mMelThreads, mInputFloats, cancel);
+    }
 
+    // Part of a recording that fits the model's 30 s window
+    private static int windowSamples(PcmRingBuffer.Recording recording) {
+        return Math.min(recording.length(), WhisperUtil.WHISPER_SAMPLE_RATE * WhisperUtil.WHISPER_CHUNK_SIZE);
+    }
+
+    // audioSamples is the length of the audio in the window, where a segment without end timestamp ends.
+    // Partial runs are timed apart from the transcriptions the user asked for.
+    private WhisperResult runInference(ByteBuffer inputBuffer, Whisper.Action mAction, int mLangToken, int audioSamples,
+                                       boolean partial, CancellationToken cancel) {
         // Run inference
-        try {
-            mInterpreter.runSignature(inputsMap, outputsMap, signature_key);
-        } catch (Exception e) {
-            return new WhisperResult("", "", mAction);
+        long start = System.nanoTime();
+        IntBuffer tokens = generateTokens(inputBuffer, mAction, mLangToken, cancel);
+        if (tokens == null) {
+            return cancel.isCancelled() ? cancelledResult(cancel, mAction) : new WhisperResult("", "", mAction);
+        }
+        long inferenceMs = (System.nanoTime() - start) / 1_000_000;
+        if (partial) {
+            mTimings.addPartial(inferenceMs);
+        } else {
+            mTimings.addInference(inferenceMs);
         }
 
         // Retrieve the results
-        ArrayList<InputLang> inputLangList = InputLang.getLangList();
+        long decodeStart = System.nanoTime();
         String language = "";
         Whisper.Action task = null;
-        int outputLen = outputBuffer.getIntArray().length;
-        Log.d(TAG, "output_len: " + outputLen);
-        List<byte[]> resultArray = new ArrayList<>();
+        int outputLen = tokens.limit();
+        mText.reset();
+        mSegments.reset();
+        decode:
         for (int i = 0; i < outputLen; i++) {
-            int token = outputBuffer.getBuffer().getInt();
-            if (token == mWhisperUtil.getTokenEOT())
-                break;
-
-            // Get word for token and Skip additional token
-            if (token < mWhisperUtil.getTokenEOT()) {
-                byte[] wordBytes = mWhisperUtil.getWordFromToken(token);
-                resultArray.add(wordBytes);
-            } else {
-                if (token == mWhisperUtil.getTokenTranscribe()){
-                    Log.d(TAG, "It is Transcription...");
+            int token = tokens.get(i);
+            switch (mWhisperUtil.getTokenType(token)) {
+                case WhisperUtil.TOKEN_EOT:
+                    break decode;
+                case WhisperUtil.TOKEN_TEXT:
+                    mWhisperUtil.appendWord(token, mText);
+                    break;
+                case WhisperUtil.TOKEN_TRANSCRIBE:
                     task = Whisper.Action.TRANSCRIBE;
-                }
-
-                if (token == mWhisperUtil.getTokenTranslate()){
-                    Log.d(TAG, "It is Translation...");
+                    break;
+                case WhisperUtil.TOKEN_TRANSLATE:
                     task = Whisper.Action.TRANSLATE;
-                }
-
-                if (token >= 50259 && token <= 50357){
-                    language = InputLang.getLanguageCodeById(inputLangList, token);
-                    Log.d(TAG, "Detected language code: "+ language);
-                }
-                byte[] wordBytes = mWhisperUtil.getWordFromToken(token);
-                Log.d(TAG, "Skipping token: " + token + ", word: " + new String(wordBytes, StandardCharsets.UTF_8));
+                    break;
+                case WhisperUtil.TOKEN_LANGUAGE:
+                    language = mWhisperUtil.getLanguageCode(token);
+                    break;
+                case WhisperUtil.TOKEN_TIMESTAMP:
+                    mSegments.timestamp(token - mWhisperUtil.getTokenBEG(), mText);
+                    break;
+                default:
+                    break; // other special tokens are not part of the text
             }
         }
 
-        // Calculate the total length of the combined byte array
-        int totalLength = 0;
-        for (byte[] byteArray : resultArray) {
-            totalLength += byteArray.length;
+        long audioMs = audioSamples * 1000L / WhisperUtil.WHISPER_SAMPLE_RATE;
+        List<WhisperSegment> segments = mSegments.finish(mText, audioMs);
+        String text = mText.toString();
+        long decodeMs = (System.nanoTime() - decodeStart) / 1_000_000;
+        return new WhisperResult(text, language, task, segments, new JobTimings(-1, -1, inferenceMs, decodeMs));
+    }
+
+    // Runs the interpreter; cancel aborts it from any thread, after which it is reset for the next run
+    private boolean runSignature(Signature signature, ByteBuffer inputBuffer, int langToken, CancellationToken cancel) {
+        if (cancel.isCancelled()) {
+            return false;
+        }
+        inputBuffer.rewind();
+        signature.inputs.put(signature.inputName, inputBuffer);
+        if (signature.langToken != null) {
+            signature.langToken.put(0, langToken);
+            signature.langToken.rewind();
         }
+        signature.output.rewind();
 
-        // Combine the byte arrays into a single byte array
-        byte[] combinedBytes = new byte[totalLength];
-        int offset = 0;
-        for (byte[] byteArray : resultArray) {
-            System.arraycopy(byteArray, 0, combinedBytes, offset, byteArray.length);
-            offset += byteArray.length;
+        Interpreter interpreter = mInterpreter;
+        cancel.setOnCancel(() -> interpreter.setCancelled(true));
+        try {
+            interpreter.runSignature(signature.inputs, signature.outputs, signature.key);
+            return !cancel.isCancelled();
+        } catch (Exception e) {
+            return false;
+        } finally {
+            cancel.setOnCancel(null);
+            if (cancel.isCancelled()) {
+                interpreter.setCancelled(false);
+            }
         }
+    }
+
+    // Resolves the model's signatures once, with their input and output buffers
+    private void resolveSignatures() {
+        String[] keys = mInterpreter.getSignatureKeys();
+        Log.d(TAG, "Signatures " + Arrays.toString(keys));
+        List<String> available = Arrays.asList(keys);
+
+        ByteBuffer input = prepareInputBuffer();
+        mTranslateSignature = available.contains("serving_translate") ? new Signature("serving_translate", input) : null;
+        mTranscribeSignature = available.contains("serving_transcribe") ? new Signature("serving_transcribe", input) : null;
+        mTranscribeLangSignature = available.contains("serving_transcribe_lang") ? new Signature("serving_transcribe_lang", input) : null;
+        mDefaultSignature = new Signature(available.contains("serving_default") || keys.length == 0 ? "serving_default" : keys[0], input);
+    }
 
-        return new WhisperResult(new String(combinedBytes, StandardCharsets.UTF_8), language, task);
+    // A model signature with its input and output maps, filled in once and reused by every inference
+    private final class Signature {
+        final String key;
+        final String inputName; // mel input
+        final Map<String, Object> inputs = new HashMap<>();
+        final Map<String, Object> outputs = new HashMap<>();
+        final IntBuffer langToken; // second input of serving_transcribe_lang, null otherwise
+        final ByteBuffer output;
+        final IntBuffer outputTokens;
+
+        Signature(String key, ByteBuffer input) {
+            this.key = key;
+            String[] inputNames = mInterpreter.getSignatureInputs(key);
+            inputName = inputNames[0];
+            inputs.put(inputName, input);
+            if (key.equals("serving_transcribe_lang") && inputNames.length > 1) {
+                langToken = IntBuffer.allocate(1);
+                inputs.put(inputNames[1], langToken);
+            } else {
+                langToken = null;
+            }
+
+            String outputName = mInterpreter.getSignatureOutputs(key)[0];
+            Tensor outputTensor = mInterpreter.getOutputTensorFromSignature(outputName, key);
+            output = ByteBuffer.allocateDirect(outputTensor.numElements() * Integer.BYTES).order(ByteOrder.nativeOrder());
+            outputTokens = output.asIntBuffer();
+            outputs.put(outputName, output);
+        }
     }
 
 }
\ No newline at end of file
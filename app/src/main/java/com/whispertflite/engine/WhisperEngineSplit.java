@@ -0,0 +1,500 @@
+package com.whispertflite.engine;
+
+import android.content.Context;
+import android.util.Log;
+
+import com.whispertflite.asr.Whisper;
+import com.whispertflite.utils.CancellationToken;
+import com.whispertflite.utils.Utf8Builder;
+import com.whispertflite.utils.WhisperUtil;
+
+import org.tensorflow.lite.DataType;
+import org.tensorflow.lite.Interpreter;
+import org.tensorflow.lite.Tensor;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Engine for Whisper models exported as separate encoder and decoder. The encoder runs
+ * once per window; the token loop runs here, one decoder call per token with a
+ * self-attention KV cache. Decoding is greedy under WhisperUtil.suppressTokens() and stops
+ * at EOT, at a repetition loop (which is cut off), after MAX_DECODE_TOKENS or on cancel.
+ * Text tokens go to the TokenListener as they are picked.
+ *
+ * The model path passed to initialize() is the encoder, the decoder path is given here.
+ * Both use their serving_default signature, or their first one. Tensors are matched by name:
+ * - the encoder takes the mel spectrogram. Each output feeds the decoder input of the same
+ *   name (audio features or precomputed cross-attention keys and values); a single output
+ *   also feeds an input named xa, audio_features or encoder_hidden_states
+ * - the decoder takes one token (x, input_ids, or a name containing "token") and, if it has
+ *   one, its position (offset, or a name containing "pos" or "index"), int32 or int64
+ * - the other decoder inputs are self-attention caches. Each is paired with the decoder
+ *   output named like the input or ending in "_" + its name (k_cache_1 and new_k_cache_1,
+ *   not new_k_cache_10). If no output is named after any cache, they are paired with the
+ *   remaining outputs in order. Each output must have the size of its cache, since it is
+ *   fed back as the cache next step
+ * - the logits are the output whose name contains "logit", otherwise the first output
+ */
+public class WhisperEngineSplit extends WhisperEngineJava {
+    private static final String TAG = "WhisperEngineSplit";
+    public static final int MAX_DECODE_TOKENS = 224; // half the text context, as in OpenAI Whisper
+    private static final int WARM_UP_TOKENS = 4;
+    private static final List<String> AUDIO_FEATURE_NAMES = Arrays.asList("xa", "audio_features", "encoder_hidden_states");
+
+    private final String mDecoderPath;
+    private ByteBuffer mEncoderModel = null;
+    private ByteBuffer mDecoderModel = null;
+    private Session mSession = null;
+    private final Utf8Builder mStreamText = new Utf8Builder(); // text streamed to the listener so far
+
+    public WhisperEngineSplit(Context context, String decoderPath) {
+        super(context);
+        mDecoderPath = decoderPath;
+    }
+
+    @Override
+    protected void openModel(String modelPath) throws IOException {
+        mEncoderModel = mapModel(modelPath);
+        mDecoderModel = mapModel(mDecoderPath);
+        Log.d(TAG, "Decoder is loaded..." + mDecoderPath);
+    }
+
+    @Override
+    protected void createInterpreters(int numThreads) throws IOException {
+        closeSession();
+        mSession = Session.open(this, numThreads);
+    }
+
+    @Override
+    protected void closeModel() {
+        closeSession();
+        mEncoderModel = null;
+        mDecoderModel = null;
+    }
+
+    private void closeSession() {
+        if (mSession != null) {
+            mSession.encoder.setCancelled(true);
+            mSession.decoder.setCancelled(true);
+            mSession.close();
+            mSession = null;
+        }
+    }
+
+    // The encoder and the prompt plus a few tokens; the rest of the decoder steps cost the same
+    @Override
+    protected void warmUpModel(ByteBuffer input) {
+        long start = System.nanoTime();
+        mSession.decode(input, Whisper.ACTION_TRANSCRIBE, WARM_UP_LANG_TOKEN, CancellationToken.NONE, WARM_UP_TOKENS, null);
+        Log.d(TAG, "Warmed up encoder and decoder in " + (System.nanoTime() - start) / 1_000_000 + " ms");
+    }
+
+    // The encoder and the same few decoder steps as the warm-up, whatever the input decodes to
+    @Override
+    protected long timeInference(int numThreads, ByteBuffer input, long limitNanos) throws IOException {
+        Session session = Session.open(this, numThreads);
+        try {
+            return ThreadTuner.timeWithin(limitNanos, cancel -> session.decode(input,
+                    Whisper.ACTION_TRANSCRIBE, WARM_UP_LANG_TOKEN, cancel, WARM_UP_TOKENS, null));
+        } finally {
+            session.close();
+        }
+    }
+
+    @Override
+    protected IntBuffer generateTokens(ByteBuffer input, Whisper.Action mAction, int mLangToken, CancellationToken cancel) {
+        return mSession.decode(input, mAction, mLangToken, cancel, MAX_DECODE_TOKENS, getTokenListener());
+    }
+
+    // Both interpreters with their input and output buffers, filled in once and reused by every window
+    private static final class Session {
+        final WhisperEngineSplit engine;
+        final Interpreter encoder;
+        final Interpreter decoder;
+        final String encoderKey;
+        final String decoderKey;
+        final String melName;
+        final Map<String, Object> encoderInputs = new HashMap<>();
+        final Map<String, Object> encoderOutputs = new HashMap<>();
+        final Map<String, Object> decoderInputs = new HashMap<>();
+        final Map<String, Object> decoderOutputs = new HashMap<>();
+        final List<ByteBuffer> encoded = new ArrayList<>();
+
+        final ByteBuffer token;
+        final DataType tokenType;
+        final ByteBuffer position; // null if the decoder has no position input
+        final DataType positionType;
+
+        // Self-attention caches: the decoder reads caches[i] and writes updatedCaches[i], then they swap
+        final String[] cacheInputs;
+        final String[] cacheOutputs;
+        final ByteBuffer[] caches;
+        final ByteBuffer[] updatedCaches;
+
+        final ByteBuffer logitsBuffer;
+        final FloatBuffer logitsFloats;
+        final int logitsOffset; // start of the last row
+        final float[] logits;
+
+        final int[] generated = new int[MAX_DECODE_TOKENS];
+        final IntBuffer output = IntBuffer.allocate(MAX_DECODE_TOKENS + 4); // prompt, generated tokens, EOT
+
+        static Session open(WhisperEngineSplit engine, int numThreads) throws IOException {
+            Interpreter encoder = createInterpreter(engine.mEncoderModel, numThreads);
+            Interpreter decoder = null;
+            try {
+                decoder = createInterpreter(engine.mDecoderModel, numThreads);
+                return new Session(engine, encoder, decoder);
+            } catch (IOException | RuntimeException e) {
+                encoder.close();
+                if (decoder != null) {
+                    decoder.close();
+                }
+                throw e;
+            }
+        }
+
+        private Session(WhisperEngineSplit engine, Interpreter encoder, Interpreter decoder) throws IOException {
+            this.engine = engine;
+            this.encoder = encoder;
+            this.decoder = decoder;
+            encoderKey = signatureKey(encoder);
+            decoderKey = signatureKey(decoder);
+
+            String[] encoderInputNames = encoder.getSignatureInputs(encoderKey);
+            if (encoderInputNames.length != 1) {
+                throw new IOException("Encoder takes " + Arrays.toString(encoderInputNames) + ", expected only the mel spectrogram");
+            }
+            melName = encoderInputNames[0];
+            Map<String, ByteBuffer> features = new LinkedHashMap<>();
+            for (String name : encoder.getSignatureOutputs(encoderKey)) {
+                ByteBuffer buffer = allocate(encoder.getOutputTensorFromSignature(name, encoderKey));
+                features.put(name, buffer);
+                encoded.add(buffer);
+                encoderOutputs.put(name, buffer);
+            }
+
+            // Decoder inputs
+            String[] inputNames = decoder.getSignatureInputs(decoderKey);
+            ByteBuffer tokenBuffer = null;
+            DataType tokenDataType = null;
+            ByteBuffer positionBuffer = null;
+            DataType positionDataType = null;
+            List<String> cacheNames = new ArrayList<>();
+            for (String name : inputNames) {
+                Tensor tensor = decoder.getInputTensorFromSignature(name, decoderKey);
+                String lower = name.toLowerCase(Locale.ROOT);
+                ByteBuffer feature = features.get(name);
+                if (feature == null && features.size() == 1 && AUDIO_FEATURE_NAMES.contains(lower)) {
+                    feature = encoded.get(0);
+                }
+                if (feature != null) {
+                    if (tensor.numBytes() != feature.capacity()) {
+                        throw new IOException("Decoder input " + name + " has " + tensor.numBytes()
+                                + " bytes, the encoder output " + feature.capacity());
+                    }
+                    decoderInputs.put(name, feature);
+                } else if (tokenBuffer == null && (lower.equals("x") || lower.equals("input_ids") || lower.contains("token"))) {
+                    tokenBuffer = allocate(tensor);
+                    tokenDataType = tensor.dataType();
+                    decoderInputs.put(name, tokenBuffer);
+                } else if (positionBuffer == null && (lower.equals("offset") || lower.contains("pos") || lower.contains("index"))) {
+                    positionBuffer = allocate(tensor);
+                    positionDataType = tensor.dataType();
+                    decoderInputs.put(name, positionBuffer);
+                } else {
+                    cacheNames.add(name);
+                }
+            }
+            if (tokenBuffer == null) {
+                throw new IOException("Decoder has no token input: " + Arrays.toString(inputNames));
+            }
+            token = tokenBuffer;
+            tokenType = tokenDataType;
+            position = positionBuffer;
+            positionType = positionDataType;
+
+            // Decoder outputs
+            String[] outputNames = decoder.getSignatureOutputs(decoderKey);
+            String logitsName = outputNames[0];
+            for (String name : outputNames) {
+                if (name.toLowerCase(Locale.ROOT).contains("logit")) {
+                    logitsName = name;
+                    break;
+                }
+            }
+            List<String> remaining = new ArrayList<>(Arrays.asList(outputNames));
+            remaining.remove(logitsName);
+
+            int caches = cacheNames.size();
+            cacheInputs = cacheNames.toArray(new String[0]);
+            cacheOutputs = pairCaches(cacheInputs, remaining);
+            if (!remaining.isEmpty()) {
+                Log.w(TAG, "Ignoring decoder outputs " + remaining);
+            }
+
+            this.caches = new ByteBuffer[caches];
+            updatedCaches = new ByteBuffer[caches];
+            for (int i = 0; i < caches; i++) {
+                Tensor in = decoder.getInputTensorFromSignature(cacheInputs[i], decoderKey);
+                Tensor out = decoder.getOutputTensorFromSignature(cacheOutputs[i], decoderKey);
+                if (in.numBytes() != out.numBytes()) {
+                    throw new IOException("Cache " + cacheInputs[i] + " has " + in.numBytes() + " bytes, its update "
+                            + cacheOutputs[i] + " " + out.numBytes());
+                }
+                this.caches[i] = allocate(in);
+                updatedCaches[i] = allocate(out);
+            }
+
+            Tensor logitsTensor = decoder.getOutputTensorFromSignature(logitsName, decoderKey);
+            if (logitsTensor.dataType() != DataType.FLOAT32) {
+                throw new IOException("Decoder logits " + logitsName + " are " + logitsTensor.dataType() + ", expected FLOAT32");
+            }
+            int[] shape = logitsTensor.shape();
+            int vocabSize = shape[shape.length - 1];
+            logitsBuffer = allocate(logitsTensor);
+            logitsFloats = logitsBuffer.asFloatBuffer();
+            logitsOffset = logitsTensor.numElements() - vocabSize;
+            logits = new float[vocabSize];
+            decoderOutputs.put(logitsName, logitsBuffer);
+
+            Log.d(TAG, "Encoder " + encoderKey + " " + Arrays.toString(encoderInputNames) + " -> " + features.keySet()
+                    + ", decoder " + decoderKey + " " + Arrays.toString(inputNames) + " -> " + Arrays.toString(outputNames)
+                    + ", " + caches + " caches, vocab " + vocabSize);
+        }
+
+        /**
+         * Encodes the mel in input and decodes up to maxTokens tokens after the prompt. Returns
+         * the prompt, the generated tokens and EOT, or null if cancelled or failed. The buffer
+         * is reused by the next call.
+         */
+        IntBuffer decode(ByteBuffer input, Whisper.Action action, int langToken, CancellationToken cancel,
+                         int maxTokens, TokenListener listener) {
+            if (cancel.isCancelled()) {
+                return null;
+            }
+            cancel.setOnCancel(() -> {
+                encoder.setCancelled(true);
+                decoder.setCancelled(true);
+            });
+            try {
+                return run(input, action, langToken, cancel, maxTokens, listener);
+            } catch (Exception e) {
+                if (!cancel.isCancelled()) {
+                    Log.e(TAG, "Decoding failed", e);
+                }
+                return null;
+            } finally {
+                cancel.setOnCancel(null);
+                if (cancel.isCancelled()) {
+                    encoder.setCancelled(false);
+                    decoder.setCancelled(false);
+                }
+            }
+        }
+
+        private IntBuffer run(ByteBuffer input, Whisper.Action action, int langToken, CancellationToken cancel,
+                              int maxTokens, TokenListener listener) {
+            WhisperUtil util = engine.getWhisperUtil();
+
+            input.rewind();
+            encoderInputs.put(melName, input);
+            for (ByteBuffer buffer : encoded) {
+                buffer.rewind();
+            }
+            encoder.runSignature(encoderInputs, encoderOutputs, encoderKey);
+            for (ByteBuffer buffer : encoded) {
+                buffer.rewind();
+            }
+            for (ByteBuffer cache : caches) {
+                clear(cache);
+            }
+
+            // Prompt: SOT, then language and task for multilingual models
+            output.clear();
+            int step = 0;
+            output.put(util.getTokenSOT());
+            if (!step(util.getTokenSOT(), step++, cancel)) {
+                return null;
+            }
+            if (engine.isMultilingual()) {
+                int language = langToken != -1 ? langToken : detectLanguage(util);
+                output.put(language);
+                if (!step(language, step++, cancel)) {
+                    return null;
+                }
+                int task = action == Whisper.Action.TRANSLATE ? util.getTokenTranslate() : util.getTokenTranscribe();
+                output.put(task);
+                if (!step(task, step++, cancel)) {
+                    return null;
+                }
+            }
+
+            // Greedy search; logits holds the prediction for the next token
+            engine.mStreamText.reset();
+            int streamed = 0; // bytes of mStreamText already passed to the listener
+            int count = 0;
+            while (count < maxTokens) {
+                util.suppressTokens(logits, generated, count, true);
+                int next = WhisperUtil.argmax(logits);
+                if (next == util.getTokenEOT()) {
+                    break;
+                }
+                generated[count++] = next;
+                int repeated = WhisperUtil.repeatedTailLength(generated, count);
+                if (repeated > 0) {
+                    Log.d(TAG, "Decoder repeats itself, dropping " + repeated + " tokens");
+                    count -= repeated;
+                    break;
+                }
+                if (listener != null && util.getTokenType(next) == WhisperUtil.TOKEN_TEXT) {
+                    util.appendWord(next, engine.mStreamText);
+                    int complete = engine.mStreamText.completeLength();
+                    if (complete > streamed) {
+                        listener.onToken(next, engine.mStreamText.toString(streamed, complete));
+                        streamed = complete;
+                    }
+                }
+                if (count < maxTokens && !step(next, step++, cancel)) {
+                    return null;
+                }
+            }
+            output.put(generated, 0, count);
+            output.put(util.getTokenEOT());
+            output.flip();
+            return output;
+        }
+
+        // Runs the decoder on token at position step; the prediction for the next token ends up in logits
+        private boolean step(int tokenId, int step, CancellationToken cancel) {
+            if (cancel.isCancelled()) {
+                return false;
+            }
+            putScalar(token, tokenType, tokenId);
+            if (position != null) {
+                putScalar(position, positionType, step);
+            }
+            for (int i = 0; i < caches.length; i++) {
+                caches[i].rewind();
+                updatedCaches[i].rewind();
+                decoderInputs.put(cacheInputs[i], caches[i]);
+                decoderOutputs.put(cacheOutputs[i], updatedCaches[i]);
+            }
+            logitsBuffer.rewind();
+            decoder.runSignature(decoderInputs, decoderOutputs, decoderKey);
+            if (cancel.isCancelled()) {
+                return false;
+            }
+            for (int i = 0; i < caches.length; i++) {
+                ByteBuffer cache = caches[i];
+                caches[i] = updatedCaches[i];
+                updatedCaches[i] = cache;
+            }
+            logitsFloats.position(logitsOffset);
+            logitsFloats.get(logits);
+            return true;
+        }
+
+        // Most likely language token after SOT
+        private int detectLanguage(WhisperUtil util) {
+            int best = -1;
+            for (int i = util.getTokenSOT() + 1; i < Math.min(util.getTokenTranslate(), logits.length); i++) {
+                if (util.getTokenType(i) == WhisperUtil.TOKEN_LANGUAGE && (best == -1 || logits[i] > logits[best])) {
+                    best = i;
+                }
+            }
+            return best != -1 ? best : WARM_UP_LANG_TOKEN;
+        }
+
+        void close() {
+            encoder.close();
+            decoder.close();
+        }
+
+        private static String signatureKey(Interpreter interpreter) {
+            String[] keys = interpreter.getSignatureKeys();
+            return Arrays.asList(keys).contains("serving_default") || keys.length == 0 ? "serving_default" : keys[0];
+        }
+
+        private static ByteBuffer allocate(Tensor tensor) {
+            return ByteBuffer.allocateDirect(tensor.numBytes()).order(ByteOrder.nativeOrder());
+        }
+
+        private static void putScalar(ByteBuffer buffer, DataType type, int value) {
+            if (type == DataType.INT64) {
+                buffer.putLong(0, value);
+            } else {
+                buffer.putInt(0, value);
+            }
+            buffer.rewind();
+        }
+
+        private static void clear(ByteBuffer buffer) {
+            buffer.clear();
+            while (buffer.remaining() >= Long.BYTES) {
+                buffer.putLong(0L);
+            }
+            while (buffer.hasRemaining()) {
+                buffer.put((byte) 0);
+            }
+            buffer.clear();
+        }
+    }
+
+    /**
+     * Decoder output for each cache input, taken out of outputs: the one named after the
+     * cache, or if no output is named after any cache, the outputs in order. A cache that
+     * matches several outputs, or none when others do, is an error rather than a guess.
+     */
+    static String[] pairCaches(String[] cacheInputs, List<String> outputs) throws IOException {
+        String[] paired = new String[cacheInputs.length];
+        boolean byName = false;
+        for (int i = 0; i < cacheInputs.length; i++) {
+            for (String name : outputs) {
+                if (isUpdateOf(name, cacheInputs[i])) {
+                    if (paired[i] != null) {
+                        throw new IOException("Cache " + cacheInputs[i] + " matches decoder outputs "
+                                + paired[i] + " and " + name);
+                    }
+                    paired[i] = name;
+                    byName = true;
+                }
+            }
+        }
+        if (!byName) {
+            if (outputs.size() < cacheInputs.length) {
+                throw new IOException("Decoder inputs " + Arrays.toString(cacheInputs) + " are neither token, position,"
+                        + " encoder output nor caches with a matching output: " + outputs);
+            }
+            for (int i = 0; i < cacheInputs.length; i++) {
+                paired[i] = outputs.remove(0);
+            }
+            return paired;
+        }
+        for (int i = 0; i < cacheInputs.length; i++) {
+            if (paired[i] == null) {
+                throw new IOException("Decoder input " + cacheInputs[i] + " is neither token, position,"
+                        + " encoder output nor a cache with a matching output: " + outputs);
+            }
+            if (!outputs.remove(paired[i])) {
+                throw new IOException("Decoder output " + paired[i] + " matches more than one cache");
+            }
+        }
+        return paired;
+    }
+
+    private static boolean isUpdateOf(String output, String cache) {
+        return output.equals(cache) || output.endsWith("_" + cache);
+    }
+}
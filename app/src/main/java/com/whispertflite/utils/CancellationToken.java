@@ -0,0 +1,52 @@
+package com.whispertflite.utils;
+
+/**
+ * Cancels one transcription. The caller creates a token per run and hands it to the
+ * engine; cancel() can then be called from any thread.
+ *
+ * Long-running stages poll isCancelled() between chunks of work. A stage that blocks in
+ * native code, like the interpreter, registers a hook with {@link #setOnCancel} for the
+ * duration of the call. The hook runs under the token's lock, so once setOnCancel(null)
+ * returns it is not running and will not run again.
+ */
+public final class CancellationToken {
+    // For callers that never cancel
+    public static final CancellationToken NONE = new CancellationToken();
+
+    private volatile boolean cancelled = false;
+    private volatile long cancelledAtNanos = 0;
+    private Runnable onCancel = null;
+
+    public void cancel() {
+        if (this == NONE) {
+            return;
+        }
+        synchronized (this) {
+            if (cancelled) {
+                return;
+            }
+            cancelledAtNanos = System.nanoTime();
+            cancelled = true;
+            if (onCancel != null) {
+                onCancel.run();
+            }
+        }
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    // System.nanoTime() of the cancel() call, for measuring how long stopping took
+    public long getCancelledAtNanos() {
+        return cancelledAtNanos;
+    }
+
+    // Runs hook on cancel(), right away if already cancelled; null removes it
+    public synchronized void setOnCancel(Runnable hook) {
+        onCancel = hook;
+        if (cancelled && hook != null) {
+            hook.run();
+        }
+    }
+}
@@ -0,0 +1,45 @@
+package com.whispertflite.utils;
+
+/**
+ * Float log10 approximation for the mel stage.
+ *
+ * x = m * 2^e is split via its IEEE-754 bits with m in [sqrt(1/2), sqrt(2)), so that
+ * ln(m) = 2 * atanh(f) with f = (m - 1) / (m + 1) and |f| <= 0.1716. The odd series for
+ * atanh up to f^7 has a truncation error near 1e-8; what remains is float rounding,
+ * about one ulp of the result, which is also the precision the mel value is stored at.
+ * FastLogTest enforces MAX_ABS_ERROR.
+ */
+public final class FastLog {
+    // Bound on |log10(x) - FastLog.log10(x)| for positive, normal x up to 1e30
+    public static final float MAX_ABS_ERROR = 5e-6f;
+
+    private static final float LOG10_2 = 0.30102999566f;
+    private static final float TWO_LOG10_E = 0.86858896381f;
+    private static final int MANTISSA_MASK = 0x007fffff;
+    // Mantissa bits of sqrt(2); mantissas at or above it are halved
+    private static final int SQRT2_MANTISSA = 0x003504f3;
+
+    private FastLog() {
+    }
+
+    // log10 of a positive, normal float. Zero, negative, subnormal and non-finite inputs are not handled.
+    public static float log10(float x) {
+        int bits = Float.floatToRawIntBits(x);
+        int mantissa = bits & MANTISSA_MASK;
+        int exponent = (bits >>> 23) - 127;
+
+        // Move m from [1, 2) to [sqrt(1/2), sqrt(2))
+        if (mantissa >= SQRT2_MANTISSA) {
+            exponent++;
+            mantissa |= 126 << 23;
+        } else {
+            mantissa |= 127 << 23;
+        }
+        float m = Float.intBitsToFloat(mantissa);
+
+        float f = (m - 1.0f) / (m + 1.0f);
+        float f2 = f * f;
+        float series = f * (1.0f + f2 * (1.0f / 3.0f + f2 * (1.0f / 5.0f + f2 * (1.0f / 7.0f))));
+        return exponent * LOG10_2 + TWO_LOG10_E * series;
+    }
+}
@@ -0,0 +1,284 @@
+package com.whispertflite.utils;
+
+/**
+ * Iterative mixed-radix FFT for real input of even length N.
+ *
+ * The N real samples are packed as N/2 complex values, transformed with a Stockham
+ * autosort FFT (radix 2, 3, 4 and 5 stages) and then split into the N/2 + 1
+ * non-redundant bins of the real spectrum. All twiddle factors are computed once in
+ * the constructor; {@link #forward} does not allocate, so one instance can be shared
+ * by several threads as long as each thread passes its own scratch array.
+ */
+public class RealFft {
+    private final int n;        // real input length
+    private final int m;        // complex transform length (n / 2)
+    private final int[] radix;  // radix of every stage, in execution order
+    private final float[][] stageTwiddles;
+    private final float[] splitTwiddles;
+
+    public RealFft(int n) {
+        if (n < 2 || n % 2 != 0) {
+            throw new IllegalArgumentException("FFT size must be even: " + n);
+        }
+        this.n = n;
+        this.m = n / 2;
+        this.radix = factorize(m);
+
+        // Twiddles for stage s: exp(-2*pi*i * r * j / (ns * R)) for j < ns, 1 <= r < R
+        stageTwiddles = new float[radix.length][];
+        int ns = 1;
+        for (int s = 0; s < radix.length; s++) {
+            int r = radix[s];
+            float[] tw = new float[2 * ns * (r - 1)];
+            for (int j = 0; j < ns; j++) {
+                for (int q = 1; q < r; q++) {
+                    double angle = -2.0 * Math.PI * q * j / (ns * r);
+                    int idx = 2 * (j * (r - 1) + q - 1);
+                    tw[idx] = (float) Math.cos(angle);
+                    tw[idx + 1] = (float) Math.sin(angle);
+                }
+            }
+            stageTwiddles[s] = tw;
+            ns *= r;
+        }
+
+        // Twiddles for the real split: exp(-2*pi*i * k / n) for k <= n / 2
+        splitTwiddles = new float[2 * (m + 1)];
+        for (int k = 0; k <= m; k++) {
+            double angle = -2.0 * Math.PI * k / n;
+            splitTwiddles[2 * k] = (float) Math.cos(angle);
+            splitTwiddles[2 * k + 1] = (float) Math.sin(angle);
+        }
+    }
+
+    public int size() {
+        return n;
+    }
+
+    // Number of output bins, n / 2 + 1
+    public int binCount() {
+        return m + 1;
+    }
+
+    // Length of the scratch array forward() needs
+    public int scratchSize() {
+        return 4 * m;
+    }
+
+    // Length of the interleaved (re, im) output array forward() fills
+    public int outputSize() {
+        return 2 * (m + 1);
+    }
+
+    /**
+     * Computes bins 0..n/2 of the DFT of {@code input[0..n)} into {@code output} as
+     * interleaved (re, im) pairs. The input is left untouched.
+     */
+    public void forward(float[] input, float[] output, float[] scratch) {
+        // Stockham stages ping-pong between the two halves of scratch; the first stage
+        // reads the real input directly, reinterpreted as m complex values.
+        float[] src = input;
+        int srcOff = 0;
+        int dstOff = 0;
+        int ns = 1;
+        for (int s = 0; s < radix.length; s++) {
+            int r = radix[s];
+            switch (r) {
+                case 2: pass2(src, srcOff, scratch, dstOff, ns, stageTwiddles[s]); break;
+                case 3: pass3(src, srcOff, scratch, dstOff, ns, stageTwiddles[s]); break;
+                case 4: pass4(src, srcOff, scratch, dstOff, ns, stageTwiddles[s]); break;
+                default: pass5(src, srcOff, scratch, dstOff, ns, stageTwiddles[s]); break;
+            }
+            src = scratch;
+            srcOff = dstOff;
+            dstOff = dstOff == 0 ? 2 * m : 0;
+            ns *= r;
+        }
+
+        // Split the half-size complex spectrum Z into the real spectrum X:
+        // X[k] = (Z[k] + conj(Z[m-k])) / 2 + W^k * (Z[k] - conj(Z[m-k])) / 2i
+        for (int k = 0; k <= m; k++) {
+            int ik = srcOff + 2 * (k == m ? 0 : k);
+            int imk = srcOff + 2 * (k == 0 ? 0 : m - k);
+            float a = src[ik];
+            float b = src[ik + 1];
+            float c = src[imk];
+            float d = src[imk + 1];
+            float er = 0.5f * (a + c);
+            float ei = 0.5f * (b - d);
+            float or = 0.5f * (b + d);
+            float oi = -0.5f * (a - c);
+            float wr = splitTwiddles[2 * k];
+            float wi = splitTwiddles[2 * k + 1];
+            output[2 * k] = er + wr * or - wi * oi;
+            output[2 * k + 1] = ei + wr * oi + wi * or;
+        }
+    }
+
+    private static int[] factorize(int len) {
+        int[] tmp = new int[32];
+        int count = 0;
+        int rest = len;
+        while (rest % 4 == 0) { tmp[count++] = 4; rest /= 4; }
+        while (rest % 2 == 0) { tmp[count++] = 2; rest /= 2; }
+        while (rest % 3 == 0) { tmp[count++] = 3; rest /= 3; }
+        while (rest % 5 == 0) { tmp[count++] = 5; rest /= 5; }
+        if (rest != 1) {
+            throw new IllegalArgumentException("FFT size must factor into 2, 3 and 5: " + (2 * len));
+        }
+        int[] result = new int[count];
+        System.arraycopy(tmp, 0, result, 0, count);
+        return result;
+    }
+
+    // Each pass reads m / R groups of R inputs strided by m / R, applies the stage
+    // twiddles, runs an R-point DFT and writes the results strided by ns.
+
+    private void pass2(float[] in, int inOff, float[] out, int outOff, int ns, float[] tw) {
+        int stride = m / 2;
+        for (int blk = 0, j = 0; blk < m / (2 * ns); blk++) {
+            for (int jm = 0; jm < ns; jm++, j++) {
+                int i0 = inOff + 2 * j;
+                int i1 = i0 + 2 * stride;
+                float w1r = tw[2 * jm], w1i = tw[2 * jm + 1];
+
+                float ar = in[i0], ai = in[i0 + 1];
+                float br = in[i1] * w1r - in[i1 + 1] * w1i;
+                float bi = in[i1] * w1i + in[i1 + 1] * w1r;
+
+                int o0 = outOff + 2 * (blk * ns * 2 + jm);
+                int o1 = o0 + 2 * ns;
+                out[o0] = ar + br;
+                out[o0 + 1] = ai + bi;
+                out[o1] = ar - br;
+                out[o1 + 1] = ai - bi;
+            }
+        }
+    }
+
+    private void pass3(float[] in, int inOff, float[] out, int outOff, int ns, float[] tw) {
+        final float k = (float) (Math.sqrt(3.0) / 2.0);
+        int stride = m / 3;
+        for (int blk = 0, j = 0; blk < m / (3 * ns); blk++) {
+            for (int jm = 0; jm < ns; jm++, j++) {
+                int i0 = inOff + 2 * j;
+                int i1 = i0 + 2 * stride;
+                int i2 = i1 + 2 * stride;
+                int t = 4 * jm;
+
+                float ar = in[i0], ai = in[i0 + 1];
+                float br = in[i1] * tw[t] - in[i1 + 1] * tw[t + 1];
+                float bi = in[i1] * tw[t + 1] + in[i1 + 1] * tw[t];
+                float cr = in[i2] * tw[t + 2] - in[i2 + 1] * tw[t + 3];
+                float ci = in[i2] * tw[t + 3] + in[i2 + 1] * tw[t + 2];
+
+                float sr = br + cr, si = bi + ci;
+                float dr = br - cr, di = bi - ci;
+                float mr = ar - 0.5f * sr, mi = ai - 0.5f * si;
+
+                int o0 = outOff + 2 * (blk * ns * 3 + jm);
+                int o1 = o0 + 2 * ns;
+                int o2 = o1 + 2 * ns;
+                out[o0] = ar + sr;
+                out[o0 + 1] = ai + si;
+                out[o1] = mr + k * di;
+                out[o1 + 1] = mi - k * dr;
+                out[o2] = mr - k * di;
+                out[o2 + 1] = mi + k * dr;
+            }
+        }
+    }
+
+    private void pass4(float[] in, int inOff, float[] out, int outOff, int ns, float[] tw) {
+        int stride = m / 4;
+        for (int blk = 0, j = 0; blk < m / (4 * ns); blk++) {
+            for (int jm = 0; jm < ns; jm++, j++) {
+                int i0 = inOff + 2 * j;
+                int i1 = i0 + 2 * stride;
+                int i2 = i1 + 2 * stride;
+                int i3 = i2 + 2 * stride;
+                int t = 6 * jm;
+
+                float ar = in[i0], ai = in[i0 + 1];
+                float br = in[i1] * tw[t] - in[i1 + 1] * tw[t + 1];
+                float bi = in[i1] * tw[t + 1] + in[i1 + 1] * tw[t];
+                float cr = in[i2] * tw[t + 2] - in[i2 + 1] * tw[t + 3];
+                float ci = in[i2] * tw[t + 3] + in[i2 + 1] * tw[t + 2];
+                float dr = in[i3] * tw[t + 4] - in[i3 + 1] * tw[t + 5];
+                float di = in[i3] * tw[t + 5] + in[i3 + 1] * tw[t + 4];
+
+                float t0r = ar + cr, t0i = ai + ci;
+                float t1r = ar - cr, t1i = ai - ci;
+                float t2r = br + dr, t2i = bi + di;
+                float t3r = br - dr, t3i = bi - di;
+
+                int o0 = outOff + 2 * (blk * ns * 4 + jm);
+                int o1 = o0 + 2 * ns;
+                int o2 = o1 + 2 * ns;
+                int o3 = o2 + 2 * ns;
+                out[o0] = t0r + t2r;
+                out[o0 + 1] = t0i + t2i;
+                out[o1] = t1r + t3i;
+                out[o1 + 1] = t1i - t3r;
+                out[o2] = t0r - t2r;
+                out[o2 + 1] = t0i - t2i;
+                out[o3] = t1r - t3i;
+                out[o3 + 1] = t1i + t3r;
+            }
+        }
+    }
+
+    private void pass5(float[] in, int inOff, float[] out, int outOff, int ns, float[] tw) {
+        final float c1 = (float) Math.cos(2.0 * Math.PI / 5.0);
+        final float c2 = (float) Math.cos(4.0 * Math.PI / 5.0);
+        final float s1 = (float) Math.sin(2.0 * Math.PI / 5.0);
+        final float s2 = (float) Math.sin(4.0 * Math.PI / 5.0);
+        int stride = m / 5;
+        for (int blk = 0, j = 0; blk < m / (5 * ns); blk++) {
+            for (int jm = 0; jm < ns; jm++, j++) {
+                int i0 = inOff + 2 * j;
+                int i1 = i0 + 2 * stride;
+                int i2 = i1 + 2 * stride;
+                int i3 = i2 + 2 * stride;
+                int i4 = i3 + 2 * stride;
+                int t = 8 * jm;
+
+                float ar = in[i0], ai = in[i0 + 1];
+                float br = in[i1] * tw[t] - in[i1 + 1] * tw[t + 1];
+                float bi = in[i1] * tw[t + 1] + in[i1 + 1] * tw[t];
+                float cr = in[i2] * tw[t + 2] - in[i2 + 1] * tw[t + 3];
+                float ci = in[i2] * tw[t + 3] + in[i2 + 1] * tw[t + 2];
+                float dr = in[i3] * tw[t + 4] - in[i3 + 1] * tw[t + 5];
+                float di = in[i3] * tw[t + 5] + in[i3 + 1] * tw[t + 4];
+                float er = in[i4] * tw[t + 6] - in[i4 + 1] * tw[t + 7];
+                float ei = in[i4] * tw[t + 7] + in[i4 + 1] * tw[t + 6];
+
+                float sa_r = br + er, sa_i = bi + ei;
+                float da_r = br - er, da_i = bi - ei;
+                float sb_r = cr + dr, sb_i = ci + di;
+                float db_r = cr - dr, db_i = ci - di;
+
+                float p1r = ar + c1 * sa_r + c2 * sb_r, p1i = ai + c1 * sa_i + c2 * sb_i;
+                float q1r = s1 * da_r + s2 * db_r, q1i = s1 * da_i + s2 * db_i;
+                float p2r = ar + c2 * sa_r + c1 * sb_r, p2i = ai + c2 * sa_i + c1 * sb_i;
+                float q2r = s2 * da_r - s1 * db_r, q2i = s2 * da_i - s1 * db_i;
+
+                int o0 = outOff + 2 * (blk * ns * 5 + jm);
+                int o1 = o0 + 2 * ns;
+                int o2 = o1 + 2 * ns;
+                int o3 = o2 + 2 * ns;
+                int o4 = o3 + 2 * ns;
+                out[o0] = ar + sa_r + sb_r;
+                out[o0 + 1] = ai + sa_i + sb_i;
+                out[o1] = p1r + q1i;
+                out[o1 + 1] = p1i - q1r;
+                out[o4] = p1r - q1i;
+                out[o4 + 1] = p1i + q1r;
+                out[o2] = p2r + q2i;
+                out[o2 + 1] = p2i - q2r;
+                out[o3] = p2r - q2i;
+                out[o3 + 1] = p2i + q2r;
+            }
+        }
+    }
+}
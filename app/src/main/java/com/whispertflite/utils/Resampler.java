@@ -0,0 +1,203 @@
+package com.whispertflite.utils;
+
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * Streaming sample rate converter with channel downmix, e.g. 48 kHz stereo to Whisper's
+ * 16 kHz mono.
+ *
+ * The rate ratio is reduced to L/M (1/3 for 48 kHz, 160/441 for 44.1 kHz). A Kaiser
+ * windowed sinc low-pass at the upsampled rate is computed once in the constructor and
+ * split into L polyphase filters of tapsPerPhase taps. Every output sample is then one
+ * dot product of one phase with the most recent input samples, so nothing is computed
+ * for the L - 1 zeros of the upsampled signal or for samples the decimation drops.
+ *
+ * Input is accepted in chunks of any size. Interleaved channels are averaged into a
+ * history of the last tapsPerPhase mono samples, so a chunk can be processed as it is
+ * read and {@link #process} does not allocate. Output lags input by about
+ * tapsPerPhase / 2 input samples; {@link #flush} returns what is still held back.
+ */
+public final class Resampler {
+    public static final int DEFAULT_TAPS_PER_INPUT_RATIO = 32;
+
+    private static final double KAISER_BETA = 8.0; // ~80 dB stopband
+    private static final double CUTOFF = 0.92; // fraction of the output Nyquist frequency
+
+    private final int channels;
+    private final int up;   // L
+    private final int down; // M
+    private final int taps; // per phase
+    private final float[] filters; // phase p at [p * taps, (p + 1) * taps), tap j weights x[n - j]
+    private final float[] history; // last taps samples, duplicated so a window is contiguous
+    private final boolean littleEndian = ByteOrder.nativeOrder() == ByteOrder.LITTLE_ENDIAN;
+    private int historyPos = 0;
+    private int phase = 0; // position of the next output in the upsampled signal, relative to the newest input
+
+    public Resampler(int inputRate, int outputRate, int channels) {
+        this(inputRate, outputRate, channels,
+                DEFAULT_TAPS_PER_INPUT_RATIO * Math.max(1, (inputRate + outputRate - 1) / outputRate));
+    }
+
+    public Resampler(int inputRate, int outputRate, int channels, int tapsPerPhase) {
+        if (inputRate <= 0 || outputRate <= 0 || channels <= 0 || tapsPerPhase <= 0) {
+            throw new IllegalArgumentException("Invalid conversion " + inputRate + " Hz x" + channels
+                    + " -> " + outputRate + " Hz, " + tapsPerPhase + " taps");
+        }
+        int gcd = gcd(inputRate, outputRate);
+        this.channels = channels;
+        this.up = outputRate / gcd;
+        this.down = inputRate / gcd;
+        this.taps = up == down ? 1 : tapsPerPhase;
+        this.filters = up == down ? new float[]{1.0f} : design(up, down, taps);
+        this.history = new float[2 * taps];
+    }
+
+    // Prototype low-pass of length L * taps, DC gain L so every phase passes DC at unity
+    private static float[] design(int up, int down, int taps) {
+        int length = up * taps;
+        double cutoff = CUTOFF * 0.5 / Math.max(up, down); // cycles per upsampled sample
+        double center = (length - 1) / 2.0;
+        double[] prototype = new double[length];
+        double sum = 0.0;
+        for (int i = 0; i < length; i++) {
+            double t = i - center;
+            double sinc = t == 0.0 ? 1.0 : Math.sin(2.0 * Math.PI * cutoff * t) / (2.0 * Math.PI * cutoff * t);
+            double r = 2.0 * t / (length - 1);
+            double window = besselI0(KAISER_BETA * Math.sqrt(Math.max(0.0, 1.0 - r * r))) / besselI0(KAISER_BETA);
+            prototype[i] = sinc * window;
+            sum += prototype[i];
+        }
+
+        float[] filters = new float[length];
+        for (int p = 0; p < up; p++) {
+            for (int j = 0; j < taps; j++) {
+                filters[p * taps + j] = (float) (prototype[p + j * up] * up / sum);
+            }
+        }
+        return filters;
+    }
+
+    private static double besselI0(double x) {
+        double term = 1.0;
+        double sum = 1.0;
+        for (int k = 1; term > 1e-12 * sum; k++) {
+            double half = x / (2.0 * k);
+            term *= half * half;
+            sum += term;
+        }
+        return sum;
+    }
+
+    private static int gcd(int a, int b) {
+        while (b != 0) {
+            int t = a % b;
+            a = b;
+            b = t;
+        }
+        return a;
+    }
+
+    // Upper bound on the output samples of one process() call with inputFrames frames
+    public int maxOutput(int inputFrames) {
+        return (int) (((long) inputFrames * up + down - 1) / down) + 1;
+    }
+
+    // Largest number of input frames whose output fits in outputSamples samples
+    public int maxInput(int outputSamples) {
+        return (int) Math.max(0, ((long) outputSamples - 1) * down / up);
+    }
+
+    // Group delay of the filter in output samples, rounded
+    public int latency() {
+        return (int) Math.round(delay());
+    }
+
+    double delay() {
+        return up == down ? 0.0 : (up * (double) taps - 1) / 2.0 / down;
+    }
+
+    public int getChannels() {
+        return channels;
+    }
+
+    /**
+     * Converts frames interleaved frames from in at inOffset and writes the output to out
+     * at outOffset, which needs room for maxOutput(frames) samples. Returns the number of
+     * samples written.
+     */
+    public int process(float[] in, int inOffset, int frames, float[] out, int outOffset) {
+        int written = 0;
+        for (int f = 0; f < frames; f++) {
+            int base = inOffset + f * channels;
+            float sample = in[base];
+            for (int c = 1; c < channels; c++) {
+                sample += in[base + c];
+            }
+            written += push(channels == 1 ? sample : sample / channels, out, outOffset + written);
+        }
+        return written;
+    }
+
+    /**
+     * Same as process() for interleaved 16-bit PCM in native byte order; length must be a
+     * whole number of frames. Output samples are in [-1, 1).
+     */
+    public int processPcm16(byte[] pcm, int offset, int length, float[] out, int outOffset) {
+        int frameBytes = 2 * channels;
+        if (length % frameBytes != 0) {
+            throw new IllegalArgumentException(length + " bytes is not a whole number of " + frameBytes + " byte frames");
+        }
+        int written = 0;
+        for (int i = offset; i < offset + length; i += frameBytes) {
+            int sum = 0;
+            for (int c = 0; c < frameBytes; c += 2) {
+                sum += littleEndian
+                        ? (short) ((pcm[i + c] & 0xff) | (pcm[i + c + 1] << 8))
+                        : (short) ((pcm[i + c + 1] & 0xff) | (pcm[i + c] << 8));
+            }
+            written += push((float) (sum / (32768.0 * channels)), out, outOffset + written);
+        }
+        return written;
+    }
+
+    // Upper bound on the output samples of flush()
+    public int maxFlushOutput() {
+        return maxOutput(taps / 2);
+    }
+
+    // Pushes silence through the filter to return the output still held back; needs maxFlushOutput() samples
+    public int flush(float[] out, int outOffset) {
+        int written = 0;
+        for (int i = 0; i < taps / 2; i++) {
+            written += push(0.0f, out, outOffset + written);
+        }
+        return written;
+    }
+
+    public void reset() {
+        Arrays.fill(history, 0.0f);
+        historyPos = 0;
+        phase = 0;
+    }
+
+    // Adds one mono input sample and writes the outputs that fall before the next one
+    private int push(float sample, float[] out, int outOffset) {
+        historyPos = historyPos == 0 ? taps - 1 : historyPos - 1;
+        history[historyPos] = sample;
+        history[historyPos + taps] = sample;
+
+        int written = 0;
+        while (phase < up) {
+            int filter = phase * taps;
+            float acc = 0.0f;
+            for (int j = 0; j < taps; j++) {
+                acc += filters[filter + j] * history[historyPos + j];
+            }
+            out[outOffset + written++] = acc;
+            phase += down;
+        }
+        phase -= up;
+        return written;
+    }
+}
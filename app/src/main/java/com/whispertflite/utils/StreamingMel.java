@@ -0,0 +1,186 @@
+package com.whispertflite.utils;
+
+import static com.whispertflite.utils.WhisperUtil.WHISPER_CHUNK_SIZE;
+import static com.whispertflite.utils.WhisperUtil.WHISPER_HOP_LENGTH;
+import static com.whispertflite.utils.WhisperUtil.WHISPER_N_FFT;
+import static com.whispertflite.utils.WhisperUtil.WHISPER_N_MEL;
+import static com.whispertflite.utils.WhisperUtil.WHISPER_SAMPLE_RATE;
+
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
+/**
+ * Log-mel frontend that runs while audio is still being captured.
+ *
+ * The recorder hands over 16-bit PCM as it reads it, and a frame's log-mel column is
+ * computed as soon as its WHISPER_N_FFT samples have arrived. When recording stops,
+ * {@link #finish} only has to compute the last few zero-padded frames and run the
+ * global clamp and normalization.
+ *
+ * The batch path peak-normalizes the samples before the STFT. Scaling a signal by
+ * 1/peak shifts every log10 band energy by -2*log10(peak), so the stream keeps
+ * unscaled log energies and applies the shift, and the usual 1e-10 energy floor,
+ * in finish().
+ *
+ * The captured samples are kept, so a capture that is cut short after the fact (the
+ * recorder trimming trailing silence) can still be finished: only the frames that
+ * reach past the new end are recomputed.
+ */
+public class StreamingMel {
+    private static final int MAX_SAMPLES = WHISPER_SAMPLE_RATE * WHISPER_CHUNK_SIZE;
+    private static final int N_FRAMES = MAX_SAMPLES / WHISPER_HOP_LENGTH;
+
+    // Low enough that the peak shift for any non-silent 16-bit input (at most
+    // 2*log10(32768) ~= 9.03) cannot lift a floored value above log10(1e-10)
+    private static final double RAW_MIN_ENERGY = 1e-20;
+
+    private final WhisperUtil whisperUtil;
+    private final WhisperUtil.MelScratch scratch;
+    private final boolean littleEndian = ByteOrder.nativeOrder() == ByteOrder.LITTLE_ENDIAN;
+
+    // Rolling 80 x 3000 log-mel buffer, same layout as WhisperUtil.getMelSpectrogram
+    private final float[] logMel = new float[WHISPER_N_MEL * N_FRAMES];
+
+    // Captured samples, unscaled; frame i starts at samples[i * WHISPER_HOP_LENGTH]
+    private final float[] samples = new float[MAX_SAMPLES];
+    // Largest raw log value of each computed frame
+    private final float[] frameMax = new float[N_FRAMES];
+
+    private int nFrames = 0;
+    private int nSamples = 0;
+    private float peak = 0.0f;
+    private boolean active = false;
+
+    public StreamingMel(WhisperUtil whisperUtil) {
+        this.whisperUtil = whisperUtil;
+        this.scratch = whisperUtil.newMelScratch();
+    }
+
+    // Start a new capture. Audio appended before filters are loaded is ignored.
+    public synchronized void reset() {
+        nFrames = 0;
+        nSamples = 0;
+        peak = 0.0f;
+        active = whisperUtil.hasFilters();
+    }
+
+    // Append 16-bit PCM in native byte order, as read from AudioRecord
+    public synchronized void append(byte[] pcm, int offset, int length) {
+        if (!active) {
+            return;
+        }
+
+        int end = offset + length - 1;
+        for (int i = offset; i < end && nSamples < MAX_SAMPLES; i += 2) {
+            short value = littleEndian
+                    ? (short) ((pcm[i] & 0xff) | (pcm[i + 1] << 8))
+                    : (short) ((pcm[i + 1] & 0xff) | (pcm[i] << 8));
+            addSample((float) (value / 32768.0));
+        }
+    }
+
+    // Append samples already converted to float, value / 32768 for 16-bit PCM
+    public synchronized void append(float[] src, int offset, int length) {
+        if (!active) {
+            return;
+        }
+
+        int end = offset + length;
+        for (int i = offset; i < end && nSamples < MAX_SAMPLES; i++) {
+            addSample(src[i]);
+        }
+    }
+
+    public synchronized int getSampleCount() {
+        return nSamples;
+    }
+
+    /**
+     * Completes the current capture and writes the normalized 80 x 3000 log-mel
+     * spectrogram of the first {@code totalSamples} samples (capped at 30 s) into
+     * out[0..240000). Returns false, leaving out untouched, if nothing was streamed or
+     * fewer than totalSamples samples were.
+     */
+    public synchronized boolean finish(int totalSamples, FloatBuffer out) {
+        int length = Math.min(totalSamples, MAX_SAMPLES);
+        if (!active || length > nSamples) {
+            active = false;
+            return false;
+        }
+        active = false;
+
+        if (length < nSamples) {
+            // Cut short: frames reaching past the new end see zeros there instead
+            nSamples = length;
+            int completeFrames = length < WHISPER_N_FFT ? 0 : (length - WHISPER_N_FFT) / WHISPER_HOP_LENGTH + 1;
+            nFrames = Math.min(nFrames, completeFrames);
+            peak = 0.0f;
+            for (int i = 0; i < length; i++) {
+                peak = Math.max(peak, Math.abs(samples[i]));
+            }
+        }
+
+        // Trailing frames whose window runs past the end of the capture
+        int meaningfulFrames = nSamples / WHISPER_HOP_LENGTH;
+        while (nFrames < meaningfulFrames) {
+            computeFrame(nFrames++);
+        }
+        normalize(meaningfulFrames, out);
+        return true;
+    }
+
+    /**
+     * Writes the normalized log-mel spectrogram of everything appended so far into out,
+     * as finish() would if the capture ended now, and keeps the capture going. Used for
+     * interim transcripts. Returns false if nothing was streamed.
+     */
+    public synchronized boolean snapshot(FloatBuffer out) {
+        if (!active || nSamples == 0) {
+            return false;
+        }
+
+        // Trailing frames are computed with a zero-padded window and recomputed once
+        // their samples have arrived
+        int meaningfulFrames = nSamples / WHISPER_HOP_LENGTH;
+        for (int i = nFrames; i < meaningfulFrames; i++) {
+            computeFrame(i);
+        }
+        normalize(meaningfulFrames, out);
+        return true;
+    }
+
+    private void normalize(int meaningfulFrames, FloatBuffer out) {
+        float rawMax = -Float.MAX_VALUE;
+        for (int i = 0; i < meaningfulFrames; i++) {
+            rawMax = Math.max(rawMax, frameMax[i]);
+        }
+
+        // Shift and floor are monotonic, so the maximum follows from the raw maximum
+        double shift = peak > 0.0f ? -2.0 * Math.log10(peak) : 0.0;
+        double maxValue = Math.max(rawMax + shift, -10.0);
+        if (meaningfulFrames < N_FRAMES) {
+            maxValue = Math.max(maxValue, -8.0);
+        }
+
+        WhisperUtil.normalizeMel(logMel, N_FRAMES, meaningfulFrames, shift, maxValue, out);
+    }
+
+    private void addSample(float sample) {
+        if (Math.abs(sample) > peak) {
+            peak = Math.abs(sample);
+        }
+        samples[nSamples++] = sample;
+
+        // A frame is complete once its whole window has arrived
+        if (nSamples == nFrames * WHISPER_HOP_LENGTH + WHISPER_N_FFT) {
+            computeFrame(nFrames++);
+        }
+    }
+
+    // Samples at or past nSamples are treated as zero
+    private void computeFrame(int frame) {
+        int offset = frame * WHISPER_HOP_LENGTH;
+        frameMax[frame] = whisperUtil.computeMelFrame(samples, offset, nSamples - offset, scratch, RAW_MIN_ENERGY,
+                logMel, frame, N_FRAMES);
+    }
+}
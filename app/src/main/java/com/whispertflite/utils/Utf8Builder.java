@@ -0,0 +1,65 @@
+package com.whispertflite.utils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Growable byte buffer for assembling UTF-8 text from token bytes. A token can hold part
+ * of a multi-byte character, so text is only decoded once all tokens are appended.
+ * Reuse one instance per decoder; it only allocates when it has to grow.
+ */
+public final class Utf8Builder {
+    private byte[] bytes;
+    private int length = 0;
+
+    public Utf8Builder() {
+        this(1024);
+    }
+
+    public Utf8Builder(int capacity) {
+        bytes = new byte[Math.max(capacity, 16)];
+    }
+
+    public void append(byte[] src, int offset, int count) {
+        if (length + count > bytes.length) {
+            bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, length + count));
+        }
+        System.arraycopy(src, offset, bytes, length, count);
+        length += count;
+    }
+
+    public int length() {
+        return length;
+    }
+
+    public void reset() {
+        length = 0;
+    }
+
+    @Override
+    public String toString() {
+        return new String(bytes, 0, length, StandardCharsets.UTF_8);
+    }
+
+    // Length up to the end of the last complete character; the last token can end inside one
+    public int completeLength() {
+        int lead = length - 1;
+        while (lead >= 0 && length - lead < 4 && (bytes[lead] & 0xc0) == 0x80) {
+            lead--; // continuation byte
+        }
+        if (lead < 0) {
+            return length;
+        }
+        int b = bytes[lead] & 0xff;
+        int needed = b >= 0xf0 ? 4 : b >= 0xe0 ? 3 : b >= 0xc0 ? 2 : 1;
+        return length - lead >= needed ? length : lead;
+    }
+
+    // Text of bytes [start, end); both should fall on character boundaries
+    public String toString(int start, int end) {
+        if (start < 0 || end > length || start > end) {
+            throw new IndexOutOfBoundsException("Range " + start + ".." + end + " outside " + length + " bytes");
+        }
+        return new String(bytes, start, end - start, StandardCharsets.UTF_8);
+    }
+}
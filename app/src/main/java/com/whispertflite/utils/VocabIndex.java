@@ -0,0 +1,142 @@
+package com.whispertflite.utils;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32;
+
+/**
+ * Parsed vocab of a filters_vocab_*.bin file, and the sidecar file it is cached in.
+ *
+ * Parsing the vocab means walking ~51k length-prefixed words. The result, the token
+ * byte arena plus its offset table, is written next to the vocab file on first load, so
+ * later loads map the sidecar, check its header and copy both arrays in bulk.
+ *
+ * The header records the format version, the vocab file's size and modification time,
+ * whether the token ids are the multilingual ones, and a CRC32 of the payload. A sidecar
+ * that does not match in every field is ignored and rewritten.
+ *
+ * Layout, native byte order: header (see HEADER_BYTES), int[size + 1] offsets, byte[] arena.
+ */
+final class VocabIndex {
+    private static final String TAG = "VocabIndex";
+    static final String SUFFIX = ".idx";
+    static final int MAGIC = 0x57564958; // WVIX
+    static final int VERSION = 1;
+    static final int HEADER_BYTES = 40;
+
+    final byte[] arena;  // bytes of all tokens back to back
+    final int[] offsets; // token i is arena[offsets[i] .. offsets[i + 1])
+
+    VocabIndex(byte[] arena, int[] offsets) {
+        this.arena = arena;
+        this.offsets = offsets;
+    }
+
+    int size() {
+        return offsets.length - 1;
+    }
+
+    static File sidecarFor(File vocabFile) {
+        return new File(vocabFile.getPath() + SUFFIX);
+    }
+
+    /**
+     * Reads the sidecar of vocabFile, or returns null if it is missing, damaged or was
+     * written for a different vocab file or token layout.
+     */
+    static VocabIndex read(File vocabFile, boolean multilingual) {
+        File sidecar = sidecarFor(vocabFile);
+        if (!sidecar.isFile()) {
+            return null;
+        }
+        try (FileInputStream in = new FileInputStream(sidecar); FileChannel channel = in.getChannel()) {
+            long length = channel.size();
+            if (length < HEADER_BYTES) {
+                return null;
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+            buffer.order(ByteOrder.nativeOrder());
+
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION
+                    || buffer.getLong() != vocabFile.length() || buffer.getLong() != vocabFile.lastModified()
+                    || buffer.getInt() != (multilingual ? 1 : 0)) {
+                Log.d(TAG, "Stale vocab index " + sidecar);
+                return null;
+            }
+            int size = buffer.getInt();
+            int arenaLength = buffer.getInt();
+            int crc = buffer.getInt();
+            long payloadBytes = (size + 1L) * Integer.BYTES + arenaLength;
+            if (size < 0 || arenaLength < 0 || HEADER_BYTES + payloadBytes != length) {
+                Log.d(TAG, "Truncated vocab index " + sidecar);
+                return null;
+            }
+
+            CRC32 checksum = new CRC32();
+            checksum.update(buffer.duplicate());
+            if ((int) checksum.getValue() != crc) {
+                Log.d(TAG, "Vocab index checksum mismatch " + sidecar);
+                return null;
+            }
+
+            int[] offsets = new int[size + 1];
+            buffer.asIntBuffer().get(offsets);
+            buffer.position(buffer.position() + offsets.length * Integer.BYTES);
+            byte[] arena = new byte[arenaLength];
+            buffer.get(arena);
+            return new VocabIndex(arena, offsets);
+        } catch (IOException e) {
+            Log.d(TAG, "Failed to read vocab index " + sidecar + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    // Writes the sidecar of vocabFile; a vocab in a read-only location simply stays uncached
+    boolean write(File vocabFile, boolean multilingual) {
+        File sidecar = sidecarFor(vocabFile);
+        File temp = new File(sidecar.getPath() + ".tmp");
+
+        ByteBuffer payload = ByteBuffer.allocate(offsets.length * Integer.BYTES + arena.length)
+                .order(ByteOrder.nativeOrder());
+        payload.asIntBuffer().put(offsets);
+        payload.position(offsets.length * Integer.BYTES);
+        payload.put(arena);
+        payload.flip();
+        CRC32 checksum = new CRC32();
+        checksum.update(payload.duplicate());
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.nativeOrder());
+        header.putInt(MAGIC).putInt(VERSION)
+                .putLong(vocabFile.length()).putLong(vocabFile.lastModified())
+                .putInt(multilingual ? 1 : 0)
+                .putInt(size()).putInt(arena.length).putInt((int) checksum.getValue());
+        header.flip();
+
+        // Written under a temporary name and renamed, so a reader never sees half a file
+        try (FileOutputStream out = new FileOutputStream(temp); FileChannel channel = out.getChannel()) {
+            while (header.hasRemaining()) {
+                channel.write(header);
+            }
+            while (payload.hasRemaining()) {
+                channel.write(payload);
+            }
+        } catch (IOException e) {
+            Log.d(TAG, "Failed to write vocab index " + sidecar + ": " + e.getMessage());
+            temp.delete();
+            return false;
+        }
+        if (!temp.renameTo(sidecar)) {
+            temp.delete();
+            return false;
+        }
+        return true;
+    }
+}
@@ -2,12 +2,16 @@ package com.whispertflite.utils;
 
 import android.util.Log;
 
+import java.io.DataInputStream;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
 import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 
 public class WaveUtil {
     public static final String TAG = "WaveUtil";
@@ -44,10 +48,12 @@ public class WaveUtil {
         }
     }
 
+    /**
+     * Samples of a 16 or 32 bit (float) WAV file as 16 kHz mono, which is what Whisper
+     * expects. Other rates and channel counts are converted while the file is read.
+     */
     public static float[] getSamples(String filePath) {
-        try {
-            FileInputStream fileInputStream = new FileInputStream(filePath);
-
+        try (FileInputStream fileInputStream = new FileInputStream(filePath)) {
             // Read the WAV file header
             byte[] header = new byte[44];
             fileInputStream.read(header);
@@ -60,39 +66,77 @@ public class WaveUtil {
             }
 
             // Get the audio format details from the header
+            int numChannels = byteArrayToNumber(header, 22, 2);
             int sampleRate = byteArrayToNumber(header, 24, 4);
             int bitsPerSample = byteArrayToNumber(header, 34, 2);
             if (bitsPerSample != 16 && bitsPerSample != 32) {
                 Log.e(TAG, "Unsupported bits per sample: " + bitsPerSample);
                 return new float[0];
             }
+            if (numChannels <= 0 || sampleRate <= 0) {
+                Log.e(TAG, "Invalid format: " + numChannels + " channels at " + sampleRate + " Hz");
+                return new float[0];
+            }
 
             // Get the size of the data section (all PCM data)
             int dataLength = fileInputStream.available(); // byteArrayToInt(header, 40, 4);
 
-            // Calculate the number of samples
-            int bytesPerSample = bitsPerSample / 8;
-            int numSamples = dataLength / bytesPerSample;
+            // Calculate the number of frames
+            int frameBytes = bitsPerSample / 8 * numChannels;
+            int numFrames = dataLength / frameBytes;
 
-            // Read the audio data
-            byte[] audioData = new byte[dataLength];
-            fileInputStream.read(audioData);
-            ByteBuffer byteBuffer = ByteBuffer.wrap(audioData);
-            byteBuffer.order(ByteOrder.nativeOrder());
+            DataInputStream data = new DataInputStream(fileInputStream);
+            int chunkFrames = 4096;
+            byte[] chunk = new byte[chunkFrames * frameBytes];
+            float[] floats = bitsPerSample == 32 ? new float[chunkFrames * numChannels] : null;
+            FloatBuffer floatView = ByteBuffer.wrap(chunk).order(ByteOrder.nativeOrder()).asFloatBuffer();
 
-            // Convert audio data to PCM_FLOAT format
-            float[] samples = new float[numSamples];
-            if (bitsPerSample == 16) {
-                for (int i = 0; i < numSamples; i++) {
-                    samples[i] = (float) (byteBuffer.getShort() / 32768.0);
-                }
-            } else if (bitsPerSample == 32) {
-                for (int i = 0; i < numSamples; i++) {
-                    samples[i] = byteBuffer.getFloat();
+            // 16 kHz mono is what Whisper takes, decode it straight into the output
+            if (sampleRate == WhisperUtil.WHISPER_SAMPLE_RATE && numChannels == 1) {
+                float[] samples = new float[numFrames];
+                ShortBuffer shortView = ByteBuffer.wrap(chunk).order(ByteOrder.nativeOrder()).asShortBuffer();
+                for (int done = 0; done < numFrames; ) {
+                    int frames = Math.min(chunkFrames, numFrames - done);
+                    data.readFully(chunk, 0, frames * frameBytes);
+                    if (bitsPerSample == 16) {
+                        for (int i = 0; i < frames; i++) {
+                            samples[done + i] = shortView.get(i) / 32768.0f;
+                        }
+                    } else {
+                        floatView.clear();
+                        floatView.get(samples, done, frames);
+                    }
+                    done += frames;
                 }
+                return samples;
             }
 
-            return samples;
+            // Otherwise convert chunk by chunk, keeping only output samples [latency, latency + count)
+            // so output sample i is at the time of input frame i * rate / 16000
+            Resampler resampler = new Resampler(sampleRate, WhisperUtil.WHISPER_SAMPLE_RATE, numChannels);
+            int latency = resampler.latency();
+            int count = (int) (((long) numFrames * WhisperUtil.WHISPER_SAMPLE_RATE + sampleRate - 1) / sampleRate);
+            float[] samples = new float[count];
+            float[] converted = new float[Math.max(resampler.maxOutput(chunkFrames), resampler.maxFlushOutput())];
+            long produced = 0;
+            int written = 0;
+            for (int framesLeft = numFrames; framesLeft > 0; ) {
+                int frames = Math.min(chunkFrames, framesLeft);
+                data.readFully(chunk, 0, frames * frameBytes);
+                framesLeft -= frames;
+                int n;
+                if (bitsPerSample == 16) {
+                    n = resampler.processPcm16(chunk, 0, frames * frameBytes, converted, 0);
+                } else {
+                    floatView.clear();
+                    floatView.get(floats, 0, frames * numChannels);
+                    n = resampler.process(floats, 0, frames, converted, 0);
+                }
+                written = keep(converted, n, produced - latency, samples, written);
+                produced += n;
+            }
+            written = keep(converted, resampler.flush(converted, 0), produced - latency, samples, written);
+            return written == count ? samples : Arrays.copyOf(samples, written);
         } catch (IOException e) {
             e.printStackTrace();
             Log.e(TAG, "Error...", e);
@@ -100,6 +144,96 @@ public class WaveUtil {
         return new float[0];
     }
 
+    /**
+     * Data of a 16 or 32 bit (float) WAV file as interleaved 16-bit PCM in native byte order,
+     * at the rate and channel count of the file, or null if it cannot be read.
+     */
+    public static byte[] getPcm16(String filePath) {
+        try (FileInputStream fileInputStream = new FileInputStream(filePath)) {
+            byte[] header = new byte[44];
+            if (fileInputStream.read(header) != header.length || !new String(header, 0, 4).equals("RIFF")) {
+                Log.e(TAG, "Not a valid WAV file");
+                return null;
+            }
+            int bitsPerSample = byteArrayToNumber(header, 34, 2);
+            if (bitsPerSample != 16 && bitsPerSample != 32) {
+                Log.e(TAG, "Unsupported bits per sample: " + bitsPerSample);
+                return null;
+            }
+
+            int dataLength = fileInputStream.available();
+            DataInputStream data = new DataInputStream(fileInputStream);
+            if (bitsPerSample == 16) {
+                byte[] pcm = new byte[dataLength & ~1];
+                data.readFully(pcm);
+                if (ByteOrder.nativeOrder() != ByteOrder.LITTLE_ENDIAN) {
+                    for (int i = 0; i < pcm.length; i += 2) {
+                        byte low = pcm[i];
+                        pcm[i] = pcm[i + 1];
+                        pcm[i + 1] = low;
+                    }
+                }
+                return pcm;
+            }
+
+            // Float samples are converted chunk by chunk
+            int count = dataLength / 4;
+            byte[] pcm = new byte[count * 2];
+            ShortBuffer pcmView = ByteBuffer.wrap(pcm).order(ByteOrder.nativeOrder()).asShortBuffer();
+            byte[] chunk = new byte[4096 * 4];
+            FloatBuffer floatView = ByteBuffer.wrap(chunk).order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer();
+            for (int done = 0; done < count; ) {
+                int n = Math.min(4096, count - done);
+                data.readFully(chunk, 0, n * 4);
+                for (int i = 0; i < n; i++) {
+                    pcmView.put((short) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, Math.round(floatView.get(i) * 32768.0f))));
+                }
+                done += n;
+            }
+            return pcm;
+        } catch (IOException e) {
+            Log.e(TAG, "Error...", e);
+        }
+        return null;
+    }
+
+    // Copies the part of n converted samples, the first at output position at, that falls in samples
+    private static int keep(float[] converted, int n, long at, float[] samples, int written) {
+        int from = (int) Math.max(0, -at);
+        int length = (int) Math.min(n - from, samples.length - written);
+        if (length <= 0) {
+            return written;
+        }
+        System.arraycopy(converted, from, samples, written, length);
+        return written + length;
+    }
+
+    // Sample rate from the WAV header, or -1 if the file cannot be read
+    public static int getSampleRate(String filePath) {
+        byte[] header = readHeader(filePath);
+        return header == null ? -1 : byteArrayToNumber(header, 24, 4);
+    }
+
+    // Channel count from the WAV header, or -1 if the file cannot be read
+    public static int getNumChannels(String filePath) {
+        byte[] header = readHeader(filePath);
+        return header == null ? -1 : byteArrayToNumber(header, 22, 2);
+    }
+
+    private static byte[] readHeader(String filePath) {
+        try (FileInputStream fileInputStream = new FileInputStream(filePath)) {
+            byte[] header = new byte[44];
+            if (fileInputStream.read(header) != header.length || !new String(header, 0, 4).equals("RIFF")) {
+                Log.e(TAG, "Not a valid WAV file");
+                return null;
+            }
+            return header;
+        } catch (IOException e) {
+            Log.e(TAG, "Error...", e);
+        }
+        return null;
+    }
+
     // Convert a portion of a byte array into an integer or a short
     private static int byteArrayToNumber(byte[] bytes, int offset, int length) {
         int value = 0; // Start with an initial value of 0
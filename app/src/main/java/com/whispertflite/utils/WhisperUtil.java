@@ -2,21 +2,23 @@ package com.whispertflite.utils;
 
 import static java.lang.Math.cos;
 import static java.lang.Math.log10;
-import static java.lang.Math.sin;
 
 import android.util.Log;
 
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
-import java.nio.file.Files;
-import java.nio.file.Paths;
-import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class WhisperUtil {
     private static final String TAG = "WhisperUtil";
@@ -31,6 +33,28 @@ public class WhisperUtil {
     private final WhisperFilter filters = new WhisperFilter();
     private final WhisperMel mel = new WhisperMel();
 
+    // FFT plan and Hann window are fixed for WHISPER_N_FFT, so build them once
+    private final RealFft fft = new RealFft(WHISPER_N_FFT);
+    private final float[] hann = new float[WHISPER_N_FFT];
+
+    // Long-lived mel workers; the calling thread acts as worker 0
+    private static final int MEL_CHUNK_FRAMES = 32;
+    private ExecutorService melPool = null;
+    private MelScratch[] melScratch = new MelScratch[0];
+
+    // FastLog.log10 instead of Math.log10 for band energies
+    private volatile boolean useFastLog = true;
+
+    public WhisperUtil() {
+        for (int i = 0; i < WHISPER_N_FFT; i++) {
+            hann[i] = (float) (0.5 * (1.0 - cos(2.0 * Math.PI * i / WHISPER_N_FFT)));
+        }
+    }
+
+    public void setUseFastLog(boolean useFastLog) {
+        this.useFastLog = useFastLog;
+    }
+
     // Helper functions definitions
     public int getTokenTranslate() {
         return vocab.tokenTRANSLATE;
@@ -64,16 +88,198 @@ public class WhisperUtil {
         return vocab.tokenBEG;
     }
 
+    // Token classes, see getTokenType()
+    public static final int TOKEN_TEXT = 0;
+    public static final int TOKEN_EOT = 1;
+    public static final int TOKEN_TRANSCRIBE = 2;
+    public static final int TOKEN_TRANSLATE = 3;
+    public static final int TOKEN_LANGUAGE = 4;
+    public static final int TOKEN_TIMESTAMP = 5;
+    public static final int TOKEN_SPECIAL = 6; // any other control token
+
+    // Number of tokens with bytes, including the generated ones for special tokens
+    public int getVocabSize() {
+        return vocab.size;
+    }
+
+    // Copy of the bytes of a token, or null if it is outside the vocab
     public byte[] getWordFromToken(int token) {
-        return vocab.tokenToWord.get(token);
+        if (token < 0 || token >= vocab.size) {
+            return null;
+        }
+        return Arrays.copyOfRange(vocab.arena, vocab.offsets[token], vocab.offsets[token + 1]);
+    }
+
+    // Appends the bytes of a token to out without allocating; false if it is outside the vocab
+    public boolean appendWord(int token, Utf8Builder out) {
+        if (token < 0 || token >= vocab.size) {
+            return false;
+        }
+        int start = vocab.offsets[token];
+        out.append(vocab.arena, start, vocab.offsets[token + 1] - start);
+        return true;
+    }
+
+    // One of the TOKEN_* classes; tokens outside the vocab count as TOKEN_SPECIAL
+    public int getTokenType(int token) {
+        if (token < 0 || token >= vocab.size) {
+            return TOKEN_SPECIAL;
+        }
+        return vocab.types[token];
+    }
+
+    // Language code of a TOKEN_LANGUAGE token, otherwise ""
+    public String getLanguageCode(int token) {
+        int index = token - WhisperVocab.FIRST_LANGUAGE_TOKEN;
+        if (index < 0 || index >= vocab.languageCodes.length || getTokenType(token) != TOKEN_LANGUAGE) {
+            return "";
+        }
+        return vocab.languageCodes[index];
+    }
+
+    // Greedy decoding rules for engines that run the decoder loop themselves, after OpenAI
+    // Whisper's SuppressBlank, SuppressTokens and ApplyTimestampRules logit filters
+    public static final int MAX_INITIAL_TIMESTAMP = 50; // the first timestamp is at most 1 s into the window
+    private static final int MIN_REPEATS = 3;
+    private static final int MIN_REPEATED_TOKENS = 12;
+    private static final int MAX_REPEAT_PERIOD = 32;
+
+    /**
+     * Sets the logits of tokens the decoder must not pick next to -infinity, in place.
+     * tokens[0, count) are the tokens generated so far, without the prompt.
+     *
+     * Control tokens other than EOT are never picked, and the first token is neither EOT
+     * nor a blank. With timestamps, the first token is a timestamp of at most
+     * MAX_INITIAL_TIMESTAMP, timestamps come in pairs and never decrease, and a timestamp
+     * is forced when all timestamps together are more likely than the best text token.
+     * Without timestamps none is picked.
+     */
+    public void suppressTokens(float[] logits, int[] tokens, int count, boolean timestamps) {
+        int n = logits.length;
+        int eot = vocab.tokenEOT;
+        int beg = Math.min(vocab.tokenBEG, n);
+        fill(logits, eot + 1, beg);
+        if (count == 0) {
+            fill(logits, eot, eot + 1);
+            if (vocab.tokenBlank >= 0) {
+                fill(logits, vocab.tokenBlank, vocab.tokenBlank + 1);
+            }
+        }
+        if (!timestamps) {
+            fill(logits, beg, n);
+            return;
+        }
+
+        boolean lastWasTimestamp = count >= 1 && tokens[count - 1] >= beg;
+        boolean penultimateWasTimestamp = count < 2 || tokens[count - 2] >= beg;
+        if (lastWasTimestamp) {
+            if (penultimateWasTimestamp) {
+                fill(logits, beg, n); // a pair is complete, text or EOT follows
+            } else {
+                fill(logits, 0, eot); // text was closed, the next segment opens or EOT
+            }
+        }
+        for (int i = count - 1; i >= 0; i--) {
+            if (tokens[i] >= beg) {
+                int minTimestamp = lastWasTimestamp && !penultimateWasTimestamp ? tokens[i] : tokens[i] + 1;
+                fill(logits, beg, Math.min(minTimestamp, n));
+                break;
+            }
+        }
+        if (count == 0) {
+            fill(logits, 0, beg);
+            fill(logits, Math.min(beg + MAX_INITIAL_TIMESTAMP + 1, n), n);
+        }
+
+        // Compared as logits, the softmax normalization cancels out
+        float maxTimestamp = Float.NEGATIVE_INFINITY;
+        for (int i = beg; i < n; i++) {
+            maxTimestamp = Math.max(maxTimestamp, logits[i]);
+        }
+        if (maxTimestamp == Float.NEGATIVE_INFINITY) {
+            return;
+        }
+        double sum = 0.0;
+        for (int i = beg; i < n; i++) {
+            sum += Math.exp(logits[i] - maxTimestamp);
+        }
+        double timestampLogit = maxTimestamp + Math.log(sum);
+        float maxText = Float.NEGATIVE_INFINITY;
+        for (int i = 0; i < beg; i++) {
+            maxText = Math.max(maxText, logits[i]);
+        }
+        if (timestampLogit > maxText) {
+            fill(logits, 0, beg);
+        }
+    }
+
+    private static void fill(float[] logits, int from, int to) {
+        if (from < to) {
+            Arrays.fill(logits, from, to, Float.NEGATIVE_INFINITY);
+        }
+    }
+
+    // Index of the highest logit; the first one on ties
+    public static int argmax(float[] logits) {
+        int best = 0;
+        for (int i = 1; i < logits.length; i++) {
+            if (logits[i] > logits[best]) {
+                best = i;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Decoder loop detection: the number of tokens at the end of tokens[0, count) that
+     * only repeat the block of tokens before them, or 0. A block of up to
+     * MAX_REPEAT_PERIOD tokens counts as a loop once it occurs MIN_REPEATS times in a row
+     * and the copies span at least MIN_REPEATED_TOKENS, so a doubled word is not cut.
+     * Dropping the returned number of tokens keeps one copy.
+     */
+    public static int repeatedTailLength(int[] tokens, int count) {
+        for (int period = 1; period <= MAX_REPEAT_PERIOD && period * MIN_REPEATS <= count; period++) {
+            int last = count - period;
+            int repeats = 1;
+            while ((repeats + 1) * period <= count
+                    && sameTokens(tokens, last, count - (repeats + 1) * period, period)) {
+                repeats++;
+            }
+            if (repeats >= MIN_REPEATS && repeats * period >= MIN_REPEATED_TOKENS) {
+                return (repeats - 1) * period;
+            }
+        }
+        return 0;
     }
 
-    // Load filters and vocab data from pre-generated filters_vocab_en.bin file
+    // tokens[a, a + length) equals tokens[b, b + length). The range form of Arrays.equals
+    // needs Android API 33.
+    private static boolean sameTokens(int[] tokens, int a, int b, int length) {
+        for (int i = 0; i < length; i++) {
+            if (tokens[a + i] != tokens[b + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Dense nMel x nFft mel filter weights, row-major; a read-only view of the mapped vocab file
+    public FloatBuffer getMelFilters() {
+        return filters.dense == null ? null : filters.dense.duplicate();
+    }
+
+    // Load filters and vocab data from pre-generated filters_vocab_en.bin file.
+    // The file is mapped rather than read; the parsed vocab is cached in a sidecar file
+    // next to it, see VocabIndex.
     public boolean loadFiltersAndVocab(boolean multilingual, String vocabPath) throws IOException {
+        long start = System.nanoTime();
 
-        // Read vocab file
-        byte[] bytes = Files.readAllBytes(Paths.get(vocabPath));
-        ByteBuffer vocabBuf = ByteBuffer.wrap(bytes);
+        // Map vocab file
+        File vocabFile = new File(vocabPath);
+        ByteBuffer vocabBuf;
+        try (FileInputStream in = new FileInputStream(vocabFile); FileChannel channel = in.getChannel()) {
+            vocabBuf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
         vocabBuf.order(ByteOrder.nativeOrder());
         Log.d(TAG, "Vocab file size: " + vocabBuf.limit());
 
@@ -91,25 +297,17 @@ public class WhisperUtil {
         filters.nFft = vocabBuf.getInt();
         Log.d(TAG, "n_mel:" + filters.nMel + ", n_fft:" + filters.nFft);
 
-        byte[] filterData = new byte[filters.nMel * filters.nFft * Float.BYTES];
-        vocabBuf.get(filterData, 0, filterData.length);
-        ByteBuffer filterBuf = ByteBuffer.wrap(filterData);
-        filterBuf.order(ByteOrder.nativeOrder());
-
-        filters.data = new float[filters.nMel * filters.nFft];
-        for (int i = 0; filterBuf.hasRemaining(); i++) {
-            filters.data[i] = filterBuf.getFloat();
-        }
+        int filterBytes = filters.nMel * filters.nFft * Float.BYTES;
+        ByteBuffer filterBuf = vocabBuf.duplicate();
+        filterBuf.limit(vocabBuf.position() + filterBytes);
+        filters.dense = filterBuf.slice().order(ByteOrder.nativeOrder()).asFloatBuffer();
+        filters.pack(filters.dense);
+        vocabBuf.position(vocabBuf.position() + filterBytes);
+        Log.d(TAG, "Mel filter weights kept: " + filters.weights.length + " of " + filters.dense.limit());
 
         // Load vocabulary
         int nVocab = vocabBuf.getInt();
         Log.d(TAG, "nVocab: " + nVocab);
-        for (int i = 0; i < nVocab; i++) {
-            int len = vocabBuf.getInt();
-            byte[] wordBytes = new byte[len];
-            vocabBuf.get(wordBytes, 0, wordBytes.length);
-            vocab.tokenToWord.put(i, wordBytes);
-        }
 
         // Add additional vocab ids
         int nVocabAdditional;
@@ -125,6 +323,27 @@ public class WhisperUtil {
             vocab.tokenBEG++;
         }
 
+        VocabIndex index = VocabIndex.read(vocabFile, multilingual);
+        if (index == null || index.size() != Math.max(nVocab, nVocabAdditional)) {
+            index = parseVocab(vocabBuf, nVocab, nVocabAdditional);
+            boolean cached = index.write(vocabFile, multilingual);
+            Log.d(TAG, "Vocab parsed" + (cached ? ", index written" : ", index not cached"));
+        }
+        vocab.arena = index.arena;
+        vocab.offsets = index.offsets;
+        vocab.size = index.size();
+        vocab.classifyTokens();
+        Log.d(TAG, "Vocab arena: " + vocab.arena.length + " bytes for " + vocab.size + " tokens, loaded in "
+                + (System.nanoTime() - start) / 1_000_000 + " ms");
+
+        return true;
+    }
+
+    // Copies the nVocab words at the position of vocabBuf into one arena, followed by the
+    // generated words of the special tokens up to nVocabAdditional
+    private VocabIndex parseVocab(ByteBuffer vocabBuf, int nVocab, int nVocabAdditional) {
+        String[] additionalWords = new String[Math.max(0, nVocabAdditional - nVocab)];
+        int additionalLength = 0;
         for (int i = nVocab; i < nVocabAdditional; i++) {
             String word;
             if (i > vocab.tokenBEG) {
@@ -142,188 +361,276 @@ public class WhisperUtil {
             } else {
                 word = "[_extra_token_" + i + "]";
             }
+            additionalWords[i - nVocab] = word;
+            additionalLength += word.length(); // ASCII
+        }
 
-            vocab.tokenToWord.put(i, word.getBytes(StandardCharsets.UTF_8));
-            //Log.d(TAG, "i= " + i + ", word= " + word);
+        // The file is scanned once for the total size, then copied
+        int wordsStart = vocabBuf.position();
+        long fileWordsLength = 0;
+        for (int i = 0; i < nVocab; i++) {
+            int len = vocabBuf.getInt();
+            fileWordsLength += len;
+            vocabBuf.position(vocabBuf.position() + len);
         }
+        vocabBuf.position(wordsStart);
 
-        return true;
+        byte[] arena = new byte[(int) (fileWordsLength + additionalLength)];
+        int[] offsets = new int[nVocab + additionalWords.length + 1];
+        int end = 0;
+        for (int i = 0; i < nVocab; i++) {
+            int len = vocabBuf.getInt();
+            vocabBuf.get(arena, end, len);
+            end += len;
+            offsets[i + 1] = end;
+        }
+        for (int i = 0; i < additionalWords.length; i++) {
+            String word = additionalWords[i];
+            for (int c = 0; c < word.length(); c++) {
+                arena[end++] = (byte) word.charAt(c);
+            }
+            offsets[nVocab + i + 1] = end;
+        }
+        return new VocabIndex(arena, offsets);
     }
 
     // nSamples size => WHISPER_SAMPLE_RATE * WHISPER_CHUNK_SIZE => 480000
     // meaningfulSamples is the part which contains recorded data
     public float[] getMelSpectrogram(float[] samples, int nSamples, int meaningfulSamples, int nThreads) {
+        float[] result = new float[WHISPER_N_MEL * (nSamples / WHISPER_HOP_LENGTH)];
+        getMelSpectrogram(samples, nSamples, meaningfulSamples, nThreads, FloatBuffer.wrap(result));
+        return result;
+    }
 
-        int fftSize = WHISPER_N_FFT;
-        int fftStep = WHISPER_HOP_LENGTH;
+    // Same as above, but writes the normalized spectrogram into out[0..80 * nSamples / 160)
+    // without allocating. samples only has to hold meaningfulSamples values, the rest of
+    // the nSamples window is treated as silence.
+    public void getMelSpectrogram(float[] samples, int nSamples, int meaningfulSamples, int nThreads, FloatBuffer out) {
+        getMelSpectrogram(samples, nSamples, meaningfulSamples, nThreads, out, CancellationToken.NONE);
+    }
+
+    // Same as above; the workers stop between chunks of frames once cancel is cancelled,
+    // and false is returned with out left incomplete
+    public boolean getMelSpectrogram(float[] samples, int nSamples, int meaningfulSamples, int nThreads,
+                                     FloatBuffer out, CancellationToken cancel) {
 
         mel.nMel = WHISPER_N_MEL;
-        mel.nLen = nSamples / fftStep;
-        mel.data = new float[mel.nMel * mel.nLen];
+        mel.nLen = nSamples / WHISPER_HOP_LENGTH;
+        if (mel.data == null || mel.data.length != mel.nMel * mel.nLen) {
+            mel.data = new float[mel.nMel * mel.nLen];
+        }
 
         // Calculate the number of meaningful frames
-        int meaningfulFrames = meaningfulSamples / fftStep;
-
-        float[] hann = new float[fftSize];
-        for (int i = 0; i < fftSize; i++) {
-            hann[i] = (float) (0.5 * (1.0 - cos(2.0 * Math.PI * i / fftSize)));
-        }
-
-        int nFft = 1 + fftSize / 2;
-
-        // Calculate mel values using multiple threads
-        List<Thread> workers = new ArrayList<>();
-        for (int iw = 0; iw < nThreads; iw++) {
-            final int ith = iw;  // Capture iw in a final variable for use in the lambda
-            Thread thread = new Thread(() -> {
-                // Inside the thread, ith will have the same value as iw (first value is 0)
-                Log.d(TAG, "Thread " + ith + " started.");
-
-                float[] fftIn = new float[fftSize];
-                Arrays.fill(fftIn, 0.0f);
-                float[] fftOut = new float[fftSize * 2];
-
-                for (int i = ith; i < meaningfulFrames; i += nThreads) { // Limit to meaningful frames
-
-                    int offset = i * fftStep;
-
-                    // apply Hanning window
-                    for (int j = 0; j < fftSize; j++) {
-                        if (offset + j < meaningfulSamples) { // Limit to meaningful samples
-                            fftIn[j] = hann[j] * samples[offset + j];
-                        } else {
-                            fftIn[j] = 0.0f;
-                        }
-                    }
-
-                    // FFT -> mag^2
-                    fft(fftIn, fftOut);
-                    for (int j = 0; j < fftSize; j++) {
-                        fftOut[j] = fftOut[2 * j] * fftOut[2 * j] + fftOut[2 * j + 1] * fftOut[2 * j + 1];
-                    }
-
-                    for (int j = 1; j < fftSize / 2; j++) {
-                        fftOut[j] += fftOut[fftSize - j];
-                    }
-
-                    // mel spectrogram
-                    for (int j = 0; j < mel.nMel; j++) {
-                        double sum = 0.0;
-                        for (int k = 0; k < nFft; k++) {
-                            sum += (fftOut[k] * filters.data[j * nFft + k]);
-                        }
-
-                        if (sum < 1e-10) {
-                            sum = 1e-10;
-                        }
-
-                        sum = log10(sum);
-                        mel.data[j * mel.nLen + i] = (float) sum;
-                    }
-                }
-
-                // Pad the remaining frames with a default value (e.g., -8.0)
-                for (int i = ith + meaningfulFrames; i < mel.nLen; i += nThreads) {
-                    for (int j = 0; j < mel.nMel; j++) {
-                        mel.data[j * mel.nLen + i] = -8.0f; // Default padding value
-                    }
-                }
-
-            });
-            workers.add(thread);
-            thread.start();
+        int meaningfulFrames = meaningfulSamples / WHISPER_HOP_LENGTH;
+
+        // Calculate mel values on the calling thread plus the pool workers. Frames are
+        // handed out in chunks from a shared counter, so faster cores take more chunks.
+        int nWorkers = ensureMelPool(nThreads);
+        AtomicInteger nextChunk = new AtomicInteger(0);
+        Future<?>[] pending = new Future<?>[nWorkers - 1];
+        for (int iw = 1; iw < nWorkers; iw++) {
+            final MelScratch scratch = melScratch[iw];
+            pending[iw - 1] = melPool.submit(() ->
+                    computeMelChunks(scratch, nextChunk, samples, meaningfulSamples, meaningfulFrames, cancel));
         }
+        computeMelChunks(melScratch[0], nextChunk, samples, meaningfulSamples, meaningfulFrames, cancel);
 
-        // Wait for all threads to finish
-        for (Thread worker : workers) {
+        // Wait for all workers to finish
+        for (Future<?> worker : pending) {
             try {
-                worker.join();
+                worker.get();
             } catch (InterruptedException e) {
-                e.printStackTrace();
+                nextChunk.set(Integer.MAX_VALUE / 2); // stop the other workers claiming chunks
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while computing mel spectrogram", e);
+            } catch (ExecutionException e) {
+                throw new IllegalStateException("Mel worker failed", e.getCause());
             }
         }
+        if (cancel.isCancelled()) {
+            return false;
+        }
+
+        // Each worker tracked the maximum of its frames; padding frames are -8
+        double mmax = meaningfulFrames < mel.nLen ? -8.0 : -1e20;
+        for (int iw = 0; iw < nWorkers; iw++) {
+            mmax = Math.max(mmax, melScratch[iw].maxValue);
+        }
 
         // clamping and normalization
-        double mmax = -1e20;
-        for (int i = 0; i < mel.nMel * mel.nLen; i++) {
-            if (mel.data[i] > mmax) {
-                mmax = mel.data[i];
+        normalizeMel(mel.data, mel.nLen, meaningfulFrames, 0.0, mmax, out);
+        return true;
+    }
+
+    private void computeMelChunks(MelScratch scratch, AtomicInteger nextChunk, float[] samples,
+                                  int meaningfulSamples, int meaningfulFrames, CancellationToken cancel) {
+        // Padding frames are constant and never written, see normalizeMel
+        float maxValue = -Float.MAX_VALUE;
+        int chunk;
+        while (!cancel.isCancelled() && (chunk = nextChunk.getAndIncrement()) * MEL_CHUNK_FRAMES < meaningfulFrames) {
+            int first = chunk * MEL_CHUNK_FRAMES;
+            int last = Math.min(first + MEL_CHUNK_FRAMES, meaningfulFrames);
+
+            for (int i = first; i < last; i++) {
+                int offset = i * WHISPER_HOP_LENGTH;
+                float frameMax = computeMelFrame(samples, offset, meaningfulSamples - offset, scratch, 1e-10,
+                        mel.data, i, mel.nLen);
+                if (frameMax > maxValue) {
+                    maxValue = frameMax;
+                }
             }
         }
+        scratch.maxValue = maxValue;
+    }
 
-        mmax -= 8.0;
-        for (int i = 0; i < mel.nMel * mel.nLen; i++) {
-            if (mel.data[i] < mmax) {
-                mel.data[i] = (float) mmax;
+    // Computes the log10 mel energies of the frame starting at src[srcOffset] into
+    // dst[dstIndex + j * dstStride] and returns the largest of them. Samples at or past
+    // validSamples are treated as zero and band energies are floored at minEnergy before
+    // taking the log.
+    float computeMelFrame(float[] src, int srcOffset, int validSamples, MelScratch scratch,
+                         double minEnergy, float[] dst, int dstIndex, int dstStride) {
+        int fftSize = WHISPER_N_FFT;
+        int nFft = fft.binCount();
+        float[] fftIn = scratch.fftIn;
+        float[] fftOut = scratch.fftOut;
+        float[] power = scratch.power;
+
+        // apply Hanning window
+        for (int j = 0; j < fftSize; j++) {
+            if (j < validSamples) { // Limit to meaningful samples
+                fftIn[j] = hann[j] * src[srcOffset + j];
+            } else {
+                fftIn[j] = 0.0f;
             }
-            mel.data[i] = (float) ((mel.data[i] + 4.0) / 4.0);
         }
 
-        return mel.data;
-    }
+        // FFT -> mag^2, only the nFft non-redundant bins are computed.
+        // Bins mirrored in the upper half of the spectrum are folded in by doubling.
+        fft.forward(fftIn, fftOut, scratch.fftScratch);
+        for (int j = 0; j < nFft; j++) {
+            float re = fftOut[2 * j];
+            float im = fftOut[2 * j + 1];
+            power[j] = re * re + im * im;
+            if (j > 0 && j < fftSize / 2) {
+                power[j] *= 2.0f;
+            }
+        }
+
+        // mel spectrogram
+        boolean fastLog = useFastLog;
+        float frameMax = -Float.MAX_VALUE;
+        for (int j = 0; j < WHISPER_N_MEL; j++) {
+            double sum = 0.0;
+            int w = filters.bandOffset[j];
+            for (int k = filters.bandStart[j]; k < filters.bandEnd[j]; k++, w++) {
+                sum += (power[k] * filters.weights[w]);
+            }
+
+            if (sum < minEnergy) {
+                sum = minEnergy;
+            }
 
-    private void dft(float[] input, float[] output) {
-        int inSize = input.length;
-        for (int k = 0; k < inSize; k++) {
-            float re = 0.0f;
-            float im = 0.0f;
-            for (int n = 0; n < inSize; n++) {
-                float angle = (float) (2 * Math.PI * k * n / inSize);
-                re += input[n] * cos(angle);
-                im -= input[n] * sin(angle);
+            float value = fastLog ? FastLog.log10((float) sum) : (float) log10(sum);
+            dst[dstIndex + j * dstStride] = value;
+            if (value > frameMax) {
+                frameMax = value;
             }
-            output[k * 2 + 0] = re;
-            output[k * 2 + 1] = im;
         }
+        return frameMax;
     }
 
-    private void fft(float[] input, float[] output) {
-        int inSize = input.length;
-        if (inSize == 1) {
-            output[0] = input[0];
-            output[1] = 0.0f;
-            return;
+    // Single output pass over the 80 x nLen spectrogram, written to out in the same layout.
+    // The first meaningfulFrames columns of data are raw log energies: shift is added and
+    // the result floored at -10. The remaining columns are the -8 padding and are not
+    // read. Everything is then clamped to (maxValue - 8) and rescaled. maxValue must be
+    // the largest value after shift and floor, including padding.
+    static void normalizeMel(float[] data, int nLen, int meaningfulFrames, double shift,
+                             double maxValue, FloatBuffer out) {
+        float clampValue = (float) (maxValue - 8.0);
+        float padValue = -8.0f < clampValue ? clampValue : -8.0f;
+        float padOut = (float) ((padValue + 4.0) / 4.0);
+
+        for (int j = 0; j < WHISPER_N_MEL; j++) {
+            int row = j * nLen;
+            for (int i = 0; i < meaningfulFrames; i++) {
+                double value = data[row + i] + shift;
+                if (value < -10.0) {
+                    value = -10.0;
+                }
+                if (value < clampValue) {
+                    value = clampValue;
+                }
+                out.put(row + i, (float) ((value + 4.0) / 4.0));
+            }
+            for (int i = meaningfulFrames; i < nLen; i++) {
+                out.put(row + i, padOut);
+            }
         }
+    }
 
-        if (inSize % 2 == 1) {
-            dft(input, output);
-            return;
-        }
+    boolean hasFilters() {
+        return filters.weights != null;
+    }
 
-        float[] even = new float[inSize / 2];
-        float[] odd = new float[inSize / 2];
+    MelScratch newMelScratch() {
+        return new MelScratch(fft);
+    }
 
-        int indxEven = 0;
-        int indxOdd = 0;
-        for (int i = 0; i < inSize; i++) {
-            if (i % 2 == 0) {
-                even[indxEven] = input[i];
-                indxEven++;
-            } else {
-                odd[indxOdd] = input[i];
-                indxOdd++;
-            }
+    // Returns the number of workers (including the calling thread) to use for nThreads,
+    // (re)creating the pool only when that number changes.
+    private synchronized int ensureMelPool(int nThreads) {
+        int nWorkers = Math.max(1, Math.min(nThreads, Runtime.getRuntime().availableProcessors()));
+        if (melScratch.length == nWorkers && (nWorkers == 1 || melPool != null)) {
+            return nWorkers;
         }
 
-        float[] evenFft = new float[inSize];
-        float[] oddFft = new float[inSize];
+        if (melPool != null) {
+            melPool.shutdown();
+            melPool = null;
+        }
+        if (nWorkers > 1) {
+            AtomicInteger threadCount = new AtomicInteger(0);
+            melPool = Executors.newFixedThreadPool(nWorkers - 1, r -> {
+                Thread thread = new Thread(r, "WhisperMel-" + threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+
+        MelScratch[] scratch = Arrays.copyOf(melScratch, nWorkers);
+        for (int i = melScratch.length; i < nWorkers; i++) {
+            scratch[i] = new MelScratch(fft);
+        }
+        melScratch = scratch;
+        Log.d(TAG, "Mel worker pool ready, workers: " + nWorkers);
+        return nWorkers;
+    }
 
-        fft(even, evenFft);
-        fft(odd, oddFft);
-        for (int k = 0; k < inSize / 2; k++) {
-            float theta = (float) (2 * Math.PI * k / inSize);
-            float re = (float) cos(theta);
-            float im = (float) -sin(theta);
-            float reOdd = oddFft[2 * k + 0];
-            float imOdd = oddFft[2 * k + 1];
-            output[2 * k + 0] = evenFft[2 * k + 0] + re * reOdd - im * imOdd;
-            output[2 * k + 1] = evenFft[2 * k + 1] + re * imOdd + im * reOdd;
-            output[2 * (k + inSize / 2) + 0] = evenFft[2 * k + 0] - re * reOdd + im * imOdd;
-            output[2 * (k + inSize / 2) + 1] = evenFft[2 * k + 1] - re * imOdd - im * reOdd;
+    // Stop the mel worker threads. The pool is recreated on the next getMelSpectrogram call.
+    public synchronized void shutdown() {
+        if (melPool != null) {
+            melPool.shutdown();
+            melPool = null;
         }
+        melScratch = new MelScratch[0];
     }
 
     // Helper class definitions
+    static class MelScratch {
+        float maxValue;
+        final float[] fftIn;
+        final float[] fftOut;
+        final float[] fftScratch;
+        final float[] power;
+
+        MelScratch(RealFft fft) {
+            fftIn = new float[fft.size()];
+            fftOut = new float[fft.outputSize()];
+            fftScratch = new float[fft.scratchSize()];
+            power = new float[fft.binCount()];
+        }
+    }
+
     private static class WhisperVocab {
 
         // Token types
@@ -333,6 +640,7 @@ public class WhisperUtil {
         int tokenSOLM = 50361; // ??
         int tokenNOT = 50362; // no timestamps
         int tokenBEG = 50363;
+        int tokenBlank = -1; // " ", never the first token of a transcript
 
         // Available tasks
         final int tokenTRANSLATE = 50358;
@@ -341,13 +649,88 @@ public class WhisperUtil {
         // Vocab types
         final int nVocabEnglish = 51864;       // for english only vocab
         final int nVocabMultilingual = 51865;  // for multilingual vocab
-        Map<Integer, byte[]> tokenToWord = new HashMap<Integer, byte[]>();
+
+        // Language tokens of multilingual models
+        static final int FIRST_LANGUAGE_TOKEN = 50259;
+        static final int LAST_LANGUAGE_TOKEN = 50357;
+
+        // Bytes of all tokens back to back; token i is arena[offsets[i] .. offsets[i + 1])
+        byte[] arena = new byte[0];
+        int[] offsets = new int[1];
+        int size = 0;
+        byte[] types = new byte[0]; // TOKEN_* class of every token
+        String[] languageCodes = new String[LAST_LANGUAGE_TOKEN - FIRST_LANGUAGE_TOKEN + 1];
+
+        void classifyTokens() {
+            types = new byte[size];
+            tokenBlank = -1;
+            for (int i = 0; i < Math.min(tokenEOT, size); i++) {
+                if (offsets[i + 1] - offsets[i] == 1 && arena[offsets[i]] == ' ') {
+                    tokenBlank = i;
+                    break;
+                }
+            }
+            for (int i = tokenEOT; i < size; i++) {
+                if (i == tokenEOT) {
+                    types[i] = TOKEN_EOT;
+                } else if (i == tokenTRANSCRIBE) {
+                    types[i] = TOKEN_TRANSCRIBE;
+                } else if (i == tokenTRANSLATE) {
+                    types[i] = TOKEN_TRANSLATE;
+                } else if (i >= tokenBEG) {
+                    types[i] = TOKEN_TIMESTAMP;
+                } else if (i >= FIRST_LANGUAGE_TOKEN && i <= LAST_LANGUAGE_TOKEN) {
+                    types[i] = TOKEN_LANGUAGE;
+                } else {
+                    types[i] = TOKEN_SPECIAL;
+                }
+            }
+
+            Arrays.fill(languageCodes, "");
+            for (InputLang lang : InputLang.getLangList()) {
+                int index = (int) lang.id - FIRST_LANGUAGE_TOKEN;
+                if (index >= 0 && index < languageCodes.length) {
+                    languageCodes[index] = lang.code;
+                }
+            }
+        }
     }
 
+    // Triangular mel filters are non-zero over a few bins only, so each band keeps just
+    // the weights between its first and last non-zero bin, packed back to back.
     private static class WhisperFilter {
         int nMel = 0;
         int nFft = 0;
-        float[] data;
+        int[] bandStart;   // first non-zero bin of each band
+        int[] bandEnd;     // one past the last non-zero bin of each band
+        int[] bandOffset;  // index of bandStart's weight in weights
+        float[] weights;
+        FloatBuffer dense; // all nMel * nFft weights, mapped from the vocab file
+
+        void pack(FloatBuffer dense) {
+            bandStart = new int[nMel];
+            bandEnd = new int[nMel];
+            bandOffset = new int[nMel];
+
+            int total = 0;
+            for (int j = 0; j < nMel; j++) {
+                int start = 0;
+                int end = nFft;
+                while (start < end && dense.get(j * nFft + start) == 0.0f) start++;
+                while (end > start && dense.get(j * nFft + end - 1) == 0.0f) end--;
+                bandStart[j] = start;
+                bandEnd[j] = end;
+                bandOffset[j] = total;
+                total += end - start;
+            }
+
+            weights = new float[total];
+            for (int j = 0; j < nMel; j++) {
+                dense.position(j * nFft + bandStart[j]);
+                dense.get(weights, bandOffset[j], bandEnd[j] - bandStart[j]);
+            }
+            dense.rewind();
+        }
     }
 
     private static class WhisperMel {
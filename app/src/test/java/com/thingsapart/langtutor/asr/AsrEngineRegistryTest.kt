@@ -0,0 +1,150 @@
+package com.thingsapart.langtutor.asr
+
+import android.content.ComponentCallbacks2
+import android.content.Context
+import com.whispertflite.asr.Recorder
+import com.whispertflite.asr.Whisper
+import kotlinx.coroutines.runBlocking
+import org.junit.After
+import org.junit.Assert.*
+import org.junit.Before
+import org.junit.Test
+import org.mockito.ArgumentMatchers.anyBoolean
+import org.mockito.MockedConstruction
+import org.mockito.Mockito
+import org.mockito.Mockito.*
+import java.io.File
+import java.io.IOException
+
+class AsrEngineRegistryTest {
+
+    private val context: Context = mock(Context::class.java)
+    private var modelLoads = true
+    private lateinit var whispers: MockedConstruction<Whisper>
+    private lateinit var recorders: MockedConstruction<Recorder>
+    private lateinit var registry: AsrEngineRegistry
+
+    @Before
+    fun setUp() {
+        whispers = Mockito.mockConstruction(Whisper::class.java) { mock, _ ->
+            `when`(mock.isModelLoaded).thenAnswer { modelLoads }
+        }
+        recorders = Mockito.mockConstruction(Recorder::class.java)
+        registry = AsrEngineRegistry(context)
+    }
+
+    @After
+    fun tearDown() {
+        whispers.close()
+        recorders.close()
+    }
+
+    @Test
+    fun acquire_sameModel_loadsOnceAndSharesTheEngine() = runBlocking {
+        val first = registry.acquire("model.tflite", "vocab.bin", false)
+        val second = registry.acquire("model.tflite", "vocab.bin", false)
+
+        assertSame(first.whisper, second.whisper)
+        assertSame(first.recorder, second.recorder)
+        assertEquals(1, whispers.constructed().size)
+        verify(first.whisper, times(1)).loadModel(any(File::class.java), any(File::class.java), anyBoolean())
+    }
+
+    @Test
+    fun acquire_differentModels_getSeparateEngines() = runBlocking {
+        val first = registry.acquire("small.tflite", "vocab.bin", false)
+        val second = registry.acquire("base.tflite", "vocab.bin", false)
+
+        assertNotSame(first.whisper, second.whisper)
+    }
+
+    @Test
+    fun close_lastLease_keepsEngineUntilIdleTimeout() = runBlocking {
+        registry.idleTimeoutMs = 60_000
+        val lease = registry.acquire("model.tflite", "vocab.bin", false)
+        lease.close()
+        lease.close() // second close is a no-op
+
+        val again = registry.acquire("model.tflite", "vocab.bin", false)
+        assertSame(lease.whisper, again.whisper)
+        assertEquals(1, whispers.constructed().size)
+        verify(lease.whisper, never()).release()
+    }
+
+    @Test
+    fun close_withZeroIdleTimeout_unloadsRightAway() = runBlocking {
+        registry.idleTimeoutMs = 0
+        val lease = registry.acquire("model.tflite", "vocab.bin", false)
+        lease.close()
+
+        verify(lease.whisper, timeout(5000)).release()
+        verify(lease.recorder, timeout(5000)).release()
+        val again = registry.acquire("model.tflite", "vocab.bin", false)
+        assertNotSame(lease.whisper, again.whisper)
+    }
+
+    @Test
+    fun onTrimMemory_unloadsIdleEnginesOnly() = runBlocking {
+        val idle = registry.acquire("idle.tflite", "vocab.bin", false)
+        idle.close()
+        val leased = registry.acquire("leased.tflite", "vocab.bin", false)
+
+        registry.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW)
+
+        verify(idle.whisper, timeout(5000)).release()
+        verify(leased.whisper, never()).release()
+    }
+
+    @Test
+    fun detachIfOwner_overlappingLeases_leavesTheNewerScreenAttached() = runBlocking {
+        val attached = ArrayList<String>()
+        val oldScreen = registry.acquire("model.tflite", "vocab.bin", false)
+        oldScreen.attach { attached.add("old") }
+
+        // The next screen attaches before the old one's release has run
+        val newScreen = registry.acquire("model.tflite", "vocab.bin", false)
+        newScreen.attach { attached.add("new") }
+        assertTrue(newScreen.isOwner)
+        assertFalse(oldScreen.isOwner)
+
+        var oldDetached = false
+        assertFalse(oldScreen.detachIfOwner { oldDetached = true })
+        oldScreen.close()
+        assertFalse(oldDetached)
+        assertTrue(newScreen.isOwner)
+
+        var newDetached = false
+        assertTrue(newScreen.detachIfOwner { newDetached = true })
+        assertTrue(newDetached)
+        assertFalse(newScreen.isOwner)
+        assertEquals(listOf("old", "new"), attached)
+    }
+
+    @Test
+    fun close_owner_releasesOwnershipForTheNextLease() = runBlocking {
+        val first = registry.acquire("model.tflite", "vocab.bin", false)
+        first.attach { }
+        first.close()
+        assertFalse(first.isOwner)
+
+        val second = registry.acquire("model.tflite", "vocab.bin", false)
+        assertFalse(second.isOwner)
+        assertFalse(first.detachIfOwner { fail("not the owner") })
+    }
+
+    @Test
+    fun acquire_failedLoad_throwsAndRetriesNextTime() = runBlocking {
+        modelLoads = false
+        try {
+            registry.acquire("model.tflite", "vocab.bin", false)
+            fail("Expected IOException")
+        } catch (e: IOException) {
+            // expected
+        }
+
+        modelLoads = true
+        val lease = registry.acquire("model.tflite", "vocab.bin", false)
+        assertTrue(lease.whisper.isModelLoaded)
+        assertEquals(2, whispers.constructed().size)
+    }
+}
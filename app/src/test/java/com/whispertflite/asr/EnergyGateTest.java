@@ -0,0 +1,156 @@
+package com.whispertflite.asr;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class EnergyGateTest {
+
+    private static final int FRAME_SAMPLES = 480;
+    private static final int FRAMES_PER_SECOND = 16000 / FRAME_SAMPLES;
+
+    private final Random random = new Random(1);
+
+    @Test
+    public void digitalSilence_staysClosed() {
+        EnergyGate gate = new EnergyGate();
+        byte[] frame = new byte[FRAME_SAMPLES * 2];
+        for (int i = 0; i < 100; i++) {
+            assertFalse(gate.isOpen(frame, 0, frame.length));
+        }
+    }
+
+    @Test
+    public void roomNoise_staysClosed_voicedFrameOpens() {
+        EnergyGate gate = new EnergyGate();
+        for (int i = 0; i < FRAMES_PER_SECOND; i++) {
+            assertFalse(gate.isOpen(noise(200), 0, FRAME_SAMPLES * 2));
+        }
+        assertTrue(gate.isOpen(tone(200, 4000), 0, FRAME_SAMPLES * 2));
+    }
+
+    @Test
+    public void hangover_keepsGateOpenAfterSpeech() {
+        EnergyGate gate = new EnergyGate();
+        for (int i = 0; i < 10; i++) {
+            gate.isOpen(noise(200), 0, FRAME_SAMPLES * 2);
+        }
+        gate.isOpen(tone(200, 4000), 0, FRAME_SAMPLES * 2);
+        assertTrue(gate.wasActive());
+
+        for (int i = 0; i < EnergyGate.HANGOVER_FRAMES; i++) {
+            assertTrue("frame " + i, gate.isOpen(noise(200), 0, FRAME_SAMPLES * 2));
+            assertFalse(gate.wasActive()); // open, but only through the hangover
+        }
+        assertFalse(gate.isOpen(noise(200), 0, FRAME_SAMPLES * 2));
+    }
+
+    @Test
+    public void quietFricative_opens_quietHumDoesNot() {
+        EnergyGate gate = new EnergyGate();
+        for (int i = 0; i < 10; i++) {
+            gate.isOpen(tone(100, 300), 0, FRAME_SAMPLES * 2);
+        }
+        // Twice the floor: not enough energy for a vowel, but hiss has many zero crossings
+        byte[] hum = tone(100, 600);
+        assertFalse(gate.isOpen(hum, 0, hum.length));
+        assertTrue(gate.isOpen(noise(420), 0, FRAME_SAMPLES * 2));
+        assertTrue(gate.getLastZcr() > EnergyGate.FRICATIVE_ZCR);
+    }
+
+    @Test
+    public void louderSteadyNoise_isAbsorbedByNoiseFloor() {
+        EnergyGate gate = new EnergyGate();
+        for (int i = 0; i < 10; i++) {
+            gate.isOpen(noise(100), 0, FRAME_SAMPLES * 2);
+        }
+        // A fan is switched on: the gate opens, then closes once the floor has caught up
+        assertTrue(gate.isOpen(noise(1000), 0, FRAME_SAMPLES * 2));
+        int seconds = 0;
+        while (gate.isOpen(noise(1000), 0, FRAME_SAMPLES * 2)) {
+            for (int i = 1; i < FRAMES_PER_SECOND; i++) {
+                gate.isOpen(noise(1000), 0, FRAME_SAMPLES * 2);
+            }
+            seconds++;
+            assertTrue("still open after " + seconds + " s", seconds < 15);
+        }
+    }
+
+    @Test
+    public void reset_forgetsNoiseFloorAndHangover() {
+        EnergyGate gate = new EnergyGate();
+        gate.isOpen(noise(100), 0, FRAME_SAMPLES * 2);
+        gate.isOpen(tone(200, 4000), 0, FRAME_SAMPLES * 2);
+        gate.reset();
+
+        // The first frame after a reset sets the floor
+        assertFalse(gate.isOpen(tone(200, 4000), 0, FRAME_SAMPLES * 2));
+        assertEquals(gate.getLastRms(), gate.getNoiseFloor(), 0.0f);
+    }
+
+    @Test
+    public void isOpen_allocatesNothing() {
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        EnergyGate gate = new EnergyGate();
+        byte[] frame = noise(300);
+        int open = 0;
+        for (int i = 0; i < 10_000; i++) { // warm up
+            open += gate.isOpen(frame, 0, frame.length) ? 1 : 0;
+        }
+
+        long threadId = Thread.currentThread().getId();
+        long before = threads.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < 1000; i++) {
+            open += gate.isOpen(frame, 0, frame.length) ? 1 : 0;
+        }
+        long allocated = threads.getThreadAllocatedBytes(threadId) - before;
+
+        assertTrue("allocated " + allocated + " bytes, open " + open, allocated < 1024);
+    }
+
+    @Test
+    public void vadStats_countsFramesKeptFromVad() {
+        VadStats stats = new VadStats();
+        for (int i = 0; i < 10; i++) {
+            stats.addGate(100);
+        }
+        stats.addVad(5000);
+        stats.addVad(5000);
+
+        assertEquals(10, stats.getFrames());
+        assertEquals(2, stats.getVadFrames());
+        assertEquals(1000, stats.getGateNanos());
+        assertEquals(10000, stats.getVadNanos());
+        assertEquals(0.8, stats.getGatedFraction(), 1e-9);
+    }
+
+    private byte[] noise(double sigma) {
+        short[] pcm = new short[FRAME_SAMPLES];
+        for (int i = 0; i < pcm.length; i++) {
+            pcm[i] = (short) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, random.nextGaussian() * sigma));
+        }
+        return toBytes(pcm);
+    }
+
+    private static byte[] tone(double hz, double amplitude) {
+        short[] pcm = new short[FRAME_SAMPLES];
+        for (int i = 0; i < pcm.length; i++) {
+            pcm[i] = (short) (amplitude * Math.sin(2 * Math.PI * hz * i / 16000.0));
+        }
+        return toBytes(pcm);
+    }
+
+    private static byte[] toBytes(short[] pcm) {
+        ByteBuffer bytes = ByteBuffer.allocate(pcm.length * 2).order(ByteOrder.nativeOrder());
+        for (short value : pcm) {
+            bytes.putShort(value);
+        }
+        return bytes.array();
+    }
+}
@@ -0,0 +1,182 @@
+package com.whispertflite.asr;
+
+import com.whispertflite.utils.Resampler;
+import com.whispertflite.utils.WaveUtil;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+
+import static org.junit.Assert.*;
+
+public class FileAudioSourceTest {
+
+    @Test
+    public void read_returnsAudioInOrder_thenEndOfStream() {
+        byte[] pcm = pcm(1000);
+        FileAudioSource source = new FileAudioSource(pcm, false);
+        source.start();
+
+        byte[] read = new byte[pcm.length];
+        int total = 0;
+        while (true) {
+            int n = source.read(read, total, 960);
+            if (n <= 0) break;
+            total += n;
+        }
+        assertEquals(pcm.length, total);
+        assertArrayEquals(pcm, read);
+        assertEquals(0, source.remaining());
+        assertEquals(-1, source.read(new byte[960], 0, 960));
+    }
+
+    @Test
+    public void start_rewinds() {
+        FileAudioSource source = new FileAudioSource(pcm(480), false);
+        source.start();
+        source.read(new byte[960], 0, 960);
+        source.start();
+
+        assertEquals(960, source.remaining());
+    }
+
+    @Test
+    public void realTime_pacesReadsLikeTheMicrophone() {
+        // 0.3 s of audio
+        FileAudioSource source = new FileAudioSource(pcm(4800), true);
+        byte[] frame = new byte[960];
+        long start = System.nanoTime();
+        source.start();
+        while (source.read(frame, 0, frame.length) > 0) {
+        }
+        long elapsedMs = (System.nanoTime() - start) / 1_000_000;
+
+        assertTrue("took " + elapsedMs + " ms", elapsedMs >= 290);
+    }
+
+    @Test
+    public void fastMode_doesNotWait() {
+        // 60 s of audio
+        FileAudioSource source = new FileAudioSource(pcm(16000 * 60), false);
+        byte[] frame = new byte[960];
+        long start = System.nanoTime();
+        source.start();
+        while (source.read(frame, 0, frame.length) > 0) {
+        }
+        long elapsedMs = (System.nanoTime() - start) / 1_000_000;
+
+        assertTrue("took " + elapsedMs + " ms", elapsedMs < 2000);
+    }
+
+    @Test
+    public void fromWaveFile_roundTripsSixteenBitAudio() throws IOException {
+        byte[] pcm = pcm(1600);
+        File file = File.createTempFile("replay", ".wav");
+        file.deleteOnExit();
+        WaveUtil.createWaveFile(file.getPath(), pcm, 16000, 1, 2);
+
+        FileAudioSource source = FileAudioSource.fromWaveFile(file.getPath(), false);
+        source.start();
+        byte[] read = new byte[pcm.length];
+        assertEquals(pcm.length, source.read(read, 0, read.length));
+        assertArrayEquals(pcm, read);
+    }
+
+    @Test
+    public void fromWaveFile_48kStereo_isConvertedTo16kMono() throws IOException {
+        // 0.5 s of a 500 Hz tone, the same on both channels
+        ByteBuffer stereo = ByteBuffer.allocate(24000 * 4).order(ByteOrder.nativeOrder());
+        for (int i = 0; i < 24000; i++) {
+            short value = (short) (10000 * Math.sin(2 * Math.PI * 500 * i / 48000.0));
+            stereo.putShort(value);
+            stereo.putShort(value);
+        }
+        File file = File.createTempFile("replay", ".wav");
+        file.deleteOnExit();
+        WaveUtil.createWaveFile(file.getPath(), stereo.array(), 48000, 2, 2);
+
+        FileAudioSource source = FileAudioSource.fromWaveFile(file.getPath(), false);
+        assertEquals(24000 * 4, source.remaining());
+        source.start();
+        byte[] read = new byte[8000 * 2];
+        int total = 0;
+        while (true) {
+            int n = source.read(read, total, Math.min(960, read.length - total));
+            if (n <= 0) break;
+            total += n;
+        }
+        // Minus the tail still in the filter
+        assertTrue("read " + total, total > 7900 * 2);
+        assertToneAt16k(read, total / 2, 500, 10000, new Resampler(48000, 16000, 2).latency());
+    }
+
+    @Test
+    public void fromPcmFile_48kStereo_isConvertedWhileReading() throws IOException {
+        ByteBuffer stereo = ByteBuffer.allocate(48000 * 4).order(ByteOrder.LITTLE_ENDIAN);
+        for (int i = 0; i < 48000; i++) {
+            short value = (short) (10000 * Math.sin(2 * Math.PI * 500 * i / 48000.0));
+            stereo.putShort(value);
+            stereo.putShort(value);
+        }
+        File file = File.createTempFile("replay", ".pcm");
+        file.deleteOnExit();
+        Files.write(file.toPath(), stereo.array());
+
+        FileAudioSource source = FileAudioSource.fromPcmFile(file.getPath(), 48000, 2, false);
+        source.start();
+        byte[] read = new byte[16000 * 2];
+        int total = 0;
+        while (true) {
+            int n = source.read(read, total, Math.min(960, read.length - total));
+            if (n <= 0) break;
+            assertTrue(n <= 960);
+            total += n;
+        }
+        // Minus the tail still in the filter
+        assertTrue("read " + total, total > 15900 * 2);
+        assertToneAt16k(read, total / 2, 500, 10000, new Resampler(48000, 16000, 2).latency());
+    }
+
+    // Compares 16-bit samples with a tone generated at 16 kHz, delayed by delay samples
+    private static void assertToneAt16k(byte[] pcm, int samples, double hz, double amplitude, double delay) {
+        ByteBuffer bytes = ByteBuffer.wrap(pcm).order(ByteOrder.nativeOrder());
+        double maxError = 0.0;
+        for (int i = 0; i < samples; i++) {
+            short value = bytes.getShort();
+            if (i >= 100 && i < samples - 100) {
+                double expected = amplitude * Math.sin(2 * Math.PI * hz * (i - delay) / 16000.0);
+                maxError = Math.max(maxError, Math.abs(value - expected));
+            }
+        }
+        // Whole samples of filter delay are compensated, the fraction of a sample left shifts the tone slightly
+        assertTrue("max error " + maxError, maxError < amplitude * 0.05);
+    }
+
+    @Test
+    public void fromPcmFile_readsLittleEndianSamples() throws IOException {
+        File file = File.createTempFile("replay", ".pcm");
+        file.deleteOnExit();
+        Files.write(file.toPath(), new byte[]{0x34, 0x12, (byte) 0xff, (byte) 0xff});
+
+        FileAudioSource source = FileAudioSource.fromPcmFile(file.getPath(), false);
+        source.start();
+        byte[] read = new byte[4];
+        assertEquals(4, source.read(read, 0, 4));
+        ByteBuffer samples = ByteBuffer.wrap(read).order(ByteOrder.nativeOrder());
+        assertEquals(0x1234, samples.getShort());
+        assertEquals(-1, samples.getShort());
+    }
+
+    // samples of a sawtooth as native order 16-bit PCM
+    private static byte[] pcm(int samples) {
+        ByteBuffer bytes = ByteBuffer.allocate(samples * 2).order(ByteOrder.nativeOrder());
+        for (int i = 0; i < samples; i++) {
+            bytes.putShort((short) ((i * 97) % 20000 - 10000));
+        }
+        return bytes.array();
+    }
+}
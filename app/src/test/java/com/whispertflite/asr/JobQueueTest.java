@@ -0,0 +1,114 @@
+package com.whispertflite.asr;
+
+import com.whispertflite.engine.BatchItem;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class JobQueueTest {
+
+    private static WhisperJob audio(String name, Whisper.Priority priority) {
+        return WhisperJob.audio(BatchItem.fromSamples(name, new float[16]), Whisper.Action.TRANSCRIBE, -1, priority);
+    }
+
+    @Test
+    public void poll_takesInteractiveJobsBeforeBackgroundOnes() {
+        JobQueue queue = new JobQueue(4);
+        WhisperJob background = audio("b", Whisper.Priority.BACKGROUND);
+        WhisperJob interactive = audio("i", Whisper.Priority.INTERACTIVE);
+        WhisperJob end = WhisperJob.endSegments();
+
+        assertNull(queue.offer(background));
+        assertNull(queue.offer(interactive));
+        assertNull(queue.offer(end));
+
+        assertSame(interactive, queue.poll());
+        assertSame(end, queue.poll());
+        assertSame(background, queue.poll());
+        assertNull(queue.poll());
+    }
+
+    @Test
+    public void offer_whenFull_rejectsBackgroundJob() {
+        JobQueue queue = new JobQueue(1);
+        assertNull(queue.offer(audio("a", Whisper.Priority.BACKGROUND)));
+
+        WhisperJob rejected = audio("b", Whisper.Priority.BACKGROUND);
+        assertSame(rejected, queue.offer(rejected));
+        assertEquals(1, queue.size());
+    }
+
+    @Test
+    public void offer_whenFull_interactiveJobReplacesNewestBackgroundJob() {
+        JobQueue queue = new JobQueue(2);
+        WhisperJob oldest = audio("a", Whisper.Priority.BACKGROUND);
+        WhisperJob newest = audio("b", Whisper.Priority.BACKGROUND);
+        queue.offer(oldest);
+        queue.offer(newest);
+
+        WhisperJob interactive = audio("i", Whisper.Priority.INTERACTIVE);
+        assertSame(newest, queue.offer(interactive));
+        assertSame(interactive, queue.poll());
+        assertSame(oldest, queue.poll());
+    }
+
+    @Test
+    public void offer_whenFullOfInteractiveJobs_rejectsInteractiveJob() {
+        JobQueue queue = new JobQueue(1);
+        queue.offer(audio("a", Whisper.Priority.INTERACTIVE));
+
+        WhisperJob rejected = audio("b", Whisper.Priority.INTERACTIVE);
+        assertSame(rejected, queue.offer(rejected));
+    }
+
+    @Test
+    public void offer_captureJobsDoNotCountAgainstCapacity() {
+        JobQueue queue = new JobQueue(1);
+        queue.offer(audio("a", Whisper.Priority.INTERACTIVE));
+
+        assertNull(queue.offer(WhisperJob.endSegments()));
+        assertNull(queue.offer(WhisperJob.endSegments()));
+        assertEquals(3, queue.size());
+        assertTrue(queue.hasCaptureJob());
+    }
+
+    @Test
+    public void requeue_putsPreemptedJobAheadOfOtherBackgroundJobs() {
+        JobQueue queue = new JobQueue(1);
+        WhisperJob preempted = audio("a", Whisper.Priority.BACKGROUND);
+        queue.offer(preempted);
+        assertSame(preempted, queue.poll());
+        WhisperJob waiting = audio("b", Whisper.Priority.BACKGROUND);
+        queue.offer(waiting);
+
+        queue.requeue(preempted);
+
+        assertSame(preempted, queue.poll());
+        assertSame(waiting, queue.poll());
+    }
+
+    @Test
+    public void removeAndDrain_freeCapacity() {
+        JobQueue queue = new JobQueue(1);
+        WhisperJob job = audio("a", Whisper.Priority.BACKGROUND);
+        queue.offer(job);
+        assertTrue(queue.remove(job));
+        assertFalse(queue.remove(job));
+        assertNull(queue.offer(audio("b", Whisper.Priority.BACKGROUND)));
+
+        assertEquals(1, queue.drain().size());
+        assertTrue(queue.isEmpty());
+        assertNull(queue.offer(audio("c", Whisper.Priority.BACKGROUND)));
+    }
+
+    @Test
+    public void jobTimings_plusSumsMeasuredStages() {
+        JobTimings sum = new JobTimings(-1, 10, 100, 1).plus(new JobTimings(5, -1, 200, 2));
+        assertEquals(5, sum.getQueueMs());
+        assertEquals(10, sum.getMelMs());
+        assertEquals(300, sum.getInferenceMs());
+        assertEquals(3, sum.getDecodeMs());
+        assertEquals(-1, JobTimings.NONE.plus(JobTimings.NONE).getMelMs());
+    }
+}
@@ -0,0 +1,71 @@
+package com.whispertflite.asr;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class PartialTranscriptTest {
+
+    @Test
+    public void update_firstHypothesis_isAllTentative() {
+        PartialTranscript partial = new PartialTranscript();
+        partial.update(" Je voudrais un");
+
+        assertEquals("", partial.getCommitted());
+        assertEquals("Je voudrais un", partial.getTentative());
+    }
+
+    @Test
+    public void update_agreeingPrefix_isCommitted() {
+        PartialTranscript partial = new PartialTranscript();
+        partial.update("Je voudrais un");
+        partial.update("Je voudrais une baguette");
+
+        assertEquals("Je voudrais", partial.getCommitted());
+        assertEquals("une baguette", partial.getTentative());
+    }
+
+    @Test
+    public void update_committedWords_areNeverRetracted() {
+        PartialTranscript partial = new PartialTranscript();
+        partial.update("I want to go");
+        partial.update("I want to go home");
+        partial.update("Eye want to go home now");
+
+        assertEquals("I want to go", partial.getCommitted());
+        assertEquals("home now", partial.getTentative());
+    }
+
+    @Test
+    public void update_comparesWithoutCaseAndPunctuation() {
+        PartialTranscript partial = new PartialTranscript();
+        partial.update("hello world");
+        partial.update("Hello, world. How are");
+
+        assertEquals("Hello, world.", partial.getCommitted());
+        assertEquals("How are", partial.getTentative());
+    }
+
+    @Test
+    public void update_emptyHypothesis_keepsCommitted() {
+        PartialTranscript partial = new PartialTranscript();
+        partial.update("good morning");
+        partial.update("good morning");
+        partial.update("");
+
+        assertEquals("good morning", partial.getCommitted());
+        assertEquals("", partial.getTentative());
+    }
+
+    @Test
+    public void reset_clearsEverything() {
+        PartialTranscript partial = new PartialTranscript();
+        partial.update("one two");
+        partial.update("one two");
+        partial.reset();
+        partial.update("three");
+
+        assertEquals("", partial.getCommitted());
+        assertEquals("three", partial.getTentative());
+    }
+}
@@ -0,0 +1,130 @@
+package com.whispertflite.asr;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import static org.junit.Assert.*;
+
+public class PcmCaptureTest {
+
+    private static final int FRAME_BYTES = 960;
+
+    private final PcmRingBuffer ring = new PcmRingBuffer();
+
+    @Test
+    public void commit_fullFrames_storesAllBytesInOrder() {
+        PcmCapture capture = newCapture(FRAME_BYTES * 4);
+        for (int f = 0; f < 4; f++) {
+            assertTrue(readAndCommit(capture, capture.frameRemaining(), f));
+        }
+        capture.finish();
+
+        assertTrue(capture.isFull());
+        byte[] recorded = recordedBytes();
+        assertEquals(FRAME_BYTES * 4, recorded.length);
+        for (int i = 0; i < recorded.length; i++) {
+            assertEquals((byte) i, recorded[i]);
+        }
+    }
+
+    @Test
+    public void commit_shortReads_completeFrameOnlyWhenFilled() {
+        PcmCapture capture = newCapture(FRAME_BYTES * 2);
+
+        assertFalse(readAndCommit(capture, 500, 0));
+        assertEquals(500, capture.frameFill());
+        assertEquals(FRAME_BYTES - 500, capture.frameRemaining());
+        assertTrue(readAndCommit(capture, capture.frameRemaining(), 0));
+        assertEquals(0, capture.frameFill());
+
+        // The completed frame is what the VAD sees, and matches the stored bytes
+        byte[] frame = capture.frame();
+        for (int i = 0; i < FRAME_BYTES; i++) {
+            assertEquals((byte) i, frame[i]);
+        }
+        assertArrayEquals(frame, recordedBytes());
+    }
+
+    @Test
+    public void commit_pastCapacity_dropsOverflow() {
+        PcmCapture capture = newCapture(FRAME_BYTES + 100);
+        readAndCommit(capture, FRAME_BYTES, 0);
+        readAndCommit(capture, FRAME_BYTES, 1);
+
+        assertTrue(capture.isFull());
+        assertEquals(FRAME_BYTES + 100, capture.size());
+        assertEquals((FRAME_BYTES + 100) / 2, ring.getCurrentRecording().length());
+    }
+
+    @Test
+    public void keepLast_dropsOlderAudio() {
+        PcmCapture capture = newCapture(FRAME_BYTES * 4);
+        readAndCommit(capture, FRAME_BYTES, 0);
+        readAndCommit(capture, FRAME_BYTES, 1);
+        capture.keepLast(FRAME_BYTES / 2);
+
+        assertEquals(FRAME_BYTES / 2, capture.size());
+        assertFalse(capture.isFull());
+        byte[] recorded = recordedBytes();
+        for (int i = 0; i < recorded.length; i++) {
+            assertEquals((byte) (FRAME_BYTES * 3 / 2 + i), recorded[i]);
+        }
+
+        // Capacity counts from the new start
+        readAndCommit(capture, FRAME_BYTES, 2);
+        readAndCommit(capture, FRAME_BYTES, 3);
+        assertFalse(capture.isFull());
+    }
+
+    @Test
+    public void finish_keepBytes_dropsTail() {
+        PcmCapture capture = newCapture(FRAME_BYTES * 4);
+        readAndCommit(capture, FRAME_BYTES, 0);
+        capture.finish(FRAME_BYTES / 4);
+
+        assertEquals(FRAME_BYTES / 4, capture.size());
+        assertEquals(FRAME_BYTES / 8, ring.getCurrentRecording().length());
+        assertTrue(ring.getCurrentRecording().isComplete());
+    }
+
+    @Test
+    public void reset_startsNewRecording() {
+        PcmCapture capture = newCapture(FRAME_BYTES * 2);
+        readAndCommit(capture, 300, 0);
+        capture.reset(ring);
+
+        assertEquals(0, capture.size());
+        assertEquals(0, capture.frameFill());
+        assertEquals(0, ring.getCurrentRecording().length());
+    }
+
+    private PcmCapture newCapture(int capacityBytes) {
+        PcmCapture capture = new PcmCapture(capacityBytes, FRAME_BYTES);
+        capture.reset(ring);
+        return capture;
+    }
+
+    // Current recording as native order 16-bit PCM, the way it was read
+    private byte[] recordedBytes() {
+        PcmRingBuffer.Recording recording = ring.getCurrentRecording();
+        float[] samples = new float[recording.length()];
+        recording.read(0, samples, 0, samples.length, 32768.0f);
+        ByteBuffer bytes = ByteBuffer.allocate(samples.length * 2).order(ByteOrder.nativeOrder());
+        for (float sample : samples) {
+            bytes.putShort((short) sample);
+        }
+        return bytes.array();
+    }
+
+    private static boolean readAndCommit(PcmCapture capture, int bytes, int frameIndex) {
+        byte[] target = capture.frame();
+        int fill = capture.frameFill();
+        int base = frameIndex * FRAME_BYTES + fill;
+        for (int i = 0; i < bytes; i++) {
+            target[fill + i] = (byte) (base + i);
+        }
+        return capture.commit(bytes);
+    }
+}
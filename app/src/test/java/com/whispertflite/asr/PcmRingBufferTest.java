@@ -0,0 +1,298 @@
+package com.whispertflite.asr;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class PcmRingBufferTest {
+
+    @Test
+    public void read_returnsWrittenSamples() {
+        PcmRingBuffer ring = new PcmRingBuffer(1024);
+        short[] pcm = randomPcm(300, 1);
+        PcmRingBuffer.Recording recording = ring.begin();
+        ring.write(toBytes(pcm), 0, pcm.length * 2);
+        ring.end();
+
+        assertTrue(recording.isComplete());
+        assertEquals(300, recording.length());
+        float[] window = new float[100];
+        recording.read(150, window, 0, 100, 1.0f);
+        for (int i = 0; i < 100; i++) {
+            assertEquals((float) (pcm[150 + i] / 32768.0), window[i], 0.0f);
+        }
+    }
+
+    @Test
+    public void readNormalized_matchesTwoPassConversion() {
+        PcmRingBuffer ring = new PcmRingBuffer(1 << 12);
+        short[] pcm = randomPcm(3000, 2);
+        PcmRingBuffer.Recording recording = ring.begin();
+        ring.write(toBytes(pcm), 0, pcm.length * 2);
+        ring.end();
+
+        // What the static RecordBuffer.getSamples() used to compute
+        float[] expected = new float[pcm.length];
+        float maxAbsValue = 0.0f;
+        for (int i = 0; i < pcm.length; i++) {
+            expected[i] = (float) (pcm[i] / 32768.0);
+            maxAbsValue = Math.max(maxAbsValue, Math.abs(expected[i]));
+        }
+        for (int i = 0; i < pcm.length; i++) {
+            expected[i] /= maxAbsValue;
+        }
+
+        float[] samples = new float[pcm.length];
+        assertEquals(pcm.length, recording.readNormalized(samples, pcm.length));
+        assertArrayEquals(expected, samples, 0.0f);
+        assertEquals(maxAbsValue, recording.peak(), 0.0f);
+    }
+
+    @Test
+    public void readNormalized_capsAtMaxSamples() {
+        PcmRingBuffer ring = new PcmRingBuffer(1024);
+        short[] pcm = randomPcm(500, 3);
+        ring.begin();
+        ring.write(toBytes(pcm), 0, pcm.length * 2);
+        ring.end();
+
+        assertEquals(200, ring.getCurrentRecording().readNormalized(new float[200], 200));
+    }
+
+    @Test
+    public void recordings_wrapAroundRing() {
+        PcmRingBuffer ring = new PcmRingBuffer(1024);
+        ring.begin();
+        ring.write(toBytes(randomPcm(700, 4)), 0, 1400);
+        ring.end();
+
+        short[] pcm = randomPcm(600, 5);
+        PcmRingBuffer.Recording second = ring.begin();
+        ring.write(toBytes(pcm), 0, pcm.length * 2);
+        ring.end();
+
+        assertTrue(second.isIntact());
+        float[] samples = new float[600];
+        second.read(0, samples, 0, 600, 32768.0f);
+        for (int i = 0; i < 600; i++) {
+            assertEquals(pcm[i], (short) samples[i]);
+        }
+    }
+
+    @Test
+    public void recording_overwrittenByLaterAudio_isNotIntact() {
+        PcmRingBuffer ring = new PcmRingBuffer(1024);
+        PcmRingBuffer.Recording first = ring.begin();
+        ring.write(toBytes(randomPcm(700, 6)), 0, 1400);
+        ring.end();
+        ring.begin();
+        ring.write(toBytes(randomPcm(700, 7)), 0, 1400);
+
+        assertFalse(first.isIntact());
+    }
+
+    @Test(expected = RecordingOverwrittenException.class)
+    public void readNormalized_overwrittenRecording_throws() {
+        PcmRingBuffer ring = new PcmRingBuffer(1024);
+        PcmRingBuffer.Recording first = ring.begin();
+        ring.write(toBytes(randomPcm(700, 12)), 0, 1400);
+        ring.end();
+        ring.begin();
+        ring.write(toBytes(randomPcm(700, 13)), 0, 1400);
+
+        first.readNormalized(new float[700], 700);
+    }
+
+    @Test
+    public void read_overwrittenWindow_throws() {
+        PcmRingBuffer ring = new PcmRingBuffer(1024);
+        PcmRingBuffer.Recording first = ring.begin();
+        ring.write(toBytes(randomPcm(700, 14)), 0, 1400);
+        ring.end();
+        ring.begin();
+        ring.write(toBytes(randomPcm(500, 15)), 0, 1000);
+
+        // The first 176 samples were overwritten, the rest still reads
+        first.read(200, new float[500], 0, 500, 1.0f);
+        try {
+            first.read(100, new float[100], 0, 100, 1.0f);
+            fail("read overwritten samples");
+        } catch (RecordingOverwrittenException expected) {
+        }
+    }
+
+    @Test
+    public void begin_closesUnfinishedRecording() {
+        PcmRingBuffer ring = new PcmRingBuffer(1024);
+        PcmRingBuffer.Recording first = ring.begin();
+        ring.write(toBytes(randomPcm(100, 8)), 0, 200);
+        PcmRingBuffer.Recording second = ring.begin();
+        ring.write(toBytes(randomPcm(50, 9)), 0, 100);
+
+        assertTrue(first.isComplete());
+        assertEquals(100, first.length());
+        assertFalse(second.isComplete());
+        assertEquals(50, second.length());
+        assertSame(second, ring.getCurrentRecording());
+    }
+
+    @Test
+    public void trimHead_dropsStartAndRecomputesPeak() {
+        PcmRingBuffer ring = new PcmRingBuffer(1024);
+        short[] pcm = randomPcm(400, 11);
+        pcm[10] = Short.MAX_VALUE; // in the part that is dropped
+        PcmRingBuffer.Recording recording = ring.begin();
+        ring.write(toBytes(pcm), 0, pcm.length * 2);
+        ring.trimHead(300);
+
+        assertEquals(100, recording.length());
+        float[] samples = new float[100];
+        recording.read(0, samples, 0, 100, 32768.0f);
+        int peak = 0;
+        for (int i = 0; i < 100; i++) {
+            assertEquals(pcm[300 + i], (short) samples[i]);
+            peak = Math.max(peak, Math.abs(pcm[300 + i]));
+        }
+        assertEquals((float) (peak / 32768.0), recording.peak(), 0.0f);
+
+        // Writing continues after the trimmed head
+        ring.write(toBytes(new short[]{1, 2}), 0, 4);
+        assertEquals(102, recording.length());
+    }
+
+    @Test
+    public void end_keepSamples_dropsTailAndRecomputesPeak() {
+        PcmRingBuffer ring = new PcmRingBuffer(1024);
+        short[] pcm = randomPcm(400, 12);
+        pcm[350] = Short.MIN_VALUE;
+        PcmRingBuffer.Recording recording = ring.begin();
+        ring.write(toBytes(pcm), 0, pcm.length * 2);
+        ring.end(250);
+
+        assertTrue(recording.isComplete());
+        assertEquals(250, recording.length());
+        assertTrue(recording.peak() < 1.0f);
+
+        ring.begin();
+        ring.end(1000);
+        assertEquals(0, ring.getCurrentRecording().length());
+    }
+
+    @Test
+    public void begin_withOverlap_repeatsEndOfPreviousRecording() {
+        PcmRingBuffer ring = new PcmRingBuffer(1024);
+        short[] first = randomPcm(300, 13);
+        ring.begin();
+        ring.write(toBytes(first), 0, first.length * 2);
+        PcmRingBuffer.Recording second = ring.begin(100);
+        ring.write(toBytes(new short[]{7, 8}), 0, 4);
+        ring.end();
+
+        assertEquals(100, second.overlapSamples());
+        assertEquals(102, second.length());
+        float[] samples = new float[102];
+        second.read(0, samples, 0, 102, 32768.0f);
+        for (int i = 0; i < 100; i++) {
+            assertEquals(first[200 + i], (short) samples[i]);
+        }
+        assertEquals(8, (short) samples[101]);
+
+        // The overlap counts towards the peak
+        int peak = 0;
+        for (int i = 200; i < 300; i++) {
+            peak = Math.max(peak, Math.abs(first[i]));
+        }
+        assertEquals((float) (peak / 32768.0), second.peak(), 0.0f);
+    }
+
+    @Test
+    public void begin_overlapLongerThanWritten_isClamped() {
+        PcmRingBuffer ring = new PcmRingBuffer(1024);
+        ring.begin();
+        ring.write(toBytes(randomPcm(50, 14)), 0, 100);
+
+        assertEquals(50, ring.begin(100).overlapSamples());
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void read_pastCommittedSamples_throws() {
+        PcmRingBuffer ring = new PcmRingBuffer(1024);
+        ring.begin();
+        ring.write(toBytes(randomPcm(100, 10)), 0, 200);
+        ring.getCurrentRecording().read(50, new float[100], 0, 100, 1.0f);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void write_withoutRecording_throws() {
+        new PcmRingBuffer(1024).write(new byte[4], 0, 4);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void constructor_capacityNotPowerOfTwo_throws() {
+        new PcmRingBuffer(1000);
+    }
+
+    @Test
+    public void reader_seesCommittedSamplesWhileRecording() throws Exception {
+        PcmRingBuffer ring = new PcmRingBuffer(1 << 16);
+        int chunk = 160;
+        int chunks = 300;
+        PcmRingBuffer.Recording recording = ring.begin();
+        AtomicReference<String> failure = new AtomicReference<>();
+
+        // Sample i of the recording has value i % 32768, so any window can be checked
+        Thread reader = new Thread(() -> {
+            float[] window = new float[chunk];
+            int checked = 0;
+            while (checked < chunk * chunks && failure.get() == null) {
+                int available = recording.length();
+                while (checked + chunk <= available) {
+                    recording.read(checked, window, 0, chunk, 32768.0f);
+                    for (int i = 0; i < chunk; i++) {
+                        if ((short) window[i] != (short) ((checked + i) % 32768)) {
+                            failure.set("sample " + (checked + i) + " was " + window[i]);
+                            return;
+                        }
+                    }
+                    checked += chunk;
+                }
+            }
+        });
+        reader.start();
+
+        short[] pcm = new short[chunk];
+        for (int c = 0; c < chunks; c++) {
+            for (int i = 0; i < chunk; i++) {
+                pcm[i] = (short) ((c * chunk + i) % 32768);
+            }
+            ring.write(toBytes(pcm), 0, chunk * 2);
+        }
+        ring.end();
+        reader.join(10_000);
+
+        assertNull(failure.get(), failure.get());
+        assertFalse(reader.isAlive());
+    }
+
+    private static short[] randomPcm(int n, long seed) {
+        Random random = new Random(seed);
+        short[] pcm = new short[n];
+        for (int i = 0; i < n; i++) {
+            pcm[i] = (short) (random.nextGaussian() * 4000);
+        }
+        return pcm;
+    }
+
+    private static byte[] toBytes(short[] pcm) {
+        ByteBuffer bytes = ByteBuffer.allocate(pcm.length * 2).order(ByteOrder.nativeOrder());
+        for (short value : pcm) {
+            bytes.putShort(value);
+        }
+        return bytes.array();
+    }
+}
@@ -0,0 +1,329 @@
+package com.whispertflite.asr;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class RecorderTest {
+
+    private static final int FRAME_BYTES = Recorder.VAD_FRAME_SIZE * 2;
+    private static final int THIRTY_SECONDS = 16000 * 2 * 30;
+
+    private static final Recorder.SpeechDetector ALWAYS_SPEECH = new Recorder.SpeechDetector() {
+        @Override
+        public boolean isSpeech(byte[] frame) {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+    };
+
+    private final PcmRingBuffer ring = new PcmRingBuffer();
+    private final List<String> updates = new CopyOnWriteArrayList<>();
+    private Recorder recorder;
+
+    @Before
+    public void setUp() {
+        recorder = new Recorder(null);
+        recorder.setRecordBuffer(ring);
+    }
+
+    @After
+    public void tearDown() {
+        recorder.release();
+    }
+
+    @Test
+    public void readError_stillStopsSource() throws Exception {
+        ScriptedSource source = new ScriptedSource(100) {
+            @Override
+            public int read(byte[] buffer, int offset, int length) {
+                if (framesRead() == 10) {
+                    throw new IllegalStateException("device gone");
+                }
+                return super.read(buffer, offset, length);
+            }
+        };
+        CountDownLatch failed = new CountDownLatch(1);
+        recorder.setListener(message -> {
+            updates.add(message);
+            if ("device gone".equals(message)) {
+                failed.countDown();
+            }
+        });
+        recorder.setAudioSource(source);
+        recorder.start();
+
+        assertTrue(updates.toString(), failed.await(10, TimeUnit.SECONDS));
+        assertTrue(source.stopped);
+    }
+
+    @Test
+    public void stop_afterCaptureEndedByItself_returns() throws Exception {
+        record(new ScriptedSource(20));
+
+        // Used to wait for a notification that had already been sent and never return
+        Thread stopper = new Thread(recorder::stop);
+        stopper.start();
+        stopper.join(5000);
+        assertFalse("stop() blocked", stopper.isAlive());
+    }
+
+    @Test
+    public void noPreRoll_recordingStartsWithTriggeringFrame() throws Exception {
+        // Quiet frames, then speech from frame 20 to 39; each speech sample carries its frame number
+        ScriptedSource source = new ScriptedSource(100) {
+            @Override
+            short sample(int frame, int index) {
+                if (frame < 20 || frame >= 40) {
+                    return 1;
+                }
+                return (short) (index % 2 == 0 ? 8000 + frame : -8000 - frame);
+            }
+        };
+        recorder.initVad(new Recorder.SpeechDetector() {
+            @Override
+            public boolean isSpeech(byte[] frame) {
+                return Math.abs(ByteBuffer.wrap(frame).order(ByteOrder.nativeOrder()).getShort(0)) > 1000;
+            }
+
+            @Override
+            public void close() {
+            }
+        });
+        recorder.setPreRollMs(0);
+        record(source);
+
+        PcmRingBuffer.Recording recording = ring.getCurrentRecording();
+        float[] samples = new float[recording.length()];
+        recording.read(0, samples, 0, samples.length, 32768.0f);
+        assertEquals(8020.0f, samples[0], 0.0f);
+        assertEquals(-8020.0f, samples[1], 0.0f);
+        assertTrue(recording.length() >= 20 * Recorder.VAD_FRAME_SIZE);
+    }
+
+    @Test
+    public void vadHangover_isCutToTrailingSilence() throws Exception {
+        // Speech from frame 20 to 39, the detector keeps saying speech for 20 more frames like
+        // the smoothed WebRTC VAD does
+        ScriptedSource source = new ScriptedSource(100) {
+            @Override
+            short sample(int frame, int index) {
+                if (frame < 20 || frame >= 40) {
+                    return 1;
+                }
+                return (short) (index % 2 == 0 ? 8000 : -8000);
+            }
+        };
+        int[] calls = {0};
+        recorder.initVad(new Recorder.SpeechDetector() {
+            @Override
+            public boolean isSpeech(byte[] frame) {
+                return ++calls[0] <= 40;
+            }
+
+            @Override
+            public void close() {
+            }
+        });
+        recorder.setPreRollMs(0);
+        recorder.setTrailingSilenceMs(300);
+        record(source);
+
+        // 20 speech frames and 300 ms (10 frames) of what follows, not the detector's hangover
+        assertEquals(30 * Recorder.VAD_FRAME_SIZE, ring.getCurrentRecording().length());
+    }
+
+    @Test
+    public void noSpeech_captureEndsAfterTimeout() throws Exception {
+        ScriptedSource source = new ScriptedSource(Integer.MAX_VALUE) {
+            @Override
+            short sample(int frame, int index) {
+                return 1;
+            }
+        };
+        recorder.initVad(new Recorder.SpeechDetector() {
+            @Override
+            public boolean isSpeech(byte[] frame) {
+                return false;
+            }
+
+            @Override
+            public void close() {
+            }
+        });
+        recorder.setNoSpeechTimeoutMs(1000);
+        CountDownLatch ended = new CountDownLatch(1);
+        recorder.setListener(message -> {
+            updates.add(message);
+            ended.countDown();
+        });
+        recorder.setAudioSource(source);
+        recorder.start();
+
+        assertTrue("capture without speech did not end", ended.await(10, TimeUnit.SECONDS));
+        // 1000 ms of 30 ms frames, reported as no speech rather than as a failed recording
+        assertEquals(34, source.framesRead());
+        assertEquals(Collections.singletonList(Recorder.MSG_NO_SPEECH), updates);
+    }
+
+    @Test
+    public void captureLoop_thirtySeconds_allocatesNothing() throws Exception {
+        TimedSource source = new TimedSource();
+        for (int round = 0; round < 3; round++) { // the first rounds warm up
+            recorder.initVad(ALWAYS_SPEECH);
+            record(source);
+        }
+
+        // Allocated by the recorder thread between the second and the last frame of the capture
+        long allocated = source.allocatedBytes[source.frames - 1] - source.allocatedBytes[1];
+
+        // The old loop copied the whole recording once per frame, ~450 MB for 30 s
+        assertEquals(THIRTY_SECONDS / FRAME_BYTES, source.frames);
+        assertTrue("allocated " + allocated + " bytes", allocated < 4096);
+    }
+
+    @Test
+    public void captureLoop_perFrameCost_doesNotGrowWithRecordingLength() throws Exception {
+        TimedSource source = new TimedSource();
+        long bestFirstSecond = Long.MAX_VALUE;
+        long bestLastSecond = Long.MAX_VALUE;
+
+        int framesPerSecond = 16000 * 2 / FRAME_BYTES;
+        for (int round = 0; round < 20; round++) {
+            recorder.initVad(ALWAYS_SPEECH);
+            record(source);
+            int last = source.frames - 1;
+            bestFirstSecond = Math.min(bestFirstSecond, source.readNanos[framesPerSecond + 1] - source.readNanos[1]);
+            bestLastSecond = Math.min(bestLastSecond, source.readNanos[last] - source.readNanos[last - framesPerSecond]);
+        }
+
+        // With a per-frame copy of everything recorded so far the last second of a 30 s
+        // capture costs ~30x the first; a constant-cost loop stays near 1x
+        assertTrue("first second " + bestFirstSecond + " ns, last second " + bestLastSecond + " ns",
+                bestLastSecond < bestFirstSecond * 4 + 200_000);
+    }
+
+    private void record(AudioSource source) throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(1);
+        recorder.setListener(message -> {
+            updates.add(message);
+            if (message.equals(Recorder.MSG_RECORDING_DONE) || message.equals(Recorder.MSG_RECORDING_ERROR)) {
+                done.countDown();
+            }
+        });
+        recorder.setAudioSource(source);
+        recorder.start();
+
+        assertTrue("recording did not end", done.await(10, TimeUnit.SECONDS));
+        assertTrue(updates.toString(), updates.contains(Recorder.MSG_RECORDING_DONE));
+        // The update comes just before the worker marks the recording finished
+        while (recorder.isInProgress()) {
+            Thread.sleep(1);
+        }
+    }
+
+    // Generated 16-bit audio, one VAD frame per read; a loud square wave unless sample() is overridden
+    static class ScriptedSource implements AudioSource {
+        private final int frames;
+        private int read = 0;
+        volatile boolean stopped = false;
+
+        ScriptedSource(int frames) {
+            this.frames = frames;
+        }
+
+        int framesRead() {
+            return read;
+        }
+
+        @Override
+        public void start() {
+            read = 0;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) {
+            if (read == frames) {
+                return -1;
+            }
+            int count = Math.min(length, FRAME_BYTES) & ~1;
+            ByteBuffer out = ByteBuffer.wrap(buffer, offset, count).order(ByteOrder.nativeOrder());
+            for (int i = 0; i < count / 2; i++) {
+                out.putShort(sample(read, i));
+            }
+            read++;
+            return count;
+        }
+
+        short sample(int frame, int index) {
+            return (short) (index % 20 < 10 ? 0x4000 : -0x4000);
+        }
+
+        @Override
+        public void stop() {
+            stopped = true;
+        }
+    }
+
+    // Silence, then endless loud audio that notes when each frame is read and what the reading thread has
+    // allocated by then; the recording ends when the 30 s capture is full
+    static class TimedSource implements AudioSource {
+        private static final com.sun.management.ThreadMXBean THREADS =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+        final long[] readNanos = new long[THIRTY_SECONDS / FRAME_BYTES + 1];
+        final long[] allocatedBytes = new long[readNanos.length];
+        private final byte[] audio = new byte[FRAME_BYTES];
+        private long threadId;
+        int frames = 0;
+
+        TimedSource() {
+            ByteBuffer samples = ByteBuffer.wrap(audio).order(ByteOrder.nativeOrder());
+            for (int i = 0; i < FRAME_BYTES / 2; i++) {
+                samples.putShort((short) (i % 20 < 10 ? 0x4000 : -0x4000));
+            }
+        }
+
+        @Override
+        public void start() {
+            frames = 0;
+            threadId = Thread.currentThread().getId();
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) {
+            if (frames < readNanos.length) {
+                readNanos[frames] = System.nanoTime();
+                allocatedBytes[frames] = THREADS.getThreadAllocatedBytes(threadId);
+                frames++;
+            }
+            int count = Math.min(length, FRAME_BYTES);
+            if (frames == 1) {
+                // The energy gate opens on a rise over the noise floor, not on steady loud audio
+                Arrays.fill(buffer, offset, offset + count, (byte) 0);
+            } else {
+                System.arraycopy(audio, 0, buffer, offset, count);
+            }
+            return count;
+        }
+
+        @Override
+        public void stop() {
+        }
+    }
+}
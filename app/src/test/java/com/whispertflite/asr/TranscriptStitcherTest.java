@@ -0,0 +1,74 @@
+package com.whispertflite.asr;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class TranscriptStitcherTest {
+
+    @Test
+    public void append_overlappingSegment_dropsRepeatedWords() {
+        TranscriptStitcher stitcher = new TranscriptStitcher();
+        stitcher.append(" Il était une fois un petit chat", false);
+        stitcher.append(" petit chat qui dormait au soleil.", true);
+
+        assertEquals("Il était une fois un petit chat qui dormait au soleil.", stitcher.getText());
+    }
+
+    @Test
+    public void append_overlapDiffersInCaseAndPunctuation_stillMatches() {
+        TranscriptStitcher stitcher = new TranscriptStitcher();
+        stitcher.append("We went to the market.", false);
+        stitcher.append("the Market, and bought bread", true);
+
+        assertEquals("We went to the market. and bought bread", stitcher.getText());
+    }
+
+    @Test
+    public void append_segmentAfterPause_keepsAllWords() {
+        TranscriptStitcher stitcher = new TranscriptStitcher();
+        stitcher.append("I said yes", false);
+        stitcher.append("yes I did", false);
+
+        assertEquals("I said yes yes I did", stitcher.getText());
+    }
+
+    @Test
+    public void append_noCommonWords_concatenates() {
+        TranscriptStitcher stitcher = new TranscriptStitcher();
+        stitcher.append("one two three", false);
+        stitcher.append("four five", true);
+
+        assertEquals("one two three four five", stitcher.getText());
+    }
+
+    @Test
+    public void append_repeatLongerThanOverlapWindow_isKept() {
+        TranscriptStitcher stitcher = new TranscriptStitcher();
+        stitcher.append("a b c d e f g h", false);
+        stitcher.append("a b c d e f g h i", true);
+
+        // Only the last MAX_OVERLAP_WORDS words are compared, and "a" is not among them
+        assertEquals("a b c d e f g h a b c d e f g h i", stitcher.getText());
+    }
+
+    @Test
+    public void append_blankSegment_isIgnored() {
+        TranscriptStitcher stitcher = new TranscriptStitcher();
+        stitcher.append("hello", false);
+        stitcher.append("   ", true);
+        stitcher.append("hello world", true);
+
+        assertEquals("hello world", stitcher.getText());
+    }
+
+    @Test
+    public void reset_clearsText() {
+        TranscriptStitcher stitcher = new TranscriptStitcher();
+        stitcher.append("hello", false);
+        stitcher.reset();
+        stitcher.append("hello again", true);
+
+        assertEquals("hello again", stitcher.getText());
+    }
+}
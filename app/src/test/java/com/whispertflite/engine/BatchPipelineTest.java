@@ -0,0 +1,176 @@
+package com.whispertflite.engine;
+
+import com.whispertflite.asr.Whisper;
+import com.whispertflite.asr.WhisperResult;
+import com.whispertflite.asr.WhisperSegment;
+import com.whispertflite.utils.CancellationToken;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.*;
+
+public class BatchPipelineTest {
+
+    private final ExecutorService melExecutor = Executors.newSingleThreadExecutor();
+
+    @After
+    public void tearDown() {
+        melExecutor.shutdownNow();
+    }
+
+    // Transcribes a window as "<first sample * 100>/<window length>" in one segment, recording the order of stage events
+    private static class FakeStages implements BatchPipeline.Stages {
+        final List<String> events = Collections.synchronizedList(new ArrayList<>());
+        final String[] slots = new String[2];
+        final long stageMillis;
+
+        FakeStages(long stageMillis) {
+            this.stageMillis = stageMillis;
+        }
+
+        @Override
+        public void computeMel(float[] samples, int offset, int count, float peak, int slot) {
+            events.add("mel start " + slot);
+            sleep(stageMillis);
+            slots[slot] = Math.round(samples[offset] / peak * 100) + "/" + count;
+            events.add("mel end " + slot);
+        }
+
+        @Override
+        public WhisperResult infer(int slot, int samples) {
+            events.add("infer start " + slot);
+            sleep(stageMillis);
+            events.add("infer end " + slot);
+            WhisperSegment segment = new WhisperSegment(slots[slot], 0, samples / 16);
+            return new WhisperResult(slots[slot], "en", Whisper.Action.TRANSCRIBE, Collections.singletonList(segment));
+        }
+    }
+
+    @Test
+    public void run_returnsOneResultPerItemInOrder() {
+        FakeStages stages = new FakeStages(0);
+        List<BatchResult> results = new BatchPipeline(melExecutor, stages).run(Arrays.asList(
+                BatchItem.fromSamples("a", constant(1000, 0.5f)),
+                BatchItem.fromSamples("b", constant(2000, 0.25f))));
+
+        assertEquals(2, results.size());
+        assertEquals("a", results.get(0).getItem().getName());
+        assertEquals("100/1000", results.get(0).getResult().getResult());
+        assertEquals("100/2000", results.get(1).getResult().getResult());
+        assertEquals("en", results.get(1).getResult().getLanguage());
+        assertNull(results.get(1).getError());
+    }
+
+    @Test
+    public void run_longItem_isTranscribedWindowByWindow() {
+        FakeStages stages = new FakeStages(0);
+        float[] samples = constant(BatchPipeline.WINDOW_SAMPLES * 2 + 100, 0.5f);
+        samples[BatchPipeline.WINDOW_SAMPLES] = 0.25f;
+
+        BatchResult result = new BatchPipeline(melExecutor, stages)
+                .run(Collections.singletonList(BatchItem.fromSamples("long", samples))).get(0);
+
+        assertEquals(3, result.getWindows());
+        assertEquals("100/480000 50/480000 100/100", result.getResult().getResult());
+
+        // Segment times count from the start of the item
+        List<WhisperSegment> segments = result.getResult().getSegments();
+        assertEquals(3, segments.size());
+        assertEquals(30_000, segments.get(1).getStartMs());
+        assertEquals(60_000, segments.get(1).getEndMs());
+        assertEquals(60_000, segments.get(2).getStartMs());
+        assertEquals(60_006, segments.get(2).getEndMs());
+    }
+
+    @Test
+    public void run_melOfNextItemOverlapsInference() {
+        FakeStages stages = new FakeStages(30);
+        new BatchPipeline(melExecutor, stages).run(Arrays.asList(
+                BatchItem.fromSamples("a", constant(100, 0.5f)),
+                BatchItem.fromSamples("b", constant(100, 0.5f)),
+                BatchItem.fromSamples("c", constant(100, 0.5f))));
+
+        List<String> events = new ArrayList<>(stages.events);
+        // Item b's mel (slot 1) starts before item a's inference (slot 0) ends
+        assertTrue(events.toString(), events.indexOf("mel start 1") < events.indexOf("infer end 0"));
+        // Item c reuses slot 0, but only after item a's inference is done with it
+        assertTrue(events.toString(), events.lastIndexOf("mel start 0") > events.indexOf("infer end 0"));
+    }
+
+    @Test
+    public void run_itemThatFailsToLoad_isReportedAndSkipped() {
+        FakeStages stages = new FakeStages(0);
+        List<BatchResult> results = new BatchPipeline(melExecutor, stages).run(Arrays.asList(
+                BatchItem.fromWaveFile("/does/not/exist.wav"),
+                BatchItem.fromSamples("b", constant(100, 0.5f))));
+
+        assertEquals(2, results.size());
+        assertNotNull(results.get(0).getError());
+        assertEquals("", results.get(0).getResult().getResult());
+        assertEquals("100/100", results.get(1).getResult().getResult());
+    }
+
+    @Test
+    public void run_cancelledDuringInference_reportsRemainingItemsAsCancelled() {
+        CancellationToken cancel = new CancellationToken();
+        FakeStages stages = new FakeStages(0) {
+            @Override
+            public WhisperResult infer(int slot, int samples) {
+                WhisperResult result = super.infer(slot, samples);
+                if (events.stream().filter(e -> e.startsWith("infer end")).count() == 2) {
+                    cancel.cancel();
+                }
+                return result;
+            }
+        };
+        List<BatchResult> results = new BatchPipeline(melExecutor, stages, cancel).run(Arrays.asList(
+                BatchItem.fromSamples("a", constant(100, 0.5f)),
+                BatchItem.fromSamples("b", constant(100, 0.5f)),
+                BatchItem.fromSamples("c", constant(100, 0.5f)),
+                BatchItem.fromSamples("d", constant(100, 0.5f))));
+
+        assertEquals(4, results.size());
+        assertNull(results.get(0).getError());
+        assertEquals(BatchPipeline.CANCELLED, results.get(1).getError());
+        assertEquals("c", results.get(2).getItem().getName());
+        assertEquals(BatchPipeline.CANCELLED, results.get(3).getError());
+        // Nothing was started after the cancel
+        assertEquals(2, stages.events.stream().filter(e -> e.startsWith("infer start")).count());
+    }
+
+    @Test
+    public void run_emptyBatch_returnsNothing() {
+        assertTrue(new BatchPipeline(melExecutor, new FakeStages(0)).run(Collections.emptyList()).isEmpty());
+    }
+
+    @Test
+    public void fromPcm16_convertsToSixteenKilohertzMono() throws IOException {
+        byte[] stereo48k = new byte[48000 * 4]; // 1 s of silence
+        float[] samples = BatchItem.fromPcm16("clip", stereo48k, 48000, 2).load();
+
+        assertTrue(Math.abs(samples.length - 16000) <= 1);
+    }
+
+    private static float[] constant(int n, float value) {
+        float[] samples = new float[n];
+        Arrays.fill(samples, value);
+        return samples;
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
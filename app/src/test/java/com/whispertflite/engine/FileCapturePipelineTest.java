@@ -0,0 +1,188 @@
+package com.whispertflite.engine;
+
+import com.whispertflite.asr.FileAudioSource;
+import com.whispertflite.asr.PcmRingBuffer;
+import com.whispertflite.asr.Recorder;
+import com.whispertflite.asr.Whisper;
+import com.whispertflite.asr.WhisperResult;
+import com.whispertflite.utils.CancellationToken;
+import com.whispertflite.utils.TestVocabFiles;
+import com.whispertflite.utils.WhisperUtil;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+// Replays a file through the real Recorder, record buffer, streaming mel and engine, up to the interpreter
+public class FileCapturePipelineTest {
+
+    private static final int N_SAMPLES = WhisperUtil.WHISPER_SAMPLE_RATE * WhisperUtil.WHISPER_CHUNK_SIZE;
+    private static final float TOLERANCE = 1e-5f;
+
+    private File vocabFile;
+    private ScriptedEngine engine;
+    private Recorder recorder;
+
+    @Before
+    public void setUp() throws IOException {
+        vocabFile = TestVocabFiles.write(100);
+        engine = new ScriptedEngine();
+        engine.initialize("unused.tflite", vocabFile.getAbsolutePath(), false);
+        assertTrue(engine.isInitialized());
+
+        // Wired the way AsrEngineRegistry wires a shared engine
+        recorder = new Recorder(null);
+        recorder.setRecordBuffer(engine.getRecordBuffer());
+        recorder.setStreamingMel(engine.getStreamingMel());
+    }
+
+    @After
+    public void tearDown() {
+        recorder.release();
+        engine.deinitialize();
+    }
+
+    @Test
+    public void recording_fromFile_isStreamedIntoMelAndTranscribed() throws Exception {
+        byte[] pcm = toPcm(TestVocabFiles.speechLikeSignal(32_000, 32_000, 21), 0.5f);
+        record(new FileAudioSource(pcm, false));
+
+        PcmRingBuffer.Recording recording = engine.getRecordBuffer().getCurrentRecording();
+        assertTrue(recording.isComplete());
+        assertEquals(pcm.length / 2, recording.length());
+        float[] recorded = new float[recording.length()];
+        recording.read(0, recorded, 0, recorded.length, 32768.0f);
+        ByteBuffer expected = ByteBuffer.wrap(pcm).order(ByteOrder.nativeOrder());
+        for (float sample : recorded) {
+            assertEquals(expected.getShort(), (short) sample);
+        }
+
+        int beg = engine.whisperUtil().getTokenBEG();
+        engine.tokens = new int[]{beg, 5, 6, beg + 50, engine.whisperUtil().getTokenEOT()};
+        WhisperResult result = engine.processRecording(recording, Whisper.Action.TRANSCRIBE, -1, new CancellationToken());
+
+        assertEquals("tok5tok6", result.getResult());
+        assertEquals(1, result.getSegments().size());
+        // The mel streamed while recording is what the batch path computes from the recording
+        assertEquals(1, engine.inputs.size());
+        assertArrayEquals(batchSpectrogram(recording), engine.inputs.get(0), TOLERANCE);
+    }
+
+    @Test
+    public void longFormCapture_fromFile_isCutIntoOverlappingSegments() throws Exception {
+        List<PcmRingBuffer.Recording> segments = new CopyOnWriteArrayList<>();
+        recorder.setSegmentListener(new Recorder.SegmentListener() {
+            @Override
+            public void onSegment(PcmRingBuffer.Recording segment) {
+                segments.add(segment);
+            }
+
+            @Override
+            public void onCaptureEnd() {
+            }
+        });
+        byte[] pcm = toPcm(TestVocabFiles.speechLikeSignal(50 * 16_000, 50 * 16_000, 22), 0.5f);
+        record(new FileAudioSource(pcm, false));
+
+        // Cut at 30 s, the second segment repeats the last second of the first
+        assertEquals(2, segments.size());
+        assertEquals(N_SAMPLES, segments.get(0).length());
+        assertEquals(16_000, segments.get(1).overlapSamples());
+        assertEquals(50 * 16_000 - N_SAMPLES + 16_000, segments.get(1).length());
+
+        engine.tokens = new int[]{7, engine.whisperUtil().getTokenEOT()};
+        for (PcmRingBuffer.Recording segment : segments) {
+            WhisperResult result = engine.processRecording(segment, Whisper.Action.TRANSCRIBE, -1, new CancellationToken());
+            assertEquals("tok7", result.getResult());
+            assertArrayEquals(batchSpectrogram(segment), engine.inputs.get(engine.inputs.size() - 1), TOLERANCE);
+        }
+    }
+
+    private void record(FileAudioSource source) throws InterruptedException {
+        List<String> updates = new CopyOnWriteArrayList<>();
+        CountDownLatch done = new CountDownLatch(1);
+        recorder.setListener(message -> {
+            updates.add(message);
+            if (message.equals(Recorder.MSG_RECORDING_DONE) || message.equals(Recorder.MSG_RECORDING_ERROR)) {
+                done.countDown();
+            }
+        });
+        recorder.setAudioSource(source);
+        recorder.start();
+
+        assertTrue("recording did not end", done.await(30, TimeUnit.SECONDS));
+        assertTrue(updates.toString(), updates.contains(Recorder.MSG_RECORDING_DONE));
+        assertEquals(0, source.remaining());
+    }
+
+    // Same steps as the engine without streaming: peak-normalized recording -> 30 s mel
+    private float[] batchSpectrogram(PcmRingBuffer.Recording recording) throws IOException {
+        WhisperUtil util = new WhisperUtil();
+        assertTrue(util.loadFiltersAndVocab(false, vocabFile.getAbsolutePath()));
+        float[] samples = new float[N_SAMPLES];
+        int count = recording.readNormalized(samples, N_SAMPLES);
+        float[] mel = new float[WhisperUtil.WHISPER_N_MEL * N_SAMPLES / WhisperUtil.WHISPER_HOP_LENGTH];
+        util.getMelSpectrogram(samples, N_SAMPLES, count, 1, FloatBuffer.wrap(mel));
+        util.shutdown();
+        return mel;
+    }
+
+    private static byte[] toPcm(float[] signal, float gain) {
+        ByteBuffer buffer = ByteBuffer.allocate(signal.length * 2).order(ByteOrder.nativeOrder());
+        for (float s : signal) {
+            buffer.putShort((short) Math.round(Math.max(-1.0f, Math.min(1.0f, s * gain)) * 32767));
+        }
+        return buffer.array();
+    }
+
+    // The real engine without a model: keeps the mel it would run and returns scripted tokens
+    private static final class ScriptedEngine extends WhisperEngineJava {
+        final List<float[]> inputs = new ArrayList<>();
+        int[] tokens = new int[0];
+
+        ScriptedEngine() {
+            super(null);
+        }
+
+        WhisperUtil whisperUtil() {
+            return getWhisperUtil();
+        }
+
+        @Override
+        protected void openModel(String modelPath) {
+        }
+
+        @Override
+        protected void createInterpreters(int numThreads) {
+        }
+
+        @Override
+        protected void closeModel() {
+        }
+
+        @Override
+        protected IntBuffer generateTokens(ByteBuffer input, Whisper.Action mAction, int mLangToken, CancellationToken cancel) {
+            ByteBuffer bytes = input.duplicate().order(ByteOrder.nativeOrder());
+            bytes.rewind();
+            FloatBuffer floats = bytes.asFloatBuffer();
+            float[] mel = new float[floats.remaining()];
+            floats.get(mel);
+            inputs.add(mel);
+            return IntBuffer.wrap(tokens);
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package com.whispertflite.engine;
+
+import com.whispertflite.asr.WhisperSegment;
+import com.whispertflite.utils.Utf8Builder;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class SegmentBuilderTest {
+
+    private final SegmentBuilder builder = new SegmentBuilder();
+    private final Utf8Builder text = new Utf8Builder();
+
+    @Test
+    public void timestampPairs_splitTextIntoTimedSegments() {
+        builder.timestamp(0, text);
+        append(" Hello there.");
+        builder.timestamp(75, text);
+        builder.timestamp(75, text);
+        append(" How are you?");
+        builder.timestamp(140, text);
+
+        List<WhisperSegment> segments = builder.finish(text, 3000);
+        assertEquals(2, segments.size());
+        assertSegment("Hello there.", 0, 1500, segments.get(0));
+        assertSegment("How are you?", 1500, 2800, segments.get(1));
+        assertEquals(" Hello there. How are you?", text.toString());
+    }
+
+    @Test
+    public void textWithoutTimestamps_isOneSegmentOverTheAudio() {
+        append(" Just text");
+
+        List<WhisperSegment> segments = builder.finish(text, 4200);
+        assertEquals(1, segments.size());
+        assertSegment("Just text", 0, 4200, segments.get(0));
+    }
+
+    @Test
+    public void unclosedLastSegment_endsWithTheAudio() {
+        builder.timestamp(0, text);
+        append(" First");
+        builder.timestamp(50, text);
+        append(" cut off");
+
+        List<WhisperSegment> segments = builder.finish(text, 2500);
+        assertSegment("cut off", 1000, 2500, segments.get(1));
+    }
+
+    @Test
+    public void gapBetweenSegments_startsAtSecondTimestamp() {
+        builder.timestamp(10, text);
+        append(" One");
+        builder.timestamp(40, text);
+        builder.timestamp(90, text);
+        append(" Two");
+        builder.timestamp(120, text);
+
+        List<WhisperSegment> segments = builder.finish(text, 3000);
+        assertSegment("One", 200, 800, segments.get(0));
+        assertSegment("Two", 1800, 2400, segments.get(1));
+    }
+
+    @Test
+    public void blankText_isNotASegment() {
+        builder.timestamp(0, text);
+        append(" ");
+        builder.timestamp(20, text);
+
+        assertTrue(builder.finish(text, 1000).isEmpty());
+    }
+
+    @Test
+    public void reset_startsOver() {
+        builder.timestamp(30, text);
+        append(" Old");
+        builder.finish(text, 1000);
+        builder.reset();
+        text.reset();
+        append(" New");
+
+        List<WhisperSegment> segments = builder.finish(text, 500);
+        assertEquals(1, segments.size());
+        assertSegment("New", 0, 500, segments.get(0));
+    }
+
+    private void append(String word) {
+        byte[] bytes = word.getBytes(StandardCharsets.UTF_8);
+        text.append(bytes, 0, bytes.length);
+    }
+
+    private static void assertSegment(String text, long startMs, long endMs, WhisperSegment segment) {
+        assertEquals(text, segment.getText());
+        assertEquals(startMs, segment.getStartMs());
+        assertEquals(endMs, segment.getEndMs());
+    }
+}
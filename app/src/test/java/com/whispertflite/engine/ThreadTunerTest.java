@@ -0,0 +1,118 @@
+package com.whispertflite.engine;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import static org.junit.Assert.*;
+
+public class ThreadTunerTest {
+
+    private final File folder = createFolder();
+
+    @Test
+    public void candidates_coverOneToAllCores() {
+        assertArrayEquals(new int[]{1}, ThreadTuner.candidates(1));
+        assertArrayEquals(new int[]{1, 2, 3, 4}, ThreadTuner.candidates(4));
+        assertArrayEquals(new int[]{1, 2, 3, 4, 6, 8}, ThreadTuner.candidates(8));
+        assertArrayEquals(new int[]{1, 2, 3, 4, 6, 9, 10}, ThreadTuner.candidates(10));
+    }
+
+    @Test
+    public void fastest_picksLowestTime() {
+        int[] candidates = {1, 2, 4, 8};
+        assertEquals(4, ThreadTuner.fastest(candidates, new long[]{400, 220, 120, 180}));
+    }
+
+    @Test
+    public void fastest_prefersFewerThreadsWhenGainIsSmall() {
+        int[] candidates = {1, 2, 4, 8};
+        assertEquals(2, ThreadTuner.fastest(candidates, new long[]{400, 200, 195, 198}));
+    }
+
+    @Test
+    public void saveAndLoad_roundTripsPerModel() throws IOException {
+        File store = new File(folder, "threads.properties");
+        store.deleteOnExit();
+        File tiny = model("tiny.tflite", 10);
+        File base = model("base.tflite", 20);
+
+        ThreadTuner tuner = new ThreadTuner(store);
+        assertNull(tuner.load(tiny));
+        tuner.save(tiny, new ThreadTuner.Config(4, 2));
+        tuner.save(base, new ThreadTuner.Config(3, 6));
+
+        ThreadTuner reopened = new ThreadTuner(store);
+        ThreadTuner.Config config = reopened.load(tiny);
+        assertEquals(4, config.interpreterThreads);
+        assertEquals(2, config.melThreads);
+        assertEquals(3, reopened.load(base).interpreterThreads);
+    }
+
+    @Test
+    public void load_changedModelFile_needsCalibration() throws IOException {
+        File store = new File(folder, "threads.properties");
+        store.deleteOnExit();
+        File tiny = model("tiny.tflite", 10);
+        ThreadTuner tuner = new ThreadTuner(store);
+        tuner.save(tiny, new ThreadTuner.Config(4, 2));
+
+        Files.write(tiny.toPath(), new byte[11]); // a different model under the same name
+
+        assertNull(tuner.load(tiny));
+    }
+
+    @Test
+    public void bestOf_returnsShortestRun() {
+        int[] calls = {0};
+        long nanos = ThreadTuner.bestOf(3, () -> calls[0]++);
+        assertEquals(4, calls[0]); // one untimed run
+        assertTrue(nanos >= 0);
+    }
+
+    @Test
+    public void limitAfter_allowsFewerThreadsWithinGain() {
+        assertEquals(Long.MAX_VALUE, ThreadTuner.limitAfter(Long.MAX_VALUE));
+        long limit = ThreadTuner.limitAfter(95_000_000L);
+        assertEquals(100_000_000L, limit, 1_000);
+        // A run just inside the limit is still the one fastest() picks
+        assertEquals(2, ThreadTuner.fastest(new int[]{2, 8}, new long[]{limit - 1_000, 95_000_000L}));
+    }
+
+    @Test
+    public void timeWithin_cutsOffSlowRun() {
+        long nanos = ThreadTuner.timeWithin(20_000_000L, cancel -> {
+            long deadline = System.nanoTime() + 5_000_000_000L;
+            while (!cancel.isCancelled() && System.nanoTime() < deadline) {
+                Thread.yield();
+            }
+        });
+        assertEquals(Long.MAX_VALUE, nanos);
+    }
+
+    @Test
+    public void timeWithin_fastRun_returnsItsTime() {
+        long nanos = ThreadTuner.timeWithin(5_000_000_000L, cancel -> assertFalse(cancel.isCancelled()));
+        assertTrue(nanos >= 0 && nanos < 5_000_000_000L);
+        assertTrue(ThreadTuner.timeWithin(Long.MAX_VALUE, cancel -> { }) < Long.MAX_VALUE);
+    }
+
+    private static File createFolder() {
+        try {
+            File folder = Files.createTempDirectory("tuner").toFile();
+            folder.deleteOnExit();
+            return folder;
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private File model(String name, int size) throws IOException {
+        File file = new File(folder, name);
+        file.deleteOnExit();
+        Files.write(file.toPath(), new byte[size]);
+        return file;
+    }
+}
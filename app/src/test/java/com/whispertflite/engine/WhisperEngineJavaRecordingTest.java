@@ -0,0 +1,29 @@
+package com.whispertflite.engine;
+
+import com.whispertflite.asr.PcmRingBuffer;
+import com.whispertflite.asr.RecordingOverwrittenException;
+import com.whispertflite.asr.Whisper;
+import com.whispertflite.utils.CancellationToken;
+
+import org.junit.Test;
+
+public class WhisperEngineJavaRecordingTest {
+
+    @Test(expected = RecordingOverwrittenException.class)
+    public void processRecording_overwrittenRecording_failsInsteadOfTranscribing() {
+        WhisperEngineJava engine = new WhisperEngineJava(null);
+        PcmRingBuffer ring = engine.getRecordBuffer();
+        PcmRingBuffer.Recording first = ring.begin();
+        ring.write(new byte[2000], 0, 2000);
+        ring.end();
+
+        // A capture longer than the ring wraps over the first recording
+        ring.begin();
+        byte[] chunk = new byte[ring.capacity()];
+        ring.write(chunk, 0, chunk.length);
+        ring.write(chunk, 0, chunk.length);
+        ring.end();
+
+        engine.processRecording(first, Whisper.Action.TRANSCRIBE, -1, new CancellationToken());
+    }
+}
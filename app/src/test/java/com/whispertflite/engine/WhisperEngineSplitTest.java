@@ -0,0 +1,50 @@
+package com.whispertflite.engine;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class WhisperEngineSplitTest {
+
+    @Test
+    public void pairCaches_matchesWholeNameNotPrefix() throws IOException {
+        List<String> outputs = outputs("new_k_cache_10", "new_k_cache_1", "cross_qk");
+        String[] paired = WhisperEngineSplit.pairCaches(new String[]{"k_cache_1", "k_cache_10"}, outputs);
+
+        assertArrayEquals(new String[]{"new_k_cache_1", "new_k_cache_10"}, paired);
+        assertEquals(Arrays.asList("cross_qk"), outputs);
+    }
+
+    @Test
+    public void pairCaches_noNamedOutputs_pairsInOrder() throws IOException {
+        List<String> outputs = outputs("out_1", "out_2", "out_3");
+        String[] paired = WhisperEngineSplit.pairCaches(new String[]{"past_0", "past_1"}, outputs);
+
+        assertArrayEquals(new String[]{"out_1", "out_2"}, paired);
+        assertEquals(Arrays.asList("out_3"), outputs);
+    }
+
+    @Test(expected = IOException.class)
+    public void pairCaches_cacheWithoutMatchAmongNamedOnes_throws() throws IOException {
+        WhisperEngineSplit.pairCaches(new String[]{"k_cache_0", "v_cache_0"}, outputs("new_k_cache_0", "other"));
+    }
+
+    @Test(expected = IOException.class)
+    public void pairCaches_ambiguousMatch_throws() throws IOException {
+        WhisperEngineSplit.pairCaches(new String[]{"cache"}, outputs("k_cache", "v_cache"));
+    }
+
+    @Test(expected = IOException.class)
+    public void pairCaches_tooFewOutputs_throws() throws IOException {
+        WhisperEngineSplit.pairCaches(new String[]{"a", "b"}, outputs("c"));
+    }
+
+    private static List<String> outputs(String... names) {
+        return new ArrayList<>(Arrays.asList(names));
+    }
+}
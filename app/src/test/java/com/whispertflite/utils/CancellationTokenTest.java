@@ -0,0 +1,53 @@
+package com.whispertflite.utils;
+
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class CancellationTokenTest {
+
+    @Test
+    public void cancel_runsHookOnce() {
+        CancellationToken token = new CancellationToken();
+        AtomicInteger calls = new AtomicInteger();
+        token.setOnCancel(calls::incrementAndGet);
+
+        assertFalse(token.isCancelled());
+        token.cancel();
+        token.cancel();
+
+        assertTrue(token.isCancelled());
+        assertEquals(1, calls.get());
+        assertTrue(token.getCancelledAtNanos() <= System.nanoTime());
+    }
+
+    @Test
+    public void setOnCancel_afterCancel_runsHookRightAway() {
+        CancellationToken token = new CancellationToken();
+        token.cancel();
+        AtomicInteger calls = new AtomicInteger();
+        token.setOnCancel(calls::incrementAndGet);
+
+        assertEquals(1, calls.get());
+    }
+
+    @Test
+    public void removedHook_doesNotRun() {
+        CancellationToken token = new CancellationToken();
+        AtomicInteger calls = new AtomicInteger();
+        token.setOnCancel(calls::incrementAndGet);
+        token.setOnCancel(null);
+        token.cancel();
+
+        assertEquals(0, calls.get());
+    }
+
+    @Test
+    public void none_isNeverCancelled() {
+        CancellationToken.NONE.cancel();
+
+        assertFalse(CancellationToken.NONE.isCancelled());
+    }
+}
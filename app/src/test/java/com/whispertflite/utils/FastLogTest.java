@@ -0,0 +1,54 @@
+package com.whispertflite.utils;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class FastLogTest {
+
+    @Test
+    public void log10_randomValuesAcrossMelRange_withinErrorBound() {
+        // Band energies are floored at 1e-20 (streaming) or 1e-10 (batch)
+        Random random = new Random(1);
+        for (int i = 0; i < 2_000_000; i++) {
+            float x = (float) Math.pow(10.0, -20.0 + 50.0 * random.nextDouble());
+            assertWithinBound(x);
+        }
+    }
+
+    @Test
+    public void log10_mantissaBoundaries_withinErrorBound() {
+        float sqrt2 = (float) Math.sqrt(2.0);
+        float[] values = {
+                1.0f, 2.0f, 0.5f, 10.0f, 1e-10f, 1e-20f, Float.MIN_NORMAL,
+                sqrt2, Math.nextDown(sqrt2), Math.nextUp(sqrt2),
+                1.0f / sqrt2, Math.nextDown(1.0f), Math.nextUp(1.0f)
+        };
+        for (float x : values) {
+            assertWithinBound(x);
+        }
+    }
+
+    @Test
+    public void log10_everyMantissaInOneOctave_withinErrorBound() {
+        int first = Float.floatToRawIntBits(1.0f);
+        int last = Float.floatToRawIntBits(2.0f);
+        for (int bits = first; bits < last; bits += 7) {
+            assertWithinBound(Float.intBitsToFloat(bits));
+        }
+    }
+
+    @Test
+    public void log10_powersOfTen_areExactToBound() {
+        for (int p = -20; p <= 20; p++) {
+            assertEquals("10^" + p, p, FastLog.log10((float) Math.pow(10.0, p)), FastLog.MAX_ABS_ERROR + 1e-6f);
+        }
+    }
+
+    private static void assertWithinBound(float x) {
+        double error = Math.abs(Math.log10(x) - FastLog.log10(x));
+        assertTrue("x=" + x + " error=" + error, error <= FastLog.MAX_ABS_ERROR);
+    }
+}
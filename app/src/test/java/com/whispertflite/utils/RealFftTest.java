@@ -0,0 +1,97 @@
+package com.whispertflite.utils;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class RealFftTest {
+
+    // Max error relative to the largest bin magnitude, against a double precision DFT.
+    // Observed error for N=400 is around 1.2e-7, so this leaves headroom for other JVMs.
+    private static final double RELATIVE_TOLERANCE = 1e-5;
+
+    @Test
+    public void forward_whisperFrameSize_matchesReferenceDft() {
+        assertMatchesReference(WhisperUtil.WHISPER_N_FFT, 42);
+    }
+
+    @Test
+    public void forward_otherSupportedSizes_matchReferenceDft() {
+        int[] sizes = {2, 8, 12, 20, 30, 60, 200, 480, 512};
+        for (int n : sizes) {
+            assertMatchesReference(n, n);
+        }
+    }
+
+    @Test
+    public void forward_doesNotModifyInput() {
+        RealFft fft = new RealFft(400);
+        float[] input = randomSignal(400, 7);
+        float[] copy = input.clone();
+
+        fft.forward(input, new float[fft.outputSize()], new float[fft.scratchSize()]);
+
+        assertArrayEquals(copy, input, 0.0f);
+    }
+
+    @Test
+    public void forward_reusedScratch_givesSameResult() {
+        RealFft fft = new RealFft(400);
+        float[] scratch = new float[fft.scratchSize()];
+        float[] first = new float[fft.outputSize()];
+        float[] second = new float[fft.outputSize()];
+        float[] input = randomSignal(400, 11);
+
+        fft.forward(input, first, scratch);
+        fft.forward(randomSignal(400, 12), second, scratch);
+        fft.forward(input, second, scratch);
+
+        assertArrayEquals(first, second, 0.0f);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void constructor_oddSize_throws() {
+        new RealFft(401);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void constructor_unsupportedPrimeFactor_throws() {
+        new RealFft(2 * 7);
+    }
+
+    private static void assertMatchesReference(int n, long seed) {
+        RealFft fft = new RealFft(n);
+        assertEquals(n / 2 + 1, fft.binCount());
+
+        float[] input = randomSignal(n, seed);
+        float[] output = new float[fft.outputSize()];
+        fft.forward(input, output, new float[fft.scratchSize()]);
+
+        double maxError = 0.0;
+        double maxMagnitude = 0.0;
+        for (int k = 0; k <= n / 2; k++) {
+            double re = 0.0;
+            double im = 0.0;
+            for (int j = 0; j < n; j++) {
+                double angle = 2.0 * Math.PI * k * j / n;
+                re += input[j] * Math.cos(angle);
+                im -= input[j] * Math.sin(angle);
+            }
+            maxError = Math.max(maxError, Math.hypot(re - output[2 * k], im - output[2 * k + 1]));
+            maxMagnitude = Math.max(maxMagnitude, Math.hypot(re, im));
+        }
+        assertTrue("N=" + n + " relative error " + (maxError / maxMagnitude),
+                maxError / maxMagnitude < RELATIVE_TOLERANCE);
+    }
+
+    private static float[] randomSignal(int n, long seed) {
+        Random random = new Random(seed);
+        float[] signal = new float[n];
+        for (int i = 0; i < n; i++) {
+            signal[i] = random.nextFloat() * 2.0f - 1.0f;
+        }
+        return signal;
+    }
+}
@@ -0,0 +1,227 @@
+package com.whispertflite.utils;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import static org.junit.Assert.*;
+
+public class ResamplerTest {
+
+    @Test
+    public void sameRateMono_passesSamplesThrough() {
+        Resampler resampler = new Resampler(16000, 16000, 1);
+        float[] in = sine(16000, 440, 0.5, 1000);
+        float[] out = new float[resampler.maxOutput(in.length)];
+
+        assertEquals(in.length, resampler.process(in, 0, in.length, out, 0));
+        for (int i = 0; i < in.length; i++) {
+            assertEquals(in[i], out[i], 0.0f);
+        }
+        assertEquals(0, resampler.latency());
+    }
+
+    @Test
+    public void from48k_keepsToneInPassband() {
+        assertToneSurvives(48000, 1000);
+        assertToneSurvives(48000, 6000);
+    }
+
+    @Test
+    public void from44k1_keepsToneInPassband() {
+        assertToneSurvives(44100, 1000);
+        assertToneSurvives(44100, 6000);
+    }
+
+    @Test
+    public void from8k_upsamplesTone() {
+        assertToneSurvives(8000, 1000);
+    }
+
+    @Test
+    public void from48k_removesToneAboveOutputNyquist() {
+        // 12 kHz would alias to 4 kHz at 16 kHz
+        Resampler resampler = new Resampler(48000, 16000, 1);
+        float[] in = sine(48000, 12000, 0.5, 48000);
+        float[] out = new float[resampler.maxOutput(in.length)];
+        int n = resampler.process(in, 0, in.length, out, 0);
+
+        double energy = 0.0;
+        for (int i = 1000; i < n; i++) {
+            energy += out[i] * out[i];
+        }
+        double rms = Math.sqrt(energy / (n - 1000));
+        assertTrue("alias rms " + rms, rms < 0.5 * 1e-3); // > 60 dB down
+    }
+
+    @Test
+    public void chunkedInput_matchesOneCall() {
+        float[] in = sine(44100, 700, 0.3, 20000);
+        Resampler whole = new Resampler(44100, 16000, 1);
+        float[] expected = new float[whole.maxOutput(in.length)];
+        int n = whole.process(in, 0, in.length, expected, 0);
+
+        Resampler chunked = new Resampler(44100, 16000, 1);
+        float[] out = new float[n + 16];
+        int written = 0;
+        int[] chunks = {1, 7, 441, 1000, 3, 2048};
+        int pos = 0;
+        for (int c = 0; pos < in.length; c++) {
+            int frames = Math.min(chunks[c % chunks.length], in.length - pos);
+            written += chunked.process(in, pos, frames, out, written);
+            pos += frames;
+        }
+
+        assertEquals(n, written);
+        for (int i = 0; i < n; i++) {
+            assertEquals(expected[i], out[i], 0.0f);
+        }
+    }
+
+    @Test
+    public void stereo_isDownmixedBeforeResampling() {
+        float[] mono = sine(48000, 1000, 0.5, 4800);
+        float[] stereo = new float[mono.length * 2];
+        float[] opposite = new float[mono.length * 2];
+        for (int i = 0; i < mono.length; i++) {
+            stereo[2 * i] = mono[i];
+            stereo[2 * i + 1] = mono[i];
+            opposite[2 * i] = mono[i];
+            opposite[2 * i + 1] = -mono[i];
+        }
+
+        Resampler monoResampler = new Resampler(48000, 16000, 1);
+        float[] expected = new float[monoResampler.maxOutput(mono.length)];
+        int n = monoResampler.process(mono, 0, mono.length, expected, 0);
+
+        Resampler stereoResampler = new Resampler(48000, 16000, 2);
+        float[] out = new float[stereoResampler.maxOutput(mono.length)];
+        assertEquals(n, stereoResampler.process(stereo, 0, mono.length, out, 0));
+        for (int i = 0; i < n; i++) {
+            assertEquals(expected[i], out[i], 1e-6f);
+        }
+
+        stereoResampler.reset();
+        stereoResampler.process(opposite, 0, mono.length, out, 0);
+        for (int i = 0; i < n; i++) {
+            assertEquals(0.0f, out[i], 0.0f);
+        }
+    }
+
+    @Test
+    public void processPcm16_matchesFloatInput() {
+        float[] in = sine(48000, 440, 0.5, 4800);
+        ByteBuffer bytes = ByteBuffer.allocate(in.length * 2).order(ByteOrder.nativeOrder());
+        float[] quantized = new float[in.length];
+        for (int i = 0; i < in.length; i++) {
+            short value = (short) Math.round(in[i] * 32767);
+            bytes.putShort(value);
+            quantized[i] = (float) (value / 32768.0);
+        }
+
+        Resampler floats = new Resampler(48000, 16000, 1);
+        float[] expected = new float[floats.maxOutput(in.length)];
+        int n = floats.process(quantized, 0, in.length, expected, 0);
+
+        Resampler pcm = new Resampler(48000, 16000, 1);
+        float[] out = new float[pcm.maxOutput(in.length)];
+        assertEquals(n, pcm.processPcm16(bytes.array(), 0, in.length * 2, out, 0));
+        assertArrayEquals(expected, out, 0.0f);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void processPcm16_partialFrame_throws() {
+        new Resampler(48000, 16000, 2).processPcm16(new byte[6], 0, 6, new float[4], 0);
+    }
+
+    @Test
+    public void flush_returnsDelayedTail() {
+        Resampler resampler = new Resampler(48000, 16000, 1);
+        float[] in = sine(48000, 1000, 0.5, 4800);
+        float[] out = new float[resampler.maxOutput(in.length) + resampler.maxOutput(resampler.latency() * 3)];
+        int n = resampler.process(in, 0, in.length, out, 0);
+        n += resampler.flush(out, n);
+
+        assertTrue(n >= 1600 + resampler.latency());
+    }
+
+    @Test
+    public void process_allocatesNothing() {
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        Resampler resampler = new Resampler(48000, 16000, 2);
+        float[] in = sine(48000, 440, 0.5, 960);
+        float[] out = new float[resampler.maxOutput(480)];
+        for (int i = 0; i < 2000; i++) { // warm up
+            resampler.process(in, 0, 480, out, 0);
+        }
+
+        long threadId = Thread.currentThread().getId();
+        long before = threads.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < 1000; i++) {
+            resampler.process(in, 0, 480, out, 0);
+        }
+        long allocated = threads.getThreadAllocatedBytes(threadId) - before;
+
+        assertTrue("allocated " + allocated + " bytes", allocated < 1024);
+    }
+
+    @Test
+    public void benchmark_48kTo16k() {
+        // 10 s of 48 kHz stereo 16-bit PCM, converted in 10 ms chunks as a capture would be
+        int seconds = 10;
+        int chunkFrames = 480;
+        byte[] pcm = new byte[48000 * seconds * 4];
+        ByteBuffer bytes = ByteBuffer.wrap(pcm).order(ByteOrder.nativeOrder());
+        float[] tone = sine(48000, 440, 0.5, 48000 * seconds);
+        for (float sample : tone) {
+            short value = (short) (sample * 32767);
+            bytes.putShort(value);
+            bytes.putShort(value);
+        }
+
+        Resampler resampler = new Resampler(48000, 16000, 2);
+        float[] out = new float[resampler.maxOutput(chunkFrames)];
+        long best = Long.MAX_VALUE;
+        for (int round = 0; round < 5; round++) {
+            resampler.reset();
+            long start = System.nanoTime();
+            for (int off = 0; off < pcm.length; off += chunkFrames * 4) {
+                resampler.processPcm16(pcm, off, chunkFrames * 4, out, 0);
+            }
+            best = Math.min(best, System.nanoTime() - start);
+        }
+
+        double realTime = seconds * 1e9 / best;
+        System.out.printf("Resampler 48 kHz stereo -> 16 kHz mono: %.1f ms for %d s, %.0fx real time%n",
+                best / 1e6, seconds, realTime);
+        assertTrue("only " + realTime + "x real time", realTime > 20);
+    }
+
+    // Resamples a tone and compares it with the same tone generated at 16 kHz
+    private static void assertToneSurvives(int inputRate, double hz) {
+        Resampler resampler = new Resampler(inputRate, 16000, 1);
+        float[] in = sine(inputRate, hz, 0.5, inputRate / 2);
+        float[] out = new float[resampler.maxOutput(in.length)];
+        int n = resampler.process(in, 0, in.length, out, 0);
+        assertTrue(n >= 7999);
+
+        double delay = resampler.delay();
+        double maxError = 0.0;
+        for (int i = 1000; i < n - 1000; i++) {
+            double expected = 0.5 * Math.sin(2 * Math.PI * hz * (i - delay) / 16000.0);
+            maxError = Math.max(maxError, Math.abs(out[i] - expected));
+        }
+        assertTrue(inputRate + " Hz, " + hz + " Hz tone: error " + maxError, maxError < 0.005);
+    }
+
+    private static float[] sine(int rate, double hz, double amplitude, int n) {
+        float[] samples = new float[n];
+        for (int i = 0; i < n; i++) {
+            samples[i] = (float) (amplitude * Math.sin(2 * Math.PI * hz * i / rate));
+        }
+        return samples;
+    }
+}
@@ -0,0 +1,187 @@
+package com.whispertflite.utils;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class StreamingMelTest {
+
+    private static final int N_SAMPLES = WhisperUtil.WHISPER_SAMPLE_RATE * WhisperUtil.WHISPER_CHUNK_SIZE;
+
+    // Streamed and batch paths differ only in float rounding of the peak shift
+    private static final float TOLERANCE = 1e-5f;
+
+    private WhisperUtil whisperUtil;
+
+    @Before
+    public void setUp() throws IOException {
+        File vocabFile = TestVocabFiles.write(16);
+        whisperUtil = new WhisperUtil();
+        assertTrue(whisperUtil.loadFiltersAndVocab(false, vocabFile.getAbsolutePath()));
+    }
+
+    @Test
+    public void finish_chunkedCapture_matchesBatchSpectrogram() {
+        assertStreamMatchesBatch(toPcm(TestVocabFiles.speechLikeSignal(37_123, 37_123, 5), 0.5f), 5);
+    }
+
+    @Test
+    public void finish_quietCapture_matchesBatchSpectrogram() {
+        assertStreamMatchesBatch(toPcm(TestVocabFiles.speechLikeSignal(20_000, 20_000, 6), 0.002f), 6);
+    }
+
+    @Test
+    public void finish_captureLongerThanChunk_isCappedAtThirtySeconds() {
+        assertStreamMatchesBatch(toPcm(TestVocabFiles.speechLikeSignal(N_SAMPLES + 4_000, N_SAMPLES + 4_000, 7), 0.4f), 7);
+    }
+
+    @Test
+    public void finish_captureCutShort_matchesBatchOfPrefix() {
+        byte[] pcm = toPcm(TestVocabFiles.speechLikeSignal(40_000, 40_000, 10), 0.5f);
+        // Cut mid-hop, with the loudest sample in the part that is cut off
+        ByteBuffer.wrap(pcm).order(ByteOrder.nativeOrder()).putShort(2 * 39_000, Short.MAX_VALUE);
+        int kept = 31_337;
+
+        StreamingMel streamingMel = new StreamingMel(whisperUtil);
+        streamingMel.reset();
+        streamingMel.append(pcm, 0, pcm.length);
+        float[] streamed = new float[WhisperUtil.WHISPER_N_MEL * N_SAMPLES / WhisperUtil.WHISPER_HOP_LENGTH];
+        assertTrue(streamingMel.finish(kept, FloatBuffer.wrap(streamed)));
+
+        float[] batch = batchSpectrogram(Arrays.copyOf(pcm, kept * 2));
+        assertArrayEquals(batch, streamed, TOLERANCE);
+    }
+
+    @Test
+    public void snapshot_matchesFinishAndKeepsCaptureOpen() {
+        byte[] pcm = toPcm(TestVocabFiles.speechLikeSignal(30_000, 30_000, 12), 0.5f);
+        int half = 2 * 14_321; // mid-frame
+
+        StreamingMel streamingMel = new StreamingMel(whisperUtil);
+        streamingMel.reset();
+        streamingMel.append(pcm, 0, half);
+        float[] snapshot = new float[WhisperUtil.WHISPER_N_MEL * N_SAMPLES / WhisperUtil.WHISPER_HOP_LENGTH];
+        assertTrue(streamingMel.snapshot(FloatBuffer.wrap(snapshot)));
+        assertArrayEquals(batchSpectrogram(Arrays.copyOf(pcm, half)), snapshot, TOLERANCE);
+
+        // Frames computed for the snapshot are redone once their samples arrive
+        streamingMel.append(pcm, half, pcm.length - half);
+        float[] streamed = new float[snapshot.length];
+        assertTrue(streamingMel.finish(pcm.length / 2, FloatBuffer.wrap(streamed)));
+        assertArrayEquals(batchSpectrogram(pcm), streamed, TOLERANCE);
+    }
+
+    @Test
+    public void snapshot_nothingStreamed_returnsFalse() {
+        StreamingMel streamingMel = new StreamingMel(whisperUtil);
+        streamingMel.reset();
+
+        assertFalse(streamingMel.snapshot(newMelBuffer()));
+    }
+
+    @Test
+    public void append_floatSamples_matchesPcmAppend() {
+        byte[] pcm = toPcm(TestVocabFiles.speechLikeSignal(12_000, 12_000, 11), 0.3f);
+        ByteBuffer buffer = ByteBuffer.wrap(pcm).order(ByteOrder.nativeOrder());
+        float[] samples = new float[pcm.length / 2];
+        for (int i = 0; i < samples.length; i++) {
+            samples[i] = (float) (buffer.getShort() / 32768.0);
+        }
+
+        StreamingMel fromPcm = new StreamingMel(whisperUtil);
+        fromPcm.reset();
+        fromPcm.append(pcm, 0, pcm.length);
+        StreamingMel fromFloats = new StreamingMel(whisperUtil);
+        fromFloats.reset();
+        fromFloats.append(samples, 0, 5_000);
+        fromFloats.append(samples, 5_000, samples.length - 5_000);
+
+        float[] expected = new float[WhisperUtil.WHISPER_N_MEL * N_SAMPLES / WhisperUtil.WHISPER_HOP_LENGTH];
+        float[] actual = new float[expected.length];
+        assertTrue(fromPcm.finish(samples.length, FloatBuffer.wrap(expected)));
+        assertTrue(fromFloats.finish(samples.length, FloatBuffer.wrap(actual)));
+        assertArrayEquals(expected, actual, 0.0f);
+    }
+
+    @Test
+    public void finish_sampleCountMismatch_returnsNull() {
+        StreamingMel streamingMel = new StreamingMel(whisperUtil);
+        byte[] pcm = toPcm(TestVocabFiles.speechLikeSignal(8_000, 8_000, 8), 0.5f);
+
+        streamingMel.reset();
+        streamingMel.append(pcm, 0, pcm.length);
+
+        assertFalse(streamingMel.finish(pcm.length / 2 + 1, newMelBuffer()));
+        assertFalse("A finished capture cannot be finished again", streamingMel.finish(pcm.length / 2, newMelBuffer()));
+    }
+
+    @Test
+    public void finish_withoutLoadedFilters_returnsNull() {
+        StreamingMel streamingMel = new StreamingMel(new WhisperUtil());
+        byte[] pcm = toPcm(TestVocabFiles.speechLikeSignal(8_000, 8_000, 9), 0.5f);
+
+        streamingMel.reset();
+        streamingMel.append(pcm, 0, pcm.length);
+
+        assertFalse(streamingMel.finish(pcm.length / 2, newMelBuffer()));
+    }
+
+    private void assertStreamMatchesBatch(byte[] pcm, long seed) {
+        StreamingMel streamingMel = new StreamingMel(whisperUtil);
+        streamingMel.reset();
+
+        // Feed in uneven chunks, including odd byte boundaries handled by the caller
+        Random random = new Random(seed);
+        int pos = 0;
+        while (pos < pcm.length) {
+            int len = Math.min(pcm.length - pos, 2 * (1 + random.nextInt(700)));
+            streamingMel.append(pcm, pos, len);
+            pos += len;
+        }
+        float[] streamed = new float[WhisperUtil.WHISPER_N_MEL * N_SAMPLES / WhisperUtil.WHISPER_HOP_LENGTH];
+        assertTrue(streamingMel.finish(pcm.length / 2, FloatBuffer.wrap(streamed)));
+
+        float[] batch = batchSpectrogram(pcm);
+        assertArrayEquals(batch, streamed, TOLERANCE);
+    }
+
+    // Same steps as WhisperEngineJava: PCM -> peak-normalized floats -> 30 s mel
+    private float[] batchSpectrogram(byte[] pcm) {
+        ByteBuffer buffer = ByteBuffer.wrap(pcm).order(ByteOrder.nativeOrder());
+        float[] samples = new float[pcm.length / 2];
+        float peak = 0.0f;
+        for (int i = 0; i < samples.length; i++) {
+            samples[i] = (float) (buffer.getShort() / 32768.0);
+            peak = Math.max(peak, Math.abs(samples[i]));
+        }
+        for (int i = 0; i < samples.length; i++) {
+            samples[i] /= peak;
+        }
+
+        float[] input = new float[N_SAMPLES];
+        int copyLength = Math.min(samples.length, N_SAMPLES);
+        System.arraycopy(samples, 0, input, 0, copyLength);
+        return whisperUtil.getMelSpectrogram(input, N_SAMPLES, copyLength, 1);
+    }
+
+    private static FloatBuffer newMelBuffer() {
+        return FloatBuffer.allocate(WhisperUtil.WHISPER_N_MEL * N_SAMPLES / WhisperUtil.WHISPER_HOP_LENGTH);
+    }
+
+    private static byte[] toPcm(float[] signal, float gain) {
+        ByteBuffer buffer = ByteBuffer.allocate(signal.length * 2).order(ByteOrder.nativeOrder());
+        for (float s : signal) {
+            buffer.putShort((short) Math.round(Math.max(-1.0f, Math.min(1.0f, s * gain)) * 32767));
+        }
+        return buffer.array();
+    }
+}
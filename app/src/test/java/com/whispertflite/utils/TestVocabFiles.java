@@ -0,0 +1,96 @@
+package com.whispertflite.utils;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+
+// Writes small filters_vocab_*.bin files with a realistic triangular mel filterbank
+public final class TestVocabFiles {
+
+    private TestVocabFiles() {
+    }
+
+    public static File write(int nVocab) throws IOException {
+        byte[][] words = new byte[nVocab][];
+        for (int i = 0; i < nVocab; i++) {
+            words[i] = ("tok" + i).getBytes(StandardCharsets.UTF_8);
+        }
+        return write(words);
+    }
+
+    public static File write(byte[][] words) throws IOException {
+        int nMel = WhisperUtil.WHISPER_N_MEL;
+        int nFft = 1 + WhisperUtil.WHISPER_N_FFT / 2;
+        float[] filters = melFilters(nMel, nFft);
+
+        int nVocab = words.length;
+        int size = 12 + filters.length * Float.BYTES + 4;
+        for (byte[] word : words) {
+            size += 4 + word.length;
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(size).order(ByteOrder.nativeOrder());
+        buffer.putInt(0x5553454e).putInt(nMel).putInt(nFft);
+        for (float f : filters) {
+            buffer.putFloat(f);
+        }
+        buffer.putInt(nVocab);
+        for (byte[] word : words) {
+            buffer.putInt(word.length).put(word);
+        }
+
+        File file = File.createTempFile("filters_vocab_test", ".bin");
+        file.deleteOnExit();
+        VocabIndex.sidecarFor(file).deleteOnExit();
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(buffer.array());
+        }
+        return file;
+    }
+
+    static float[] melFilters(int nMel, int nFft) {
+        double melMax = hzToMel(WhisperUtil.WHISPER_SAMPLE_RATE / 2.0);
+        double[] edges = new double[nMel + 2];
+        for (int i = 0; i < edges.length; i++) {
+            edges[i] = melToHz(melMax * i / (nMel + 1));
+        }
+
+        float[] filters = new float[nMel * nFft];
+        for (int m = 0; m < nMel; m++) {
+            for (int k = 0; k < nFft; k++) {
+                double hz = k * (WhisperUtil.WHISPER_SAMPLE_RATE / 2.0) / (nFft - 1);
+                double lo = edges[m], center = edges[m + 1], hi = edges[m + 2];
+                double w = 0.0;
+                if (hz > lo && hz <= center) {
+                    w = (hz - lo) / (center - lo);
+                } else if (hz > center && hz < hi) {
+                    w = (hi - hz) / (hi - center);
+                }
+                filters[m * nFft + k] = (float) (w * 2.0 / (hi - lo));
+            }
+        }
+        return filters;
+    }
+
+    // Speech-like test signal: two tones plus noise, followed by silence
+    public static float[] speechLikeSignal(int nSamples, int meaningfulSamples, long seed) {
+        java.util.Random random = new java.util.Random(seed);
+        float[] samples = new float[nSamples];
+        for (int i = 0; i < meaningfulSamples; i++) {
+            samples[i] = (float) (0.3 * Math.sin(i * 0.05) + 0.2 * Math.sin(i * 0.31)
+                    + 0.1 * (random.nextFloat() - 0.5));
+        }
+        return samples;
+    }
+
+    private static double hzToMel(double hz) {
+        return 2595.0 * Math.log10(1.0 + hz / 700.0);
+    }
+
+    private static double melToHz(double mel) {
+        return 700.0 * (Math.pow(10.0, mel / 2595.0) - 1.0);
+    }
+}
@@ -0,0 +1,37 @@
+package com.whispertflite.utils;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.*;
+
+public class Utf8BuilderTest {
+
+    @Test
+    public void completeLength_stopsBeforeSplitCharacter() {
+        byte[] text = "ab\u00e9\u4e2d\ud83d\ude00".getBytes(StandardCharsets.UTF_8); // 1, 1, 2, 3, 4 bytes
+        int[] ends = {1, 2, 4, 7, 11};
+        Utf8Builder builder = new Utf8Builder();
+        int complete = 0;
+        for (int i = 0; i < text.length; i++) {
+            builder.append(text, i, 1);
+            for (int end : ends) {
+                if (end == i + 1) {
+                    complete = end;
+                }
+            }
+            assertEquals("after byte " + i, complete, builder.completeLength());
+        }
+        assertEquals("\u4e2d\ud83d\ude00", builder.toString(4, builder.completeLength()));
+    }
+
+    @Test
+    public void completeLength_emptyAndAscii() {
+        Utf8Builder builder = new Utf8Builder();
+        assertEquals(0, builder.completeLength());
+        byte[] ascii = " hello".getBytes(StandardCharsets.UTF_8);
+        builder.append(ascii, 0, ascii.length);
+        assertEquals(ascii.length, builder.completeLength());
+    }
+}
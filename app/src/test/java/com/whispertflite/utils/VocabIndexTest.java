@@ -0,0 +1,83 @@
+package com.whispertflite.utils;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+
+import static org.junit.Assert.*;
+
+public class VocabIndexTest {
+
+    @Test
+    public void write_thenRead_roundTrips() throws IOException {
+        File vocabFile = vocabFile();
+        VocabIndex index = sampleIndex();
+        assertTrue(index.write(vocabFile, true));
+
+        VocabIndex read = VocabIndex.read(vocabFile, true);
+        assertNotNull(read);
+        assertEquals(3, read.size());
+        assertArrayEquals(index.arena, read.arena);
+        assertArrayEquals(index.offsets, read.offsets);
+        assertFalse(new File(VocabIndex.sidecarFor(vocabFile).getPath() + ".tmp").exists());
+    }
+
+    @Test
+    public void read_withoutSidecar_returnsNull() throws IOException {
+        assertNull(VocabIndex.read(vocabFile(), true));
+    }
+
+    @Test
+    public void read_otherTokenLayout_returnsNull() throws IOException {
+        File vocabFile = vocabFile();
+        sampleIndex().write(vocabFile, true);
+
+        assertNull(VocabIndex.read(vocabFile, false));
+    }
+
+    @Test
+    public void read_afterVocabFileReplaced_returnsNull() throws IOException {
+        File vocabFile = vocabFile();
+        sampleIndex().write(vocabFile, true);
+        Files.write(vocabFile.toPath(), new byte[]{1, 2, 3, 4, 5});
+
+        assertNull(VocabIndex.read(vocabFile, true));
+    }
+
+    @Test
+    public void read_damagedPayload_returnsNull() throws IOException {
+        File vocabFile = vocabFile();
+        sampleIndex().write(vocabFile, true);
+        try (RandomAccessFile sidecar = new RandomAccessFile(VocabIndex.sidecarFor(vocabFile), "rw")) {
+            sidecar.seek(VocabIndex.HEADER_BYTES + 2);
+            sidecar.write(0x55);
+        }
+
+        assertNull(VocabIndex.read(vocabFile, true));
+    }
+
+    @Test
+    public void read_truncatedSidecar_returnsNull() throws IOException {
+        File vocabFile = vocabFile();
+        sampleIndex().write(vocabFile, true);
+        try (RandomAccessFile sidecar = new RandomAccessFile(VocabIndex.sidecarFor(vocabFile), "rw")) {
+            sidecar.setLength(sidecar.length() - 3);
+        }
+
+        assertNull(VocabIndex.read(vocabFile, true));
+    }
+
+    private static VocabIndex sampleIndex() {
+        return new VocabIndex(new byte[]{'a', 'b', 'c', 'd', 'e'}, new int[]{0, 2, 2, 5});
+    }
+
+    private static File vocabFile() throws IOException {
+        File dir = Files.createTempDirectory("vocab_index_test").toFile();
+        File vocabFile = new File(dir, "filters_vocab.bin");
+        Files.write(vocabFile.toPath(), new byte[]{1, 2, 3, 4});
+        return vocabFile;
+    }
+}
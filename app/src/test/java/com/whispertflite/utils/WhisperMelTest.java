@@ -0,0 +1,135 @@
+package com.whispertflite.utils;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
+import static org.junit.Assert.*;
+
+public class WhisperMelTest {
+
+    private static final int N_SAMPLES = WhisperUtil.WHISPER_SAMPLE_RATE * WhisperUtil.WHISPER_CHUNK_SIZE;
+
+    private File vocabFile;
+
+    @Before
+    public void setUp() throws IOException {
+        vocabFile = TestVocabFiles.write(16);
+    }
+
+    @Test
+    public void getMelSpectrogram_multipleWorkers_matchesSingleThread() throws IOException {
+        WhisperUtil single = newUtil();
+        WhisperUtil pooled = newUtil();
+        float[] samples = TestVocabFiles.speechLikeSignal(N_SAMPLES, 5 * WhisperUtil.WHISPER_SAMPLE_RATE, 1);
+
+        float[] expected = single.getMelSpectrogram(samples, N_SAMPLES, 5 * WhisperUtil.WHISPER_SAMPLE_RATE, 1).clone();
+        float[] actual = pooled.getMelSpectrogram(samples, N_SAMPLES, 5 * WhisperUtil.WHISPER_SAMPLE_RATE, 4);
+
+        assertArrayEquals(expected, actual, 0.0f);
+        pooled.shutdown();
+    }
+
+    @Test
+    public void getMelSpectrogram_repeatedCallsAndShutdown_reuseWorkers() throws IOException {
+        WhisperUtil util = newUtil();
+        float[] samples = TestVocabFiles.speechLikeSignal(N_SAMPLES, 2 * WhisperUtil.WHISPER_SAMPLE_RATE, 2);
+
+        float[] first = util.getMelSpectrogram(samples, N_SAMPLES, 2 * WhisperUtil.WHISPER_SAMPLE_RATE, 3).clone();
+        float[] second = util.getMelSpectrogram(samples, N_SAMPLES, 2 * WhisperUtil.WHISPER_SAMPLE_RATE, 3).clone();
+        util.shutdown();
+        float[] afterShutdown = util.getMelSpectrogram(samples, N_SAMPLES, 2 * WhisperUtil.WHISPER_SAMPLE_RATE, 2);
+
+        assertArrayEquals(first, second, 0.0f);
+        assertArrayEquals(first, afterShutdown, 0.0f);
+        util.shutdown();
+    }
+
+    @Test
+    public void getMelSpectrogram_intoDirectBuffer_matchesArrayResult() throws IOException {
+        WhisperUtil util = newUtil();
+        int meaningfulSamples = 3 * WhisperUtil.WHISPER_SAMPLE_RATE;
+        float[] samples = TestVocabFiles.speechLikeSignal(meaningfulSamples, meaningfulSamples, 3);
+        float[] padded = new float[N_SAMPLES];
+        System.arraycopy(samples, 0, padded, 0, meaningfulSamples);
+
+        float[] expected = util.getMelSpectrogram(padded, N_SAMPLES, meaningfulSamples, 2);
+        FloatBuffer direct = ByteBuffer.allocateDirect(expected.length * Float.BYTES)
+                .order(ByteOrder.nativeOrder()).asFloatBuffer();
+        // Only the recorded samples are passed, the rest of the window is implicit silence
+        util.getMelSpectrogram(samples, N_SAMPLES, meaningfulSamples, 2, direct);
+
+        float[] actual = new float[expected.length];
+        direct.get(actual);
+        assertArrayEquals(expected, actual, 0.0f);
+        util.shutdown();
+    }
+
+    @Test
+    public void getMelSpectrogram_fastLog_staysWithinBoundOfExactLog() throws IOException {
+        WhisperUtil exact = newUtil();
+        exact.setUseFastLog(false);
+        WhisperUtil fast = newUtil();
+        int meaningfulSamples = 4 * WhisperUtil.WHISPER_SAMPLE_RATE;
+        float[] samples = TestVocabFiles.speechLikeSignal(meaningfulSamples, meaningfulSamples, 4);
+
+        float[] expected = exact.getMelSpectrogram(samples, N_SAMPLES, meaningfulSamples, 1);
+        float[] actual = fast.getMelSpectrogram(samples, N_SAMPLES, meaningfulSamples, 1);
+
+        // Output is (log10 + 4) / 4, plus one float ulp of rounding
+        assertArrayEquals(expected, actual, FastLog.MAX_ABS_ERROR / 4.0f + 1e-6f);
+    }
+
+    @Test
+    public void getMelSpectrogram_cancelledToken_stopsWithoutOutput() throws IOException {
+        WhisperUtil util = newUtil();
+        float[] samples = TestVocabFiles.speechLikeSignal(N_SAMPLES, N_SAMPLES, 5);
+        FloatBuffer out = FloatBuffer.allocate(WhisperUtil.WHISPER_N_MEL * N_SAMPLES / WhisperUtil.WHISPER_HOP_LENGTH);
+        CancellationToken cancel = new CancellationToken();
+        cancel.cancel();
+
+        assertFalse(util.getMelSpectrogram(samples, N_SAMPLES, N_SAMPLES, 2, out, cancel));
+        assertEquals(0, out.position());
+
+        // The same instance works normally afterwards
+        assertTrue(util.getMelSpectrogram(samples, N_SAMPLES, N_SAMPLES, 2, out, new CancellationToken()));
+        util.shutdown();
+    }
+
+    @Test
+    public void getMelSpectrogram_cancelledWhileRunning_returnsEarly() throws Exception {
+        WhisperUtil util = newUtil();
+        float[] samples = TestVocabFiles.speechLikeSignal(N_SAMPLES, N_SAMPLES, 6);
+        FloatBuffer out = FloatBuffer.allocate(WhisperUtil.WHISPER_N_MEL * N_SAMPLES / WhisperUtil.WHISPER_HOP_LENGTH);
+        long fullNanos = Long.MAX_VALUE;
+        for (int i = 0; i < 3; i++) {
+            long start = System.nanoTime();
+            out.clear();
+            util.getMelSpectrogram(samples, N_SAMPLES, N_SAMPLES, 1, out);
+            fullNanos = Math.min(fullNanos, System.nanoTime() - start);
+        }
+
+        CancellationToken cancel = new CancellationToken();
+        Thread canceller = new Thread(cancel::cancel);
+        out.clear();
+        canceller.start();
+        boolean completed = util.getMelSpectrogram(samples, N_SAMPLES, N_SAMPLES, 1, out, cancel);
+        long stopNanos = System.nanoTime() - cancel.getCancelledAtNanos();
+        canceller.join();
+
+        // Stops within a chunk of frames of the cancel, unless it finished first
+        assertTrue(completed || stopNanos < fullNanos / 2 + 5_000_000);
+        util.shutdown();
+    }
+
+    private WhisperUtil newUtil() throws IOException {
+        WhisperUtil util = new WhisperUtil();
+        assertTrue(util.loadFiltersAndVocab(false, vocabFile.getAbsolutePath()));
+        return util;
+    }
+}
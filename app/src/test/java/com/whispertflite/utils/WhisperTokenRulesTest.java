@@ -0,0 +1,137 @@
+package com.whispertflite.utils;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class WhisperTokenRulesTest {
+    private static final int BLANK = 3;
+    private static final float NEG_INF = Float.NEGATIVE_INFINITY;
+
+    private WhisperUtil util;
+    private int eot;
+    private int beg;
+    private float[] logits;
+
+    @Before
+    public void setUp() throws IOException {
+        byte[][] words = new byte[64][];
+        for (int i = 0; i < words.length; i++) {
+            words[i] = ("tok" + i).getBytes(StandardCharsets.UTF_8);
+        }
+        words[BLANK] = " ".getBytes(StandardCharsets.UTF_8);
+        util = new WhisperUtil();
+        assertTrue(util.loadFiltersAndVocab(false, TestVocabFiles.write(words).getAbsolutePath()));
+        eot = util.getTokenEOT();
+        beg = util.getTokenBEG();
+        logits = new float[util.getVocabSize()];
+    }
+
+    @Test
+    public void suppressTokens_withoutTimestamps_firstTokenIsText() {
+        logits[eot] = 5.0f;
+        logits[BLANK] = 4.0f;
+        logits[util.getTokenSOT()] = 3.0f;
+        logits[beg + 1] = 2.0f;
+        logits[7] = 1.0f;
+
+        util.suppressTokens(logits, new int[0], 0, false);
+
+        assertEquals(7, WhisperUtil.argmax(logits));
+        assertEquals(NEG_INF, logits[util.getTokenNOT()], 0.0f);
+        assertEquals(0.0f, logits[8], 0.0f);
+    }
+
+    @Test
+    public void suppressTokens_withoutTimestamps_eotAfterFirstToken() {
+        logits[eot] = 5.0f;
+        logits[BLANK] = 4.0f;
+
+        util.suppressTokens(logits, new int[]{7}, 1, false);
+
+        assertEquals(eot, WhisperUtil.argmax(logits));
+        assertEquals(4.0f, logits[BLANK], 0.0f);
+    }
+
+    @Test
+    public void suppressTokens_firstTokenIsEarlyTimestamp() {
+        logits[7] = 10.0f;
+        logits[beg + 60] = 20.0f;
+
+        util.suppressTokens(logits, new int[0], 0, true);
+
+        assertEquals(beg, WhisperUtil.argmax(logits));
+        assertEquals(NEG_INF, logits[7], 0.0f);
+        assertEquals(0.0f, logits[beg + WhisperUtil.MAX_INITIAL_TIMESTAMP], 0.0f);
+        assertEquals(NEG_INF, logits[beg + WhisperUtil.MAX_INITIAL_TIMESTAMP + 1], 0.0f);
+    }
+
+    @Test
+    public void suppressTokens_closingTimestampDoesNotGoBack() {
+        logits[7] = 100.0f;
+        logits[beg + 1] = 50.0f;
+        logits[eot] = 10.0f;
+        int[] tokens = {beg + 2, 7, 8, beg + 5};
+
+        util.suppressTokens(logits, tokens, tokens.length, true);
+
+        // Text was closed: a timestamp from beg + 5 on or EOT follows
+        assertEquals(eot, WhisperUtil.argmax(logits));
+        assertEquals(NEG_INF, logits[7], 0.0f);
+        assertEquals(NEG_INF, logits[beg + 4], 0.0f);
+        assertEquals(0.0f, logits[beg + 5], 0.0f);
+    }
+
+    @Test
+    public void suppressTokens_afterTimestampPairOnlyTextOrEot() {
+        logits[7] = 1.0f;
+        int[] tokens = {beg + 2, 7, beg + 5, beg + 5};
+
+        util.suppressTokens(logits, tokens, tokens.length, true);
+
+        assertEquals(7, WhisperUtil.argmax(logits));
+        assertEquals(NEG_INF, logits[beg + 10], 0.0f);
+    }
+
+    @Test
+    public void suppressTokens_forcesTimestampWhenTimestampsAreMoreLikely() {
+        // Over a thousand timestamps at 0 outweigh a single text token at 2
+        logits[7] = 2.0f;
+        int[] tokens = {beg, 7};
+
+        util.suppressTokens(logits, tokens, tokens.length, true);
+
+        assertEquals(NEG_INF, logits[7], 0.0f);
+        assertTrue(WhisperUtil.argmax(logits) > beg);
+    }
+
+    @Test
+    public void argmax_takesFirstOnTies() {
+        assertEquals(1, WhisperUtil.argmax(new float[]{0.0f, 3.0f, 3.0f, NEG_INF}));
+        assertEquals(0, WhisperUtil.argmax(new float[]{NEG_INF, NEG_INF}));
+    }
+
+    @Test
+    public void repeatedTailLength_cutsLoopKeepingOneCopy() {
+        int[] tokens = {1, 2, 10, 11, 12, 13, 10, 11, 12, 13, 10, 11, 12, 13};
+
+        assertEquals(8, WhisperUtil.repeatedTailLength(tokens, tokens.length));
+        assertEquals(0, WhisperUtil.repeatedTailLength(tokens, tokens.length - 1));
+    }
+
+    @Test
+    public void repeatedTailLength_keepsShortRepeats() {
+        // The same word three times is below the minimum span
+        int[] tokens = {1, 5, 5, 5, 2};
+        assertEquals(0, WhisperUtil.repeatedTailLength(tokens, 4));
+
+        int[] loop = new int[12];
+        Arrays.fill(loop, 5);
+        assertEquals(11, WhisperUtil.repeatedTailLength(loop, loop.length));
+    }
+}
@@ -0,0 +1,176 @@
+package com.whispertflite.utils;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.management.ManagementFactory;
+import java.nio.FloatBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.*;
+
+public class WhisperVocabTest {
+
+    @Test
+    public void getWordFromToken_returnsFileBytes() throws IOException {
+        WhisperUtil util = load(TestVocabFiles.write(300), true);
+
+        assertArrayEquals("tok0".getBytes(StandardCharsets.UTF_8), util.getWordFromToken(0));
+        assertArrayEquals("tok299".getBytes(StandardCharsets.UTF_8), util.getWordFromToken(299));
+        assertEquals(51865, util.getVocabSize());
+        assertNull(util.getWordFromToken(-1));
+        assertNull(util.getWordFromToken(util.getVocabSize()));
+    }
+
+    @Test
+    public void additionalTokens_followFileVocab() throws IOException {
+        WhisperUtil util = load(TestVocabFiles.write(16), true);
+
+        assertEquals("[_EOT_]", word(util, util.getTokenEOT()));
+        assertEquals("[_BEG_]", word(util, util.getTokenBEG()));
+        assertEquals("[_TT_2]", word(util, util.getTokenBEG() + 2));
+        assertEquals("[_extra_token_16]", word(util, 16));
+    }
+
+    @Test
+    public void getTokenType_classifiesSpecialTokens() throws IOException {
+        WhisperUtil util = load(TestVocabFiles.write(16), true);
+
+        assertEquals(WhisperUtil.TOKEN_TEXT, util.getTokenType(5));
+        assertEquals(WhisperUtil.TOKEN_TEXT, util.getTokenType(util.getTokenEOT() - 1));
+        assertEquals(WhisperUtil.TOKEN_EOT, util.getTokenType(util.getTokenEOT()));
+        assertEquals(WhisperUtil.TOKEN_TRANSCRIBE, util.getTokenType(util.getTokenTranscribe()));
+        assertEquals(WhisperUtil.TOKEN_TRANSLATE, util.getTokenType(util.getTokenTranslate()));
+        assertEquals(WhisperUtil.TOKEN_LANGUAGE, util.getTokenType(50259));
+        assertEquals(WhisperUtil.TOKEN_LANGUAGE, util.getTokenType(50357));
+        assertEquals(WhisperUtil.TOKEN_SPECIAL, util.getTokenType(util.getTokenSOT()));
+        assertEquals(WhisperUtil.TOKEN_TIMESTAMP, util.getTokenType(util.getTokenBEG()));
+        assertEquals(WhisperUtil.TOKEN_TIMESTAMP, util.getTokenType(util.getTokenBEG() + 100));
+        assertEquals(WhisperUtil.TOKEN_SPECIAL, util.getTokenType(-3));
+    }
+
+    @Test
+    public void getLanguageCode_matchesInputLang() throws IOException {
+        WhisperUtil util = load(TestVocabFiles.write(16), true);
+
+        for (int token = 50259; token <= 50357; token++) {
+            assertEquals(InputLang.getLanguageCodeById(InputLang.getLangList(), token), util.getLanguageCode(token));
+        }
+        assertEquals("", util.getLanguageCode(5));
+        assertEquals("", util.getLanguageCode(util.getTokenTranscribe()));
+    }
+
+    @Test
+    public void appendWord_joinsCharactersSplitAcrossTokens() throws IOException {
+        // "é" is 0xC3 0xA9, split over two tokens as byte-level BPE does
+        byte[][] words = {
+                "caf".getBytes(StandardCharsets.UTF_8), {(byte) 0xC3}, {(byte) 0xA9}, " ok".getBytes(StandardCharsets.UTF_8)
+        };
+        WhisperUtil util = load(TestVocabFiles.write(words), false);
+
+        Utf8Builder text = new Utf8Builder(16);
+        for (int token = 0; token < words.length; token++) {
+            assertTrue(util.appendWord(token, text));
+        }
+        assertFalse(util.appendWord(-1, text));
+        assertEquals("café ok", text.toString());
+    }
+
+    @Test
+    public void appendWord_reusedBuilder_allocatesNothing() throws IOException {
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        WhisperUtil util = load(TestVocabFiles.write(1000), true);
+        Utf8Builder text = new Utf8Builder();
+        decode(util, text); // warm up and grow the builder
+        decode(util, text);
+
+        long threadId = Thread.currentThread().getId();
+        long before = threads.getThreadAllocatedBytes(threadId);
+        int length = decode(util, text);
+        long allocated = threads.getThreadAllocatedBytes(threadId) - before;
+
+        assertTrue(length > 0);
+        assertTrue("allocated " + allocated + " bytes", allocated < 1024);
+    }
+
+    @Test
+    public void loadFiltersAndVocab_writesIndexAndReusesIt() throws IOException {
+        File vocabFile = TestVocabFiles.write(300);
+        File sidecar = VocabIndex.sidecarFor(vocabFile);
+        WhisperUtil first = load(vocabFile, true);
+        assertTrue(sidecar.isFile());
+        long written = sidecar.lastModified();
+        assertTrue(sidecar.setLastModified(written - 10_000));
+
+        WhisperUtil second = load(vocabFile, true);
+        assertEquals(written - 10_000, sidecar.lastModified()); // read, not rewritten
+        for (int token = 0; token < first.getVocabSize(); token += 97) {
+            assertArrayEquals(first.getWordFromToken(token), second.getWordFromToken(token));
+            assertEquals(first.getTokenType(token), second.getTokenType(token));
+        }
+    }
+
+    @Test
+    public void loadFiltersAndVocab_damagedIndex_isRebuilt() throws IOException {
+        File vocabFile = TestVocabFiles.write(300);
+        load(vocabFile, true);
+        File sidecar = VocabIndex.sidecarFor(vocabFile);
+        try (RandomAccessFile file = new RandomAccessFile(sidecar, "rw")) {
+            file.seek(sidecar.length() - 1);
+            file.write(0x7f);
+        }
+
+        WhisperUtil util = load(vocabFile, true);
+        assertEquals("tok299", word(util, 299));
+        assertEquals("[_TT_2]", word(util, util.getTokenBEG() + 2));
+        assertNotNull(VocabIndex.read(vocabFile, true));
+    }
+
+    @Test
+    public void loadFiltersAndVocab_indexOfOtherTokenLayout_isNotUsed() throws IOException {
+        File vocabFile = TestVocabFiles.write(16);
+        load(vocabFile, true);
+
+        WhisperUtil english = load(vocabFile, false);
+        assertEquals(51864, english.getVocabSize());
+        assertEquals("[_EOT_]", word(english, english.getTokenEOT()));
+    }
+
+    @Test
+    public void getMelFilters_viewsFileWeights() throws IOException {
+        WhisperUtil util = load(TestVocabFiles.write(16), true);
+        float[] expected = TestVocabFiles.melFilters(WhisperUtil.WHISPER_N_MEL, 1 + WhisperUtil.WHISPER_N_FFT / 2);
+
+        FloatBuffer filters = util.getMelFilters();
+        assertEquals(expected.length, filters.remaining());
+        float[] actual = new float[expected.length];
+        filters.get(actual);
+        assertArrayEquals(expected, actual, 0.0f);
+        assertEquals(0, util.getMelFilters().position());
+    }
+
+    // Decodes a transcript-sized run of tokens the way runInference does
+    private static int decode(WhisperUtil util, Utf8Builder text) {
+        text.reset();
+        for (int i = 0; i < 448; i++) {
+            int token = (i * 37) % 1000;
+            if (util.getTokenType(token) == WhisperUtil.TOKEN_TEXT) {
+                util.appendWord(token, text);
+            }
+        }
+        return text.length();
+    }
+
+    private static String word(WhisperUtil util, int token) {
+        return new String(util.getWordFromToken(token), StandardCharsets.UTF_8);
+    }
+
+    private static WhisperUtil load(File vocabFile, boolean multilingual) throws IOException {
+        WhisperUtil util = new WhisperUtil();
+        assertTrue(util.loadFiltersAndVocab(multilingual, vocabFile.getAbsolutePath()));
+        return util;
+    }
+}